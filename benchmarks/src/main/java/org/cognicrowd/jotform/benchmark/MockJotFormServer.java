@@ -0,0 +1,393 @@
+package org.cognicrowd.jotform.benchmark;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.cognicrowd.jotform.util.JsonMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author csarasua
+ *         Embedded stand-in for the JotForm API, to exercise and measure FormManager without api.jotform.com.
+ *         It implements the endpoints used by the application:
+ *         - POST /form: creates a new (empty) form.
+ *         - GET /form/{id}/questions: the questions of a created form, or "questionsPerForm" made-up questions for any
+ *         other id (the source forms).
+ *         - PUT /form/{id}/questions: adds questions to a created form.
+ *         - GET /form/{id}/submissions?offset=&limit=: "submissionsPerForm" made-up submissions of a created form, each
+ *         with an answer to every question added to the form (the questions are only kept if submissionsPerForm > 0).
+ *         Each request can be delayed (latency plus random jitter), fail with a 500 (error rate), or be throttled with
+ *         a 429 and Retry-After when more than "requestsPerSecond" requests arrive in the same second. The number of
+ *         calls and the latency of each request (as seen by the server, injected delay included) are recorded per
+ *         endpoint.
+ */
+public class MockJotFormServer {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static final String POST_FORM = "POST /form";
+    public static final String GET_QUESTIONS = "GET /form/{id}/questions";
+    public static final String PUT_QUESTIONS = "PUT /form/{id}/questions";
+    public static final String GET_SUBMISSIONS = "GET /form/{id}/submissions";
+
+    private final HttpServer server;
+
+    private int questionsPerForm = 10;
+    private int submissionsPerForm = 0;
+    private long latencyMillis = 0;
+    private long jitterMillis = 0;
+    private double errorRate = 0;
+    // Maximum number of requests per second, 0 for no throttling.
+    private int requestsPerSecond = 0;
+
+    private final AtomicLong nextFormId = new AtomicLong(90000000000000L);
+    // Number of questions added to each created form.
+    private final ConcurrentMap<String, AtomicInteger> questionsOfCreatedForm = new ConcurrentHashMap<String, AtomicInteger>();
+    // Qid and order of the questions added to each created form, for the submissions.
+    private final ConcurrentMap<String, Queue<String[]>> questionIdsOfCreatedForm = new ConcurrentHashMap<String, Queue<String[]>>();
+
+    // Throttling: requests received in the current second.
+    private final AtomicLong currentSecond = new AtomicLong();
+    private final AtomicInteger requestsInCurrentSecond = new AtomicInteger();
+
+    // Statistics per endpoint.
+    private final ConcurrentMap<String, AtomicInteger> calls = new ConcurrentHashMap<String, AtomicInteger>();
+    private final ConcurrentMap<String, Queue<Long>> latencies = new ConcurrentHashMap<String, Queue<Long>>();
+    private final AtomicInteger injectedErrors = new AtomicInteger();
+    private final AtomicInteger throttledRequests = new AtomicInteger();
+
+    /**
+     * Creates the server on a free port of localhost. It does not accept requests until it is started.
+     */
+    public MockJotFormServer() throws IOException {
+        // Without TCP_NODELAY the headers and the body of the responses are sent in separate packets, and the client
+        // waits for a delayed ACK (about 40 ms) in each request.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/form", new FormHandler());
+        this.server.setExecutor(Executors.newCachedThreadPool());
+        for (String endpoint : Arrays.asList(POST_FORM, GET_QUESTIONS, PUT_QUESTIONS, GET_SUBMISSIONS)) {
+            this.calls.put(endpoint, new AtomicInteger());
+            this.latencies.put(endpoint, new ConcurrentLinkedQueue<Long>());
+        }
+    }
+
+    public void start() {
+        this.server.start();
+    }
+
+    public void stop() {
+        this.server.stop(0);
+        ((ExecutorService) this.server.getExecutor()).shutdownNow();
+    }
+
+    /**
+     * URL to use as "api.getform" and "api.postform".
+     */
+    public String getFormUrl() {
+        return "http://localhost:" + this.server.getAddress().getPort() + "/form";
+    }
+
+    public void setQuestionsPerForm(int questionsPerForm) {
+        this.questionsPerForm = questionsPerForm;
+    }
+
+    public void setSubmissionsPerForm(int submissionsPerForm) {
+        this.submissionsPerForm = submissionsPerForm;
+    }
+
+    public void setLatency(long latencyMillis, long jitterMillis) {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+    }
+
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    public void setRequestsPerSecond(int requestsPerSecond) {
+        this.requestsPerSecond = requestsPerSecond;
+    }
+
+    public int getCalls(String endpoint) {
+        return this.calls.get(endpoint).get();
+    }
+
+    public int getTotalCalls() {
+        int total = 0;
+        for (AtomicInteger count : this.calls.values()) {
+            total += count.get();
+        }
+        return total;
+    }
+
+    public int getInjectedErrors() {
+        return injectedErrors.get();
+    }
+
+    public int getThrottledRequests() {
+        return throttledRequests.get();
+    }
+
+    /**
+     * Gets a percentile of the latency of the requests to an endpoint.
+     *
+     * @param endpoint   the endpoint.
+     * @param percentile the percentile, between 0 and 100.
+     * @return the latency in milliseconds, or 0 if there were no requests.
+     */
+    public double getLatencyPercentile(String endpoint, double percentile) {
+        List<Long> sorted = new ArrayList<Long>(this.latencies.get(endpoint));
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        Collections.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index))) / 1e6;
+    }
+
+    /**
+     * Number of questions that have been added to a created form.
+     */
+    public int getQuestionsOfCreatedForm(String formId) {
+        AtomicInteger count = this.questionsOfCreatedForm.get(formId);
+        return count != null ? count.get() : 0;
+    }
+
+    /**
+     * Number of created forms that have exactly a number of questions (e.g. all the questions of a merged form, no
+     * more and no less).
+     */
+    public int getCompletedForms(int numberOfQuestions) {
+        int completed = 0;
+        for (AtomicInteger count : this.questionsOfCreatedForm.values()) {
+            if (count.get() == numberOfQuestions) {
+                completed++;
+            }
+        }
+        return completed;
+    }
+
+    private class FormHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            long start = System.nanoTime();
+            String endpoint = null;
+            try {
+                String method = exchange.getRequestMethod();
+                String[] path = exchange.getRequestURI().getPath().split("/");
+                // "/form" -> ["", "form"], "/form/{id}/questions" -> ["", "form", id, "questions"]
+                if (method.equals("POST") && path.length == 2) {
+                    endpoint = POST_FORM;
+                } else if (path.length == 4 && path[3].equals("questions") && method.equals("GET")) {
+                    endpoint = GET_QUESTIONS;
+                } else if (path.length == 4 && path[3].equals("questions") && method.equals("PUT")) {
+                    endpoint = PUT_QUESTIONS;
+                } else if (path.length == 4 && path[3].equals("submissions") && method.equals("GET")) {
+                    endpoint = GET_SUBMISSIONS;
+                } else {
+                    send(exchange, 404, "{\"responseCode\":404,\"message\":\"Not found\"}");
+                    return;
+                }
+                calls.get(endpoint).incrementAndGet();
+
+                if (isThrottled()) {
+                    throttledRequests.incrementAndGet();
+                    exchange.getResponseHeaders().add("Retry-After", "1");
+                    send(exchange, 429, "{\"responseCode\":429,\"message\":\"Too many requests\"}");
+                    return;
+                }
+                delay();
+                if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                    injectedErrors.incrementAndGet();
+                    send(exchange, 500, "{\"responseCode\":500,\"message\":\"Injected error\"}");
+                    return;
+                }
+
+                if (endpoint.equals(POST_FORM)) {
+                    drain(exchange.getRequestBody());
+                    String formId = Long.toString(nextFormId.incrementAndGet());
+                    questionsOfCreatedForm.put(formId, new AtomicInteger());
+                    if (submissionsPerForm > 0) {
+                        questionIdsOfCreatedForm.put(formId, new ConcurrentLinkedQueue<String[]>());
+                    }
+                    send(exchange, 200, "{\"responseCode\":200,\"message\":\"success\",\"content\":{\"id\":\"" + formId + "\"}}");
+                } else if (endpoint.equals(GET_QUESTIONS)) {
+                    AtomicInteger created = questionsOfCreatedForm.get(path[2]);
+                    send(exchange, 200, questionsResponse(created != null ? created.get() : questionsPerForm));
+                } else if (endpoint.equals(GET_SUBMISSIONS)) {
+                    Queue<String[]> questions = questionIdsOfCreatedForm.get(path[2]);
+                    if (questions == null) {
+                        send(exchange, 404, "{\"responseCode\":404,\"message\":\"Form not found\"}");
+                        return;
+                    }
+                    Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+                    int offset = Integer.parseInt(query.containsKey("offset") ? query.get("offset") : "0");
+                    int limit = Integer.parseInt(query.containsKey("limit") ? query.get("limit") : "20");
+                    send(exchange, 200, submissionsResponse(path[2], new ArrayList<String[]>(questions), offset, limit));
+                } else {
+                    AtomicInteger created = questionsOfCreatedForm.get(path[2]);
+                    int added = readQuestions(exchange.getRequestBody(), created != null ? questionIdsOfCreatedForm.get(path[2]) : null);
+                    if (created == null) {
+                        send(exchange, 404, "{\"responseCode\":404,\"message\":\"Form not found\"}");
+                        return;
+                    }
+                    created.addAndGet(added);
+                    send(exchange, 200, "{\"responseCode\":200,\"message\":\"success\",\"content\":{}}");
+                }
+            } finally {
+                if (endpoint != null) {
+                    latencies.get(endpoint).add(System.nanoTime() - start);
+                }
+                exchange.close();
+            }
+        }
+    }
+
+    private boolean isThrottled() {
+        if (this.requestsPerSecond <= 0) {
+            return false;
+        }
+        long second = System.currentTimeMillis() / 1000;
+        long previous = this.currentSecond.get();
+        if (second != previous && this.currentSecond.compareAndSet(previous, second)) {
+            this.requestsInCurrentSecond.set(0);
+        }
+        return this.requestsInCurrentSecond.incrementAndGet() > this.requestsPerSecond;
+    }
+
+    private void delay() {
+        long delay = this.latencyMillis + (this.jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(this.jitterMillis + 1) : 0);
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static String questionsResponse(int numberOfQuestions) {
+        StringBuilder body = new StringBuilder("{\"responseCode\":200,\"message\":\"success\",\"content\":{");
+        for (int i = 1; i <= numberOfQuestions; i++) {
+            if (i > 1) {
+                body.append(',');
+            }
+            body.append('"').append(i).append("\":{\"qid\":\"").append(i).append("\",\"order\":\"").append(i)
+                    .append("\",\"type\":\"control_textbox\",\"text\":\"Question ").append(i)
+                    .append("\",\"name\":\"question").append(i).append("\",\"required\":\"No\",\"labelAlign\":\"Auto\"}");
+        }
+        return body.append("}}").toString();
+    }
+
+    /**
+     * Gives the submissions from offset to offset + limit of a form, with an answer to each of its questions.
+     */
+    private String submissionsResponse(String formId, List<String[]> questions, int offset, int limit) {
+        int to = Math.min(this.submissionsPerForm, offset + limit);
+        StringBuilder body = new StringBuilder("{\"responseCode\":200,\"message\":\"success\",\"content\":[");
+        for (int s = offset; s < to; s++) {
+            if (s > offset) {
+                body.append(',');
+            }
+            body.append("{\"id\":\"").append(formId).append(s).append("\",\"form_id\":\"").append(formId)
+                    .append("\",\"created_at\":\"2015-06-01 10:00:00\",\"status\":\"ACTIVE\",\"answers\":{");
+            for (int i = 0; i < questions.size(); i++) {
+                String[] question = questions.get(i);
+                if (i > 0) {
+                    body.append(',');
+                }
+                body.append('"').append(question[0]).append("\":{\"name\":\"question").append(i + 1)
+                        .append("\",\"order\":\"").append(question[1]).append("\",\"text\":\"Question ").append(i + 1)
+                        .append("\",\"type\":\"control_textbox\",\"answer\":\"answer ").append(s).append("\"}");
+            }
+            body.append("}}");
+        }
+        return body.append("],\"resultSet\":{\"offset\":").append(offset).append(",\"limit\":").append(limit)
+                .append(",\"count\":").append(Math.max(0, to - offset)).append("}}").toString();
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> parameters = new HashMap<String, String>();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                int equals = parameter.indexOf('=');
+                if (equals > 0) {
+                    parameters.put(parameter.substring(0, equals), parameter.substring(equals + 1));
+                }
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * Counts the questions of a {"questions":[...]} body without keeping it in memory, and adds the qid and order of
+     * each of them to a collection (if not null).
+     */
+    private static int readQuestions(InputStream in, Collection<String[]> questions) throws IOException {
+        JsonParser parser = JsonMapper.MAPPER.getFactory().createParser(in);
+        int count = 0;
+        int depth = 0;
+        boolean inQuestions = false;
+        String[] question = null;
+        JsonToken token;
+        while ((token = parser.nextToken()) != null) {
+            if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                if (inQuestions && depth == 2 && token == JsonToken.START_OBJECT) {
+                    count++;
+                    question = new String[2];
+                    if (questions != null) {
+                        questions.add(question);
+                    }
+                }
+                if (depth == 1 && token == JsonToken.START_ARRAY && "questions".equals(parser.getCurrentName())) {
+                    inQuestions = true;
+                }
+                depth++;
+            } else if (token == JsonToken.END_OBJECT || token == JsonToken.END_ARRAY) {
+                depth--;
+                if (depth == 1) {
+                    inQuestions = false;
+                }
+            } else if (inQuestions && depth == 3 && token == JsonToken.VALUE_STRING) {
+                if ("qid".equals(parser.getCurrentName())) {
+                    question[0] = parser.getText();
+                } else if ("order".equals(parser.getCurrentName())) {
+                    question[1] = parser.getText();
+                }
+            }
+        }
+        parser.close();
+        return count;
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (in.read(buffer) != -1) {
+            // Discards the body.
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(UTF8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+}
@@ -0,0 +1,140 @@
+package org.cognicrowd.jotform.benchmark;
+
+import org.cognicrowd.jotform.formgeneration.FormManager;
+import org.cognicrowd.jotform.util.ConfigurationManager;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * @author csarasua
+ *         End-to-end throughput benchmark of the serialisation of shuffled lists (FormManager.serialiseSetOfShuffledLists)
+ *         against an embedded MockJotFormServer, so that changes to the client, the caches or the threading can be
+ *         measured without calling api.jotform.com.
+ *         The rest of the configuration (threads, connections, retries, circuit breakers) is taken from
+ *         config.properties; the API endpoints, the request rate, the journal and the questions snapshot are
+ *         overridden for the run.
+ *         Usage: SerialisationBenchmark [users] [tests] [tasks] [questionsPerForm] [latencyMillis] [jitterMillis]
+ *         [errorRate] [serverRequestsPerSecond] [chunkSize] [submissionsPerForm]
+ *         It reports the forms created per second, the p50/p99 latency of each endpoint and the total API calls.
+ *         With submissionsPerForm > 0, the submissions of the created forms are then exported
+ *         (FormManager.exportSubmissions), and the answers exported per second are reported too.
+ */
+public class SerialisationBenchmark {
+
+    public static void main(String args[]) throws IOException {
+
+        int users = intArgument(args, 0, 200);
+        int tests = intArgument(args, 1, 6);
+        int tasks = intArgument(args, 2, 6);
+        int questionsPerForm = intArgument(args, 3, 10);
+        long latencyMillis = intArgument(args, 4, 20);
+        long jitterMillis = intArgument(args, 5, 10);
+        double errorRate = args.length > 6 ? Double.parseDouble(args[6]) : 0.01;
+        int serverRequestsPerSecond = intArgument(args, 7, 0);
+        int chunkSize = intArgument(args, 8, ConfigurationManager.getInstance().getSnapshot().getUploadChunkSize());
+        int submissionsPerForm = intArgument(args, 9, 0);
+
+        MockJotFormServer server = new MockJotFormServer();
+        server.setQuestionsPerForm(questionsPerForm);
+        server.setSubmissionsPerForm(submissionsPerForm);
+        server.setLatency(latencyMillis, jitterMillis);
+        server.setErrorRate(errorRate);
+        server.setRequestsPerSecond(serverRequestsPerSecond);
+        server.start();
+
+        File testsFile = File.createTempFile("benchmarkTests", ".csv");
+        File tasksFile = File.createTempFile("benchmarkTasks", ".csv");
+        // The journal is a new one in each run, so that no list is skipped as already serialised.
+        String journal = "output/benchmarkJournal-" + System.currentTimeMillis() + ".log";
+        File journalFile = new File(ConfigurationManager.getInstance().getSnapshot().getBaseDir(), journal);
+        File submissionsFile = new File(journalFile.getParentFile(), "benchmarkSubmissions-" + System.currentTimeMillis() + ".csv");
+        try {
+            writeCatalogue(testsFile, 51000000000000L, "test", tests);
+            writeCatalogue(tasksFile, 52000000000000L, "task", tasks);
+            journalFile.getParentFile().mkdirs();
+
+            ConfigurationManager config = ConfigurationManager.getInstance();
+            config.setProperty("api.getform", server.getFormUrl());
+            config.setProperty("api.postform", server.getFormUrl());
+            config.setProperty("api.key", "benchmark");
+            // The server throttles (if asked to); the client limit is only kept out of the way.
+            config.setProperty("api.requestspersecond", 1000000);
+            config.setProperty("journal.file", journal);
+            config.setProperty("questions.snapshot", "");
+            config.setProperty("upload.chunksize", chunkSize);
+            config.setProperty("output.submissions", submissionsFile.getPath());
+
+            FormManager fm = new FormManager(testsFile, tasksFile);
+            fm.setSeed(1);
+            fm.createSetOfShuffledLists(users);
+
+            long start = System.nanoTime();
+            fm.serialiseSetOfShuffledLists(1);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            // Forms with all their questions.
+            int created = server.getCompletedForms((tests + tasks) * questionsPerForm);
+            System.out.println();
+            System.out.println(String.format("users=%d forms=%d questionsPerForm=%d latency=%d+%dms errorRate=%.3f serverRequestsPerSecond=%d threads=%d chunkSize=%d",
+                    users, tests + tasks, questionsPerForm, latencyMillis, jitterMillis, errorRate, serverRequestsPerSecond,
+                    config.getSnapshot().getSerialisationThreads(), chunkSize));
+            System.out.println(String.format("time: %.2f s, forms created: %d, forms/sec: %.1f", seconds, created, created / seconds));
+            for (String endpoint : new String[]{MockJotFormServer.POST_FORM, MockJotFormServer.GET_QUESTIONS, MockJotFormServer.PUT_QUESTIONS}) {
+                System.out.println(String.format("%-26s calls: %6d  p50: %8.2f ms  p99: %8.2f ms", endpoint,
+                        server.getCalls(endpoint), server.getLatencyPercentile(endpoint, 50), server.getLatencyPercentile(endpoint, 99)));
+            }
+
+            if (submissionsPerForm > 0) {
+                start = System.nanoTime();
+                fm.exportSubmissions();
+                seconds = (System.nanoTime() - start) / 1e9;
+                long answers = countLines(submissionsFile) - 1;
+                System.out.println(String.format("export: %.2f s, answers exported: %d, answers/sec: %.0f", seconds, answers, answers / seconds));
+                System.out.println(String.format("%-26s calls: %6d  p50: %8.2f ms  p99: %8.2f ms", MockJotFormServer.GET_SUBMISSIONS,
+                        server.getCalls(MockJotFormServer.GET_SUBMISSIONS), server.getLatencyPercentile(MockJotFormServer.GET_SUBMISSIONS, 50),
+                        server.getLatencyPercentile(MockJotFormServer.GET_SUBMISSIONS, 99)));
+            }
+            System.out.println(String.format("total API calls: %d (injected errors: %d, throttled: %d)",
+                    server.getTotalCalls(), server.getInjectedErrors(), server.getThrottledRequests()));
+        } finally {
+            server.stop();
+            testsFile.delete();
+            tasksFile.delete();
+            journalFile.delete();
+            submissionsFile.delete();
+        }
+    }
+
+    private static long countLines(File f) throws IOException {
+        BufferedReader in = new BufferedReader(new FileReader(f));
+        try {
+            long lines = 0;
+            while (in.readLine() != null) {
+                lines++;
+            }
+            return lines;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeCatalogue(File f, long firstId, String title, int numberOfForms) throws IOException {
+        Writer out = new FileWriter(f);
+        try {
+            for (int i = 1; i <= numberOfForms; i++) {
+                out.write((firstId + i) + "," + title + i + "\n");
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static int intArgument(String args[], int index, int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+    }
+}
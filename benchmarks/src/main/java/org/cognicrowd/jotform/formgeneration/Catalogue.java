@@ -0,0 +1,65 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import org.cognicrowd.jotform.datamodel.Form;
+import org.cognicrowd.jotform.datamodel.TypeOfForm;
+import org.cognicrowd.jotform.util.ConfigurationManager;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author csarasua
+ *         Made-up catalogue of forms for the benchmarks: CSV files of tests and tasks (in the format of
+ *         data/testsFile.csv), and the instructions, break and end of session forms.
+ */
+class Catalogue {
+
+    final File testsFile;
+    final File tasksFile;
+    final List<Form> frontForms = new ArrayList<Form>();
+    final List<Form> middleForms = new ArrayList<Form>();
+    final List<Form> endForms = new ArrayList<Form>();
+
+    /**
+     * Creates the catalogue files.
+     *
+     * @param numberOfForms number of forms of each list, half tests and half tasks.
+     */
+    Catalogue(int numberOfForms) throws IOException {
+        // A fixed seed, so that FormManager does not choose (and print) a new one in each invocation.
+        ConfigurationManager.getInstance().setProperty("shuffle.seed", 1L);
+
+        this.testsFile = File.createTempFile("benchmarkTests", ".csv");
+        this.tasksFile = File.createTempFile("benchmarkTasks", ".csv");
+        write(this.testsFile, 51000000000000L, "test", numberOfForms / 2);
+        write(this.tasksFile, 52000000000000L, "task", numberOfForms - numberOfForms / 2);
+
+        this.frontForms.add(new Form("52504847884971", "i", TypeOfForm.Other));
+        this.middleForms.add(new Form("52513648520957", "b", TypeOfForm.Other));
+        this.endForms.add(new Form("52793338026964", "e", TypeOfForm.Other));
+    }
+
+    FormManager newFormManager() {
+        return new FormManager(this.testsFile, this.tasksFile);
+    }
+
+    void delete() {
+        this.testsFile.delete();
+        this.tasksFile.delete();
+    }
+
+    private static void write(File f, long firstId, String title, int numberOfForms) throws IOException {
+        Writer out = new FileWriter(f);
+        try {
+            for (int i = 1; i <= numberOfForms; i++) {
+                out.write((firstId + i) + "," + title + i + "\n");
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import org.cognicrowd.jotform.datamodel.Form;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author csarasua
+ *         Benchmark of the insertion of the instructions, breaks and ends of session in the shuffled lists of all the
+ *         users (the loop of FormManager.generateShuffledLists), with a SessionLayout computed once.
+ *         The decoration does not depend on the order of the forms, so a fixed pool of shuffled lists is reused for
+ *         all the users, and the permutations are not part of the measurement.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DecorationBenchmark {
+
+    static final int POOL_SIZE = 1024;
+    static final int SESSIONS = 3;
+
+    @Param({"10", "1000", "100000", "1000000"})
+    int users;
+
+    @Param({"10", "100", "500"})
+    int forms;
+
+    Catalogue catalogue;
+    FormManager fm;
+    SessionLayout layout;
+    List<List<Form>> shuffledLists = new ArrayList<List<Form>>();
+
+    @Setup(Level.Trial)
+    public void createShuffledLists() throws IOException {
+        this.catalogue = new Catalogue(this.forms);
+        this.fm = this.catalogue.newFormManager();
+        for (int i = 0; i < POOL_SIZE; i++) {
+            this.shuffledLists.add(this.fm.getShuffledList(i));
+        }
+        this.layout = new SessionLayout(this.shuffledLists.get(0).size(), SESSIONS, this.catalogue.frontForms,
+                this.catalogue.middleForms, this.catalogue.endForms);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteCatalogue() {
+        this.catalogue.delete();
+    }
+
+    @Benchmark
+    public void decorateShuffledLists(Blackhole blackhole) {
+        for (int user = 0; user < this.users; user++) {
+            blackhole.consume(this.layout.apply(this.shuffledLists.get(user % POOL_SIZE)));
+        }
+    }
+}
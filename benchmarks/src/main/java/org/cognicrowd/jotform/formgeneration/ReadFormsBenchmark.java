@@ -0,0 +1,40 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author csarasua
+ *         Benchmark of the parsing of the CSV files of tests and tasks (FormManager.readForms, called by the
+ *         constructor). The number of users does not play any role here, only the size of the catalogue.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReadFormsBenchmark {
+
+    @Param({"10", "100", "500"})
+    int forms;
+
+    Catalogue catalogue;
+
+    @Setup(Level.Trial)
+    public void createCatalogue() throws IOException {
+        this.catalogue = new Catalogue(this.forms);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteCatalogue() {
+        this.catalogue.delete();
+    }
+
+    @Benchmark
+    public FormManager readForms() {
+        return this.catalogue.newFormManager();
+    }
+}
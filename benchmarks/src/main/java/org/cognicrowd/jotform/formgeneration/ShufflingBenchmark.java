@@ -0,0 +1,98 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import org.cognicrowd.jotform.datamodel.Form;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author csarasua
+ *         Benchmarks of the creation of the set of shuffled lists (FormManager.createSetOfShuffledLists) and of the
+ *         look-up of repeated lists (FormManager.isRepeatedShuffledList).
+ *         The set keeps every list, so the largest combinations of users and forms need a large heap
+ *         (e.g. -jvmArgsAppend -Xmx8g) or a subset of the parameters (e.g. -p users=10,1000).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ShufflingBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class CreateState {
+
+        @Param({"10", "1000", "100000", "1000000"})
+        int users;
+
+        @Param({"10", "100", "500"})
+        int forms;
+
+        Catalogue catalogue;
+        FormManager fm;
+
+        @Setup(Level.Trial)
+        public void createCatalogue() throws IOException {
+            this.catalogue = new Catalogue(this.forms);
+        }
+
+        // createSetOfShuffledLists continues from the lists already created, so each invocation starts from scratch.
+        @Setup(Level.Invocation)
+        public void createFormManager() {
+            this.fm = this.catalogue.newFormManager();
+        }
+
+        @TearDown(Level.Trial)
+        public void deleteCatalogue() {
+            this.catalogue.delete();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class LookupState {
+
+        // Number of lists that are looked up, half of them in the set and half not.
+        static final int PROBES = 1024;
+
+        @Param({"10", "1000", "100000", "1000000"})
+        int users;
+
+        @Param({"10", "100", "500"})
+        int forms;
+
+        FormManager fm;
+        List<List<Form>> probes = new ArrayList<List<Form>>();
+        int next = 0;
+
+        @Setup(Level.Trial)
+        public void createSet() throws IOException {
+            Catalogue catalogue = new Catalogue(this.forms);
+            this.fm = catalogue.newFormManager();
+            catalogue.delete();
+            this.fm.createSetOfShuffledLists(this.users);
+            for (int i = 0; i < PROBES; i++) {
+                // Even probes: participants of the set; odd probes: the following participants (not in the set).
+                long participant = (i % 2 == 0 ? 0 : this.users) + (long) (i / 2) * this.users / (PROBES / 2);
+                this.probes.add(this.fm.getShuffledList(participant));
+            }
+        }
+    }
+
+    @Benchmark
+    public FormManager createSetOfShuffledLists(CreateState state) {
+        state.fm.createSetOfShuffledLists(state.users);
+        return state.fm;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public boolean isRepeatedShuffledList(LookupState state) {
+        List<Form> probe = state.probes.get(state.next);
+        state.next = (state.next + 1) % LookupState.PROBES;
+        return state.fm.isRepeatedShuffledList(probe);
+    }
+}
@@ -0,0 +1,68 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import org.cognicrowd.jotform.datamodel.Form;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author csarasua
+ *         Benchmark of the writing of the CSV file with the decorated list of each user (ShuffledResultWriter, which
+ *         replaced writeShuffledResult), including the final move of the file.
+ *         A fixed pool of decorated lists is written for all the users.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WriteShuffledResultBenchmark {
+
+    static final int POOL_SIZE = 1024;
+
+    @Param({"10", "1000", "100000", "1000000"})
+    int users;
+
+    @Param({"10", "100", "500"})
+    int forms;
+
+    File output;
+    List<List<Form>> decoratedLists = new ArrayList<List<Form>>();
+
+    @Setup(Level.Trial)
+    public void createDecoratedLists() throws IOException {
+        Catalogue catalogue = new Catalogue(this.forms);
+        FormManager fm = catalogue.newFormManager();
+        catalogue.delete();
+        SessionLayout layout = new SessionLayout(this.forms, DecorationBenchmark.SESSIONS, catalogue.frontForms,
+                catalogue.middleForms, catalogue.endForms);
+        for (int i = 0; i < POOL_SIZE; i++) {
+            this.decoratedLists.add(layout.apply(fm.getShuffledList(i)));
+        }
+        this.output = File.createTempFile("benchmarkShuffledLists", ".csv");
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteOutput() {
+        this.output.delete();
+    }
+
+    @Benchmark
+    public File writeShuffledResult() throws IOException {
+        ShuffledResultWriter writer = new ShuffledResultWriter(this.output);
+        try {
+            for (int user = 0; user < this.users; user++) {
+                writer.writeRow(this.decoratedLists.get(user % POOL_SIZE));
+            }
+            writer.commit();
+        } finally {
+            writer.close();
+        }
+        return this.output;
+    }
+}
@@ -1,17 +1,14 @@
 import org.cognicrowd.jotform.formgeneration.FormManager;
+import org.cognicrowd.jotform.util.ConfigurationManager;
+import org.cognicrowd.jotform.util.ConfigurationSnapshot;
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 
 /**
  * @author csarasua
  */
 public class Main {
 
-    // Main directory of the code.
-    static String workingDir = System.getProperty("user.dir");
-    static String workingDirForFileName = workingDir.replace("\\", "/");
-
     public static void main(String args[]) {
 
       // composeShuffledVersionOfTestsAndTasks();
@@ -23,24 +20,28 @@ public class Main {
     private static void composeShuffledVersionOfTestsAndTasks()
     {
 
-        File testsFile = new File(workingDirForFileName+"/data/testsFile.csv");
-        File tasksFile = new File(workingDirForFileName+"/data/tasksFile.csv");
-
-        FormManager fm = new FormManager(testsFile, tasksFile);
+        // The files of "data.tests" and "data.tasks" in config.properties.
+        ConfigurationSnapshot config = ConfigurationManager.getInstance().getSnapshot();
+        FormManager fm = new FormManager(config.getTestsFile(), config.getTasksFile());
         fm.createSetOfShuffledLists(2);
         fm.serialiseSetOfShuffledLists(1);
+        // Once the participants have filled in the forms, their answers can be exported with fm.exportSubmissions(),
+        // which gives the number of forms that could not be exported.
 
     }
 
     private static void generateShuffledListsOfForms()
     {
-        File testsFile = new File(workingDirForFileName+"/data/testsFile.csv");
-        File tasksFile = new File(workingDirForFileName+"/data/tasksFile.csv");
-
-        FormManager fm = new FormManager(testsFile, tasksFile);
+        // The files of "data.tests" and "data.tasks" in config.properties.
+        ConfigurationSnapshot config = ConfigurationManager.getInstance().getSnapshot();
+        FormManager fm = new FormManager(config.getTestsFile(), config.getTasksFile());
+        // The ordering of "ordering.strategy" in config.properties can be overridden here, e.g.:
+        // fm.setTypeOfOrdering(TypeOfOrdering.LatinSquare);
         try {
             fm.generateShuffledLists(80,3);
-        } catch (FileNotFoundException e) {
+            // After adding or removing tests or tasks, the previous lists can be updated instead of generated again:
+            // fm.updateShuffledLists(80,3);
+        } catch (IOException e) {
             e.printStackTrace();
         }
     }
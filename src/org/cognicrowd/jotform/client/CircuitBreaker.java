@@ -0,0 +1,68 @@
+package org.cognicrowd.jotform.client;
+
+/**
+ * @author csarasua
+ *         Circuit breaker of one endpoint of the JotForm API.
+ *         After a number of consecutive failures the circuit opens, and no request is sent to the endpoint for a
+ *         while; then one trial request is let through (half-open): if it succeeds the circuit closes again, otherwise
+ *         it stays open for another while. This avoids hammering the API during an outage.
+ */
+public class CircuitBreaker {
+
+    private enum State {Closed, Open, HalfOpen}
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.Closed;
+    private int consecutiveFailures = 0;
+    // Time at which an open circuit lets a trial request through.
+    private long openUntil = 0;
+
+    /**
+     * Constructor
+     *
+     * @param failureThreshold number of consecutive failures that opens the circuit.
+     * @param openMillis       time during which an open circuit does not let requests through.
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Asks permission to send a request.
+     *
+     * @return 0 if the request can be sent now, otherwise the time (in milliseconds) to wait before asking again.
+     */
+    public synchronized long millisUntilAllowed() {
+        if (this.state == State.Closed) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        if (now >= this.openUntil) {
+            // Lets one trial request through; the others wait for its result (or for another while, if it is lost).
+            this.state = State.HalfOpen;
+            this.openUntil = now + this.openMillis;
+            return 0;
+        }
+        return Math.max(1, this.openUntil - now);
+    }
+
+    public synchronized void recordSuccess() {
+        this.state = State.Closed;
+        this.consecutiveFailures = 0;
+    }
+
+    public synchronized void recordFailure() {
+        this.consecutiveFailures++;
+        if (this.state == State.HalfOpen || this.consecutiveFailures >= this.failureThreshold) {
+            this.state = State.Open;
+            this.openUntil = System.currentTimeMillis() + this.openMillis;
+        }
+    }
+
+    public synchronized boolean isOpen() {
+        return this.state != State.Closed;
+    }
+}
@@ -0,0 +1,383 @@
+package org.cognicrowd.jotform.client;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.util.concurrent.RateLimiter;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.util.EntityUtils;
+import org.cognicrowd.jotform.datamodel.Question;
+import org.cognicrowd.jotform.metrics.Metrics;
+import org.cognicrowd.jotform.util.ConfigurationManager;
+import org.cognicrowd.jotform.util.ConfigurationSnapshot;
+import org.cognicrowd.jotform.util.JsonMapper;
+import org.cognicrowd.jotform.util.LogSampler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * @author csarasua
+ *         Client of the JotForm API (http://api.jotform.com/docs/).
+ *         All the requests share one pool of connections and one rate limiter, so the client can be used by several
+ *         threads at the same time without exceeding the number of requests per second allowed by the API.
+ *         The API key is sent in the APIKEY header (not in the URL), so it does not appear in logs of URLs. Every
+ *         request is counted and timed in the Metrics; only a sample of them is logged, at debug level.
+ *         Connections and reads time out ("http.connecttimeout", "http.sockettimeout"), so a stalled request fails
+ *         (and is retried) instead of holding its thread and connection.
+ */
+public class JotFormClient {
+
+    private static final Log log = LogFactory.getLog(JotFormClient.class);
+
+    // Pool of connections shared by all the requests.
+    private final PoolingClientConnectionManager connectionManager;
+    private final DefaultHttpClient httpClient;
+    // Limits the number of requests per second sent to the API.
+    private final RateLimiter rateLimiter;
+    // When and how often failed requests are tried again.
+    private volatile RetryPolicy retryPolicy;
+    // One circuit breaker per endpoint (post form, get questions, put questions).
+    private final ConcurrentMap<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<String, CircuitBreaker>();
+    private final int circuitFailureThreshold;
+    private final long circuitOpenMillis;
+    // Readers of the responses, shared by all the requests.
+    private static final ResponseReader<FormResponse> FORM_READER = json(FormResponse.class);
+    private static final ResponseReader<QuestionsResponse> QUESTIONS_READER = json(QuestionsResponse.class);
+
+    /**
+     * Reads the body of a successful response, as it arrives.
+     */
+    public interface ResponseReader<T> {
+        T read(InputStream in) throws IOException;
+    }
+
+    // The API key, the endpoints, the requests per second and the retry policy are read from the current
+    // configuration for each request, so they can change while the client is in use.
+    private final ConfigurationManager configuration;
+    // Configuration whose requests per second and retry policy are in use.
+    private volatile ConfigurationSnapshot applied;
+
+    private final Metrics metrics = Metrics.getInstance();
+    // Requests and retries that are logged.
+    private final LogSampler requestSampler;
+    private final LogSampler retrySampler;
+
+    /**
+     * Constructor
+     *
+     * @param configuration configuration with the API key, the endpoints, the size of the pool of connections, the
+     *                      number of requests per second and the retry policy.
+     */
+    public JotFormClient(ConfigurationManager configuration) {
+        this.configuration = configuration;
+        ConfigurationSnapshot config = configuration.getSnapshot();
+
+        this.connectionManager = new PoolingClientConnectionManager();
+        this.connectionManager.setMaxTotal(config.getMaxConnections());
+        this.connectionManager.setDefaultMaxPerRoute(config.getMaxConnectionsPerRoute());
+        this.httpClient = new DefaultHttpClient(this.connectionManager);
+        HttpConnectionParams.setConnectionTimeout(this.httpClient.getParams(), config.getConnectTimeout());
+        HttpConnectionParams.setSoTimeout(this.httpClient.getParams(), config.getSocketTimeout());
+
+        this.rateLimiter = RateLimiter.create(config.getRequestsPerSecond());
+        this.retryPolicy = RetryPolicy.fromConfiguration(config);
+        this.applied = config;
+        this.circuitFailureThreshold = config.getCircuitFailureThreshold();
+        this.circuitOpenMillis = config.getCircuitOpenTime();
+        this.requestSampler = new LogSampler(config.getLogSampleRate());
+        this.retrySampler = new LogSampler(config.getLogSampleRate());
+    }
+
+    /**
+     * Creates a new (empty) form.
+     * The request is not sent again once it has reached the server (a second POST could create a second form); it is
+     * only tried again if the connection could not be established.
+     *
+     * @param title title of the new form.
+     * @return the id of the created form.
+     */
+    public String createForm(String title) throws IOException {
+        // Creates the Http POST request to generate the new forms.
+        HttpPost postForm = new HttpPost(this.current().getHttpPostForm());
+        postForm.setHeader("Accept", "application/json");
+
+        ObjectNode formData = JsonMapper.MAPPER.createObjectNode();
+        formData.putObject("properties").put("title", title);
+        postForm.setEntity(new ByteArrayEntity(JsonMapper.MAPPER.writeValueAsBytes(formData), ContentType.create("application/json", "UTF-8")));
+
+        FormResponse response = this.execute(postForm, "post form", FORM_READER);
+        return response != null && response.content != null ? response.content.id : null;
+    }
+
+    /**
+     * Gets the questions of a form.
+     * <p/>
+     * Sample response:
+     * {
+     * "responseCode": 200,
+     * "message": "success",
+     * "content": {
+     * "1": {
+     * "hint":" ",
+     * "labelAlign":"Auto",
+     * "name":"textboxExample1",
+     * "order":"1",
+     * "qid":"1",
+     * "readonly":"No",
+     * "required":"No",
+     * "shrink": "No",
+     * "size":"20",
+     * "text":"Textbox Example",
+     * "type":"control_textbox",
+     * "validation":"None"
+     * },
+     * ...}
+     *
+     * @param formId id of the form.
+     * @return the questions of the form ("content" of the response), keyed by question id.
+     */
+    public Map<String, Question> getQuestions(String formId) throws IOException {
+        // Creates the Http GET request to get the questions of forms.
+        HttpGet getQuestionsOfForm = new HttpGet(this.current().getHttpGetForm() + "/" + formId + "/questions");
+        getQuestionsOfForm.setHeader("Accept", "application/json");
+
+        QuestionsResponse response = this.execute(getQuestionsOfForm, "get questions", QUESTIONS_READER);
+        return response != null && response.content != null ? response.content : Collections.<String, Question>emptyMap();
+    }
+
+    /**
+     * Gets a page of the submissions of a form (GET /form/{id}/submissions), oldest first, read by a reader of the
+     * response as it arrives, so that the page does not need to be kept in memory. In this order, the submissions
+     * that arrive while the pages are requested go after the last page, and do not shift the ones of the next pages.
+     * The page is requested again (and read from the beginning) if it fails before it starts to arrive.
+     *
+     * @param formId id of the form.
+     * @param offset number of submissions before the page.
+     * @param limit  maximum number of submissions of the page.
+     * @param reader reader of the response.
+     * @return what the reader gives.
+     */
+    public <T> T getSubmissions(String formId, int offset, int limit, ResponseReader<T> reader) throws IOException {
+        HttpGet getSubmissionsOfForm = new HttpGet(this.current().getHttpGetForm() + "/" + formId + "/submissions?offset=" + offset + "&limit=" + limit
+                + "&orderby=created_at&direction=ASC");
+        getSubmissionsOfForm.setHeader("Accept", "application/json");
+
+        return this.execute(getSubmissionsOfForm, "get submissions", reader);
+    }
+
+    /**
+     * Adds questions to a form.
+     *
+     * @param formId    id of the form.
+     * @param questions JSON entity of shape {"questions":[...]}.
+     */
+    public void putQuestions(String formId, HttpEntity questions) throws IOException {
+        // Creates the Http PUT request to create the questions in the new form(s).
+        HttpPut putQuestionsToForm = new HttpPut(this.current().getHttpPostForm() + "/" + formId + "/questions");
+        putQuestionsToForm.setHeader("Content-type", "application/json");
+        putQuestionsToForm.setEntity(questions);
+
+        this.execute(putQuestionsToForm, "put questions", null);
+    }
+
+    /**
+     * Sends a request until it gives a 200 as response (e.g. the Internet broke or the server was offline), following
+     * the retry policy and the circuit breaker of the endpoint. A POST (not idempotent) is only sent again if it did
+     * not reach the server.
+     *
+     * @param request  the request.
+     * @param endpoint name of the endpoint, for the circuit breaker and the messages.
+     * @param reader   reader of the JSON response, or null if the response is not needed.
+     * @return the response, or null if it is not needed.
+     * @throws IOException if the request fails with an error that is not retried, or after the maximum number of
+     *                     attempts (each wait for the open circuit counts as one).
+     */
+    private <T> T execute(HttpRequestBase request, String endpoint, ResponseReader<T> reader) throws IOException {
+        CircuitBreaker circuitBreaker = this.circuitBreakerOf(endpoint);
+        boolean idempotent = !request.getMethod().equals("POST");
+        request.setHeader("APIKEY", this.current().getApiKey());
+        if (log.isDebugEnabled() && this.requestSampler.sample()) {
+            log.debug(endpoint + ": " + request.getMethod() + " " + request.getURI().getPath());
+        }
+        int attempt = 0;
+        try {
+            while (true) {
+                // Waits while the endpoint is failing. Each wait takes one attempt, so that a call does not wait
+                // forever during an outage.
+                long wait = circuitBreaker.millisUntilAllowed();
+                attempt++;
+                if (wait > 0) {
+                    if (attempt >= this.retryPolicy.getMaxAttempts()) {
+                        throw new IOException("there was a problem in " + endpoint + ", gave up after " + attempt
+                                + " attempts: the endpoint is failing (circuit open)");
+                    }
+                    RetryPolicy.sleep(wait);
+                    continue;
+                }
+                this.rateLimiter.acquire();
+
+                String problem = null;
+                long retryAfterMillis = -1;
+                HttpResponse response = null;
+                // Whether the request may have reached the server.
+                boolean sent = true;
+                long start = System.nanoTime();
+                try {
+                    response = this.httpClient.execute(request);
+                } catch (IOException e) {
+                    problem = e.toString();
+                    sent = !isConnectionFailure(e);
+                }
+                if (response == null) {
+                    this.metrics.recordCall(endpoint, System.nanoTime() - start, false);
+                } else {
+                    HttpEntity responseEntity = response.getEntity();
+                    int statusCode = response.getStatusLine().getStatusCode();
+                    this.metrics.recordCall(endpoint, System.nanoTime() - start, statusCode == 200);
+                    if (statusCode == 200) {
+                        circuitBreaker.recordSuccess();
+                        return this.read(responseEntity, reader);
+                    }
+                    // Releases the connection before trying again.
+                    EntityUtils.consume(responseEntity);
+                    problem = statusCode + " " + response.getStatusLine().getReasonPhrase();
+                    if (!RetryPolicy.isRetryable(statusCode)) {
+                        // The endpoint answered, it is the request that is wrong.
+                        circuitBreaker.recordSuccess();
+                        throw new IOException("there was a problem in " + endpoint + ": " + problem);
+                    }
+                    retryAfterMillis = RetryPolicy.retryAfterMillis(response);
+                }
+
+                circuitBreaker.recordFailure();
+                if (!idempotent && sent) {
+                    throw new IOException("there was a problem in " + endpoint + ": " + problem + " (not sent again, the server may have processed it)");
+                }
+                if (attempt >= this.retryPolicy.getMaxAttempts()) {
+                    throw new IOException("there was a problem in " + endpoint + ", gave up after " + attempt + " attempts: " + problem);
+                }
+                long delay = this.retryPolicy.delayFor(attempt, retryAfterMillis);
+                if (delay < 0) {
+                    throw new IOException("there was a problem in " + endpoint + ": " + problem + " (the server asked to wait " + retryAfterMillis + " ms)");
+                }
+                this.metrics.recordRetry(endpoint);
+                if (log.isWarnEnabled() && this.retrySampler.sample()) {
+                    log.warn("there was a problem in " + endpoint + ": " + problem + " (attempt " + attempt + ", retrying in " + delay + " ms)");
+                }
+                RetryPolicy.sleep(delay);
+            }
+        } finally {
+            request.releaseConnection();
+        }
+    }
+
+    /**
+     * Checks whether a request failed before it reached the server (the connection could not be established).
+     */
+    private static boolean isConnectionFailure(IOException e) {
+        return e instanceof ConnectException || e instanceof ConnectTimeoutException || e instanceof UnknownHostException;
+    }
+
+    /**
+     * Reads a successful response.
+     */
+    private <T> T read(HttpEntity responseEntity, ResponseReader<T> reader) throws IOException {
+        if (reader == null || responseEntity == null) {
+            EntityUtils.consume(responseEntity);
+            return null;
+        }
+        InputStream in = responseEntity.getContent();
+        try {
+            return reader.read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Creates a reader of JSON responses into objects of a type.
+     */
+    private static <T> ResponseReader<T> json(Class<T> type) {
+        final ObjectReader reader = JsonMapper.MAPPER.reader(type);
+        return new ResponseReader<T>() {
+            @Override
+            public T read(InputStream in) throws IOException {
+                return reader.readValue(in);
+            }
+        };
+    }
+
+    /**
+     * Gets the current configuration. If it has changed since the last request, its requests per second and retry
+     * policy are applied (the requests that are waiting are not interrupted).
+     */
+    private ConfigurationSnapshot current() {
+        ConfigurationSnapshot config = this.configuration.getSnapshot();
+        if (config != this.applied) {
+            if (config.getRequestsPerSecond() != this.rateLimiter.getRate()) {
+                this.rateLimiter.setRate(config.getRequestsPerSecond());
+                log.info("requests per second: " + config.getRequestsPerSecond());
+            }
+            this.retryPolicy = RetryPolicy.fromConfiguration(config);
+            this.applied = config;
+        }
+        return config;
+    }
+
+    private CircuitBreaker circuitBreakerOf(String endpoint) {
+        CircuitBreaker circuitBreaker = this.circuitBreakers.get(endpoint);
+        if (circuitBreaker == null) {
+            CircuitBreaker newCircuitBreaker = new CircuitBreaker(this.circuitFailureThreshold, this.circuitOpenMillis);
+            circuitBreaker = this.circuitBreakers.putIfAbsent(endpoint, newCircuitBreaker);
+            if (circuitBreaker == null) {
+                circuitBreaker = newCircuitBreaker;
+            }
+        }
+        return circuitBreaker;
+    }
+
+    /**
+     * Closes all the connections of the pool.
+     */
+    public void shutdown() {
+        this.connectionManager.shutdown();
+    }
+
+    /**
+     * Response of POST /form.
+     */
+    static class FormResponse {
+        public NewForm content;
+    }
+
+    static class NewForm {
+        public String id;
+    }
+
+    /**
+     * Response of GET /form/{id}/questions.
+     */
+    static class QuestionsResponse {
+        public LinkedHashMap<String, Question> content;
+    }
+}
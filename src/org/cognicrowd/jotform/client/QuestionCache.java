@@ -0,0 +1,111 @@
+package org.cognicrowd.jotform.client;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.cognicrowd.jotform.datamodel.Question;
+import org.cognicrowd.jotform.metrics.Metrics;
+import org.cognicrowd.jotform.util.JsonMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * @author csarasua
+ *         Questions of the source forms, fetched once from JotForm and shared by all the shuffled lists.
+ *         The questions are kept as read-only Question objects (in the order returned by the API); the qid and order
+ *         of the merged forms are computed when the payload is written.
+ *         The cache can be saved to and restored from a JSON snapshot on disk, so that a rerun does not need to
+ *         download the questions again.
+ */
+public class QuestionCache {
+
+    // Questions of each form, keyed by form id.
+    private final ConcurrentMap<String, List<Question>> questionsOfForm = new ConcurrentHashMap<String, List<Question>>();
+
+    /**
+     * Fetches (in parallel) the questions of all the forms that are not in the cache yet.
+     *
+     * @param client   client of the JotForm API.
+     * @param formIds  ids of the forms.
+     * @param executor executor in which the requests are run.
+     */
+    public void load(final JotFormClient client, Collection<String> formIds, ExecutorService executor) throws IOException, InterruptedException {
+        Map<String, Future<Map<String, Question>>> requests = new LinkedHashMap<String, Future<Map<String, Question>>>();
+        Set<String> distinctFormIds = new LinkedHashSet<String>(formIds);
+        for (final String formId : distinctFormIds) {
+            if (!this.questionsOfForm.containsKey(formId)) {
+                requests.put(formId, executor.submit(new Callable<Map<String, Question>>() {
+                    @Override
+                    public Map<String, Question> call() throws IOException {
+                        return client.getQuestions(formId);
+                    }
+                }));
+            }
+        }
+        Metrics.getInstance().recordCacheHits(distinctFormIds.size() - requests.size());
+        Metrics.getInstance().recordCacheMisses(requests.size());
+        for (Map.Entry<String, Future<Map<String, Question>>> request : requests.entrySet()) {
+            try {
+                this.put(request.getKey(), request.getValue().get());
+            } catch (ExecutionException e) {
+                throw new IOException("Could not get the questions of form " + request.getKey(), e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Gets the questions of a form.
+     *
+     * @param formId id of the form.
+     * @return the (unmodifiable) questions, or null if the form has not been loaded.
+     */
+    public List<Question> getQuestions(String formId) {
+        return this.questionsOfForm.get(formId);
+    }
+
+    public boolean contains(String formId) {
+        return this.questionsOfForm.containsKey(formId);
+    }
+
+    /**
+     * Adds the questions of a form.
+     *
+     * @param formId    id of the form.
+     * @param questions the questions keyed by question id, as in the "content" of GET /form/{id}/questions.
+     */
+    public void put(String formId, Map<String, Question> questions) {
+        this.questionsOfForm.put(formId, Collections.unmodifiableList(new ArrayList<Question>(questions.values())));
+    }
+
+    /**
+     * Restores the questions saved in a snapshot (if the file exists).
+     *
+     * @param f snapshot file.
+     */
+    public void readSnapshot(File f) throws IOException {
+        if (!f.exists()) {
+            return;
+        }
+        Map<String, List<Question>> snapshot = JsonMapper.MAPPER.readValue(f,
+                new TypeReference<Map<String, List<Question>>>() {
+                });
+        for (Map.Entry<String, List<Question>> form : snapshot.entrySet()) {
+            this.questionsOfForm.put(form.getKey(), Collections.unmodifiableList(form.getValue()));
+        }
+    }
+
+    /**
+     * Saves all the questions in a snapshot. The snapshot is written to a temporary file first, so a crash never
+     * leaves a partial snapshot behind.
+     *
+     * @param f snapshot file.
+     */
+    public void writeSnapshot(File f) throws IOException {
+        File temp = new File(f.getPath() + ".tmp");
+        JsonMapper.MAPPER.writeValue(temp, new TreeMap<String, List<Question>>(this.questionsOfForm));
+        Files.move(temp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
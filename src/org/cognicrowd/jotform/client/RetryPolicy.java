@@ -0,0 +1,118 @@
+package org.cognicrowd.jotform.client;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+import org.cognicrowd.jotform.util.ConfigurationSnapshot;
+
+import java.io.InterruptedIOException;
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @author csarasua
+ *         Decides whether and when a failed call to the JotForm API is tried again: up to a maximum number of
+ *         attempts, waiting an exponentially growing time with random jitter ("full jitter") between attempts, or the
+ *         time asked by the server in the Retry-After header of a 429 (too many requests) or 503 response. The time
+ *         asked by the server is honoured (retrying earlier would only be throttled again) up to a maximum: if the
+ *         server asks for a longer wait, the call fails instead of holding its thread (and connection slot) that long.
+ *         The maximum delay only caps the exponential backoff.
+ */
+public class RetryPolicy {
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final long maxRetryAfterMillis;
+
+    /**
+     * Constructor
+     *
+     * @param maxAttempts         maximum number of attempts of each call (including the first one).
+     * @param baseDelayMillis     wait after the first failed attempt (before jitter).
+     * @param maxDelayMillis      maximum wait between two attempts, unless the server asks for a longer one.
+     * @param maxRetryAfterMillis maximum wait asked by the server that is honoured.
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, long maxRetryAfterMillis) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxRetryAfterMillis = maxRetryAfterMillis;
+    }
+
+    /**
+     * Creates the policy with the values of the configuration ("retry.*").
+     */
+    public static RetryPolicy fromConfiguration(ConfigurationSnapshot config) {
+        return new RetryPolicy(config.getRetryMaxAttempts(), config.getRetryBaseDelay(), config.getRetryMaxDelay(),
+                config.getRetryMaxRetryAfter());
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Checks whether a call that failed with a status code may succeed if it is tried again.
+     * Only throttling (429) and server errors (5xx) are retried; other errors (e.g. a wrong API key) would fail again.
+     */
+    public static boolean isRetryable(int statusCode) {
+        return statusCode == 429 || statusCode >= 500;
+    }
+
+    /**
+     * Computes the wait before the next attempt.
+     *
+     * @param attempt         number of attempts that have failed so far (1 or more).
+     * @param retryAfterMillis wait asked by the server, or -1 if it did not ask for any.
+     * @return the wait in milliseconds, or -1 if the server asked for a wait longer than the maximum (the call should
+     * fail).
+     */
+    public long delayFor(int attempt, long retryAfterMillis) {
+        if (retryAfterMillis > this.maxRetryAfterMillis) {
+            return -1;
+        }
+        if (retryAfterMillis >= 0) {
+            return retryAfterMillis;
+        }
+        long exponential = this.baseDelayMillis << Math.min(attempt - 1, 30);
+        long cap = Math.min(this.maxDelayMillis, exponential > 0 ? exponential : this.maxDelayMillis);
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    /**
+     * Reads the Retry-After header of a response, either in seconds or as an HTTP date.
+     *
+     * @return the wait in milliseconds, or -1 if there is no (valid) header.
+     */
+    public static long retryAfterMillis(HttpResponse response) {
+        Header header = response.getFirstHeader("Retry-After");
+        if (header == null) {
+            return -1;
+        }
+        String value = header.getValue().trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            try {
+                Date date = DateUtils.parseDate(value);
+                return Math.max(0, date.getTime() - System.currentTimeMillis());
+            } catch (DateParseException e2) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Waits before the next attempt.
+     */
+    public static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+}
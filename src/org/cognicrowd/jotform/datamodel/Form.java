@@ -60,4 +60,24 @@ public class Form {
     public void setListOfQuestions(List<Question> listOfQuestions) {
         this.listOfQuestions = listOfQuestions;
     }
+
+    /**
+     * Two forms are the same form when they have the same JotForm id.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Form)) {
+            return false;
+        }
+        Form other = (Form) o;
+        return formId != null ? formId.equals(other.formId) : other.formId == null;
+    }
+
+    @Override
+    public int hashCode() {
+        return formId != null ? formId.hashCode() : 0;
+    }
 }
@@ -1,9 +1,78 @@
 package org.cognicrowd.jotform.datamodel;
 
+import com.fasterxml.jackson.annotation.JsonAnyGetter;
+import com.fasterxml.jackson.annotation.JsonAnySetter;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * @author csarasua
+ *         Question of a form, as returned by GET /form/{id}/questions of the JotForm API.
+ *         The attributes that are common to all types of questions are typed fields; the rest of the attributes
+ *         (e.g. "hint", "sublabels", "validation") are kept as they come in "otherAttributes".
+ *         Questions are read-only once they have been read from JSON.
  */
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class Question {
 
-    private String id;
+    @JsonProperty("qid")
+    private int qid;
+    @JsonProperty("order")
+    private int order;
+    @JsonProperty("type")
+    private String type;
+    @JsonProperty("text")
+    private String text;
+    @JsonProperty("name")
+    private String name;
+    @JsonProperty("required")
+    private String required;
+
+    // All other attributes of the question, in the order in which they were read.
+    private Map<String, Object> otherAttributes = Collections.emptyMap();
+
+    public Question() {
+
+    }
+
+    public int getQid() {
+        return qid;
+    }
+
+    public int getOrder() {
+        return order;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getRequired() {
+        return required;
+    }
+
+    @JsonAnyGetter
+    public Map<String, Object> getOtherAttributes() {
+        return Collections.unmodifiableMap(otherAttributes);
+    }
+
+    @JsonAnySetter
+    private void setOtherAttribute(String attribute, Object value) {
+        if (otherAttributes.isEmpty()) {
+            otherAttributes = new LinkedHashMap<String, Object>(8);
+        }
+        otherAttributes.put(attribute, value);
+    }
 }
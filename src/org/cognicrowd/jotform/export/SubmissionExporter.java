@@ -0,0 +1,256 @@
+package org.cognicrowd.jotform.export;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cognicrowd.jotform.client.JotFormClient;
+import org.cognicrowd.jotform.formgeneration.SerialisationJournal;
+import org.cognicrowd.jotform.util.ConfigurationSnapshot;
+import org.cognicrowd.jotform.util.JsonMapper;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author csarasua
+ *         Exports the submissions of the merged forms created by FormManager.serialiseSetOfShuffledLists (the ones
+ *         whose questions were all added, as recorded in the SerialisationJournal) to a CSV file with one row per
+ *         answer:
+ *         "participant", "list", "mergedForm", "submission", "submittedAt", "sourceForm", "formPosition", "qid",
+ *         "questionOrder", "answer".
+ *         - participant: "userN" for the list number N; each participant has their own merged form, so all the
+ *         submissions of a form are those of the participant of its list;
+ *         - sourceForm: the individual form of the question, from the prefix of its qid ("formId-qid");
+ *         - formPosition: position (from 1) of the source form in the shuffled list of the participant;
+ *         - questionOrder: position of the question in the merged form.
+ *         The submissions of each form are paged through GET /form/{id}/submissions ("export.pagesize" per page, the
+ *         oldest first, so that the pages do not shift when submissions arrive during the export), and
+ *         as many forms as "export.threads" are exported at the same time. Each page is parsed as it arrives and its
+ *         answers are written to the file as soon as the page is complete, so memory only holds one page per thread.
+ *         The rows go to a temporary file that replaces the final file once all the forms have been exported.
+ */
+public class SubmissionExporter {
+
+    private static final Log log = LogFactory.getLog(SubmissionExporter.class);
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * An answer of a submission, with the fields of its row that come from the response.
+     */
+    private static class Answer {
+        String qid;
+        String order;
+        String value;
+    }
+
+    /**
+     * Answers of one page of submissions, as they are read.
+     */
+    private static class Page {
+        int submissions = 0;
+        final List<String[]> rows = new ArrayList<String[]>();
+    }
+
+    private final JotFormClient client;
+    private final int threads;
+    private final int pageSize;
+
+    private final AtomicLong exportedSubmissions = new AtomicLong();
+    private final AtomicLong exportedAnswers = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param client client of the JotForm API.
+     * @param config configuration with the number of threads and the size of the pages.
+     */
+    public SubmissionExporter(JotFormClient client, ConfigurationSnapshot config) {
+        this.client = client;
+        this.threads = Math.max(1, config.getExportThreads());
+        this.pageSize = Math.max(1, config.getExportPageSize());
+    }
+
+    /**
+     * Exports the submissions of the merged forms of some lists. The forms whose questions were not all added (the
+     * serialisation did not finish) are left out, since no participant can have answered them.
+     *
+     * @param entries the lists, as recorded in the journal of the serialisation.
+     * @param f       the CSV file to write.
+     * @return the number of merged forms whose submissions could not be exported (they are reported, and the others
+     * exported anyway).
+     * @throws InterruptedException if interrupted, in which case the file is not written.
+     */
+    public int export(Collection<SerialisationJournal.Entry> entries, File f) throws IOException, InterruptedException {
+        File temp = new File(f.getPath() + ".tmp");
+        final CSVPrinter printer = new CSVPrinter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), Charset.forName("UTF-8")), BUFFER_SIZE), CSVFormat.DEFAULT);
+        ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+        boolean exported = false;
+        try {
+            printer.printRecord("participant", "list", "mergedForm", "submission", "submittedAt", "sourceForm", "formPosition", "qid", "questionOrder", "answer");
+            List<Future<?>> exports = new ArrayList<Future<?>>();
+            int unfinished = 0;
+            for (final SerialisationJournal.Entry entry : entries) {
+                if (!entry.isQuestionsAdded()) {
+                    unfinished++;
+                    continue;
+                }
+                exports.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        exportForm(entry, printer);
+                        return null;
+                    }
+                }));
+            }
+            int failed = 0;
+            for (Future<?> export : exports) {
+                try {
+                    export.get();
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                    failed++;
+                }
+            }
+            printer.close();
+            Files.move(temp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            exported = true;
+            log.info(this.exportedAnswers.get() + " answers of " + this.exportedSubmissions.get() + " submissions of "
+                    + (exports.size() - failed) + " forms exported to " + f + (failed > 0 ? " (" + failed + " forms failed)" : ""));
+            if (unfinished > 0) {
+                log.info(unfinished + " forms whose questions were not all added were left out");
+            }
+            return failed;
+        } finally {
+            executor.shutdownNow();
+            if (!exported) {
+                printer.close();
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Exports all the pages of submissions of one merged form.
+     */
+    private void exportForm(SerialisationJournal.Entry entry, CSVPrinter printer) throws IOException {
+        // Position of each source form in the shuffled list.
+        final Map<String, Integer> positionOfForm = new HashMap<String, Integer>();
+        for (int i = 0; i < entry.getFormIds().size(); i++) {
+            positionOfForm.put(entry.getFormIds().get(i), i + 1);
+        }
+        final String[] prefix = {"user" + entry.getListNumber(), Integer.toString(entry.getListNumber()), entry.getFormId()};
+
+        int offset = 0;
+        while (true) {
+            Page page = this.client.getSubmissions(entry.getFormId(), offset, this.pageSize, new JotFormClient.ResponseReader<Page>() {
+                @Override
+                public Page read(InputStream in) throws IOException {
+                    return readPage(in, prefix, positionOfForm);
+                }
+            });
+            synchronized (printer) {
+                for (String[] row : page.rows) {
+                    printer.printRecord((Object[]) row);
+                }
+            }
+            this.exportedSubmissions.addAndGet(page.submissions);
+            this.exportedAnswers.addAndGet(page.rows.size());
+            if (page.submissions < this.pageSize) {
+                return;
+            }
+            offset += page.submissions;
+        }
+    }
+
+    /**
+     * Reads a page of submissions of shape {"content":[{"id":..., "created_at":..., "answers":{qid:{"order":...,
+     * "answer":...}, ...}}, ...], ...} into the rows of its answers. The answers without an "answer" (e.g. headers)
+     * are left out; answers that are not a single value (e.g. full names, addresses) are kept as JSON.
+     */
+    private static Page readPage(InputStream in, String[] prefix, Map<String, Integer> positionOfForm) throws IOException {
+        Page page = new Page();
+        JsonParser parser = JsonMapper.MAPPER.getFactory().createParser(in);
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Unexpected response of the submissions");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (field.equals("content") && value == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        readSubmission(parser, prefix, positionOfForm, page);
+                        page.submissions++;
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } finally {
+            parser.close();
+        }
+        return page;
+    }
+
+    private static void readSubmission(JsonParser parser, String[] prefix, Map<String, Integer> positionOfForm, Page page) throws IOException {
+        String id = null;
+        String createdAt = null;
+        List<Answer> answers = new ArrayList<Answer>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (field.equals("id")) {
+                id = parser.getText();
+            } else if (field.equals("created_at")) {
+                createdAt = parser.getText();
+            } else if (field.equals("answers") && value == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    Answer answer = new Answer();
+                    answer.qid = parser.getCurrentName();
+                    if (parser.nextToken() == JsonToken.START_OBJECT) {
+                        readAnswer(parser, answer);
+                    } else {
+                        parser.skipChildren();
+                    }
+                    if (answer.value != null) {
+                        answers.add(answer);
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        for (Answer answer : answers) {
+            // "formId-qid" as written by the serialisation.
+            int dash = answer.qid.indexOf('-');
+            String sourceForm = dash > 0 ? answer.qid.substring(0, dash) : "";
+            Integer position = positionOfForm.get(sourceForm);
+            page.rows.add(new String[]{prefix[0], prefix[1], prefix[2], id, createdAt, sourceForm,
+                    position != null ? position.toString() : "", dash > 0 ? answer.qid.substring(dash + 1) : answer.qid,
+                    answer.order, answer.value});
+        }
+    }
+
+    private static void readAnswer(JsonParser parser, Answer answer) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (field.equals("order")) {
+                answer.order = parser.getText();
+            } else if (field.equals("answer")) {
+                answer.value = value.isScalarValue() ? parser.getText() : parser.readValueAsTree().toString();
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author csarasua
+ *         Reads the forms of each participant from a file written by AssignmentStoreWriter.
+ *         The file is memory-mapped and nothing is parsed: the form at some position of the list of a participant is
+ *         found from the offset of the row of the participant in the index, and its id from the 16-bit index in the
+ *         dictionary, so any form of any participant is read in constant time.
+ *         The reader can be used by several threads at the same time.
+ */
+public class AssignmentStore implements Closeable {
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int numberOfForms;
+    private final int numberOfParticipants;
+    // Offsets of the dictionary and of the index in the file.
+    private final int dictionaryStart;
+    private final int indexStart;
+
+    private AssignmentStore(FileChannel channel, MappedByteBuffer buffer) throws IOException {
+        this.channel = channel;
+        this.buffer = buffer;
+        if (buffer.capacity() < AssignmentStoreWriter.HEADER_SIZE || buffer.getInt(0) != AssignmentStoreWriter.MAGIC) {
+            throw new IOException("Not an assignment store");
+        }
+        if (buffer.getInt(4) != AssignmentStoreWriter.VERSION) {
+            throw new IOException("Unsupported version of the assignment store: " + buffer.getInt(4));
+        }
+        this.numberOfForms = buffer.getInt(8);
+        this.numberOfParticipants = buffer.getInt(12);
+        this.dictionaryStart = AssignmentStoreWriter.HEADER_SIZE;
+        this.indexStart = this.dictionaryStart + 8 * this.numberOfForms;
+        if (this.indexStart + 8L * (this.numberOfParticipants + 1) > buffer.capacity()
+                || buffer.getLong(this.indexStart + 8 * this.numberOfParticipants) != buffer.capacity()) {
+            throw new IOException("The assignment store is truncated");
+        }
+    }
+
+    /**
+     * Opens a file written by AssignmentStoreWriter.
+     *
+     * @param f the file.
+     * @return the store, which has to be closed.
+     * @throws IOException if the file cannot be read, is not an assignment store, or is larger than 2GB.
+     */
+    public static AssignmentStore open(File f) throws IOException {
+        FileChannel channel = new RandomAccessFile(f, "r").getChannel();
+        try {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("The assignment store " + f + " is too large to be mapped");
+            }
+            return new AssignmentStore(channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int getNumberOfParticipants() {
+        return this.numberOfParticipants;
+    }
+
+    /**
+     * Gets the number of forms of a participant.
+     *
+     * @param participant number of the participant (0 for "user1").
+     */
+    public int getNumberOfForms(int participant) {
+        return (int) ((this.rowEnd(participant) - this.rowStart(participant)) / 2);
+    }
+
+    /**
+     * Gets the id of a form of a participant.
+     *
+     * @param participant number of the participant (0 for "user1").
+     * @param k           position of the form in the list of the participant (0 for the first one).
+     * @return the JotForm id of the form.
+     * @throws IndexOutOfBoundsException if the participant or the position do not exist.
+     */
+    public long getFormId(int participant, int k) {
+        long start = this.rowStart(participant);
+        if (k < 0 || start + 2L * k >= this.rowEnd(participant)) {
+            throw new IndexOutOfBoundsException("Participant " + participant + " has no form " + k);
+        }
+        int index = this.buffer.getChar((int) (start + 2L * k));
+        return this.buffer.getLong(this.dictionaryStart + 8 * index);
+    }
+
+    /**
+     * Gets the ids of all the forms of a participant, in order.
+     *
+     * @param participant number of the participant (0 for "user1").
+     */
+    public List<Long> getFormIds(int participant) {
+        int size = this.getNumberOfForms(participant);
+        List<Long> formIds = new ArrayList<Long>(size);
+        for (int k = 0; k < size; k++) {
+            formIds.add(this.getFormId(participant, k));
+        }
+        return formIds;
+    }
+
+    private long rowStart(int participant) {
+        if (participant < 0 || participant >= this.numberOfParticipants) {
+            throw new IndexOutOfBoundsException("There is no participant " + participant);
+        }
+        return this.buffer.getLong(this.indexStart + 8 * participant);
+    }
+
+    private long rowEnd(int participant) {
+        return this.buffer.getLong(this.indexStart + 8 * (participant + 1));
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+}
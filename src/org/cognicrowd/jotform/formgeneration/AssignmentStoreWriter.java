@@ -0,0 +1,156 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author csarasua
+ *         Writes the forms of each participant to a binary file that can be read with random access (AssignmentStore):
+ *         - header: magic number, version, number of distinct forms, number of participants (4 bytes each);
+ *         - dictionary: the numeric JotForm id of each distinct form (8 bytes each);
+ *         - index: the offset in the file of the row of each participant, and the end of the last row (8 bytes each);
+ *         - rows: the forms of each participant, as 16-bit indices in the dictionary.
+ *         The rows are written as they come to a temporary file, and the final file is assembled (and moved in place of
+ *         the previous one) when committed, once the dictionary and the offsets are known. It can also be assembled
+ *         beforehand (stage), so that it is only moved once the files committed with it have been written too.
+ */
+public class AssignmentStoreWriter implements Closeable {
+
+    static final int MAGIC = 0x4A464153;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    // Largest number of distinct forms that fit in the 16-bit indices.
+    static final int MAX_FORMS = 1 << 16;
+
+    private final File f;
+    private final File rowsFile;
+    private final DataOutputStream rows;
+    // Assembled file, moved in place of the final file when committed.
+    private final File temp;
+
+    // Index of each form id in the dictionary, and the ids in the order of their indices.
+    private final Map<String, Integer> indexOfForm = new HashMap<String, Integer>();
+    private final List<Long> dictionary = new ArrayList<Long>();
+    // Offset of each row from the start of the rows, followed by the end of the last row.
+    private long[] rowOffsets = new long[1024];
+    private int numberOfParticipants = 0;
+    private long rowsSize = 0;
+    // Size of the assembled file, -1 until it is assembled.
+    private long size = -1;
+    private boolean committed = false;
+
+    /**
+     * Constructor. Creates the temporary file of the rows.
+     *
+     * @param f the binary file to write.
+     */
+    public AssignmentStoreWriter(File f) throws IOException {
+        this.f = f;
+        this.rowsFile = new File(f.getPath() + ".rows.tmp");
+        this.temp = new File(f.getPath() + ".tmp");
+        this.rows = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.rowsFile), 1 << 16));
+    }
+
+    /**
+     * Writes the row of the next participant.
+     *
+     * @param formIds the numeric ids of the forms of the participant, in order.
+     * @throws IllegalArgumentException if an id is not numeric, or if there are more distinct forms than fit in the
+     *                                  16-bit indices.
+     */
+    public void writeRow(List<String> formIds) throws IOException {
+        for (String formId : formIds) {
+            Integer index = this.indexOfForm.get(formId);
+            if (index == null) {
+                if (this.dictionary.size() == MAX_FORMS) {
+                    throw new IllegalArgumentException("More than " + MAX_FORMS + " distinct forms cannot be stored");
+                }
+                index = this.dictionary.size();
+                this.dictionary.add(Long.parseLong(formId));
+                this.indexOfForm.put(formId, index);
+            }
+            this.rows.writeShort(index);
+        }
+        this.rowsSize += 2L * formIds.size();
+        this.numberOfParticipants++;
+        if (this.numberOfParticipants == this.rowOffsets.length) {
+            this.rowOffsets = Arrays.copyOf(this.rowOffsets, this.rowOffsets.length * 2);
+        }
+        this.rowOffsets[this.numberOfParticipants] = this.rowsSize;
+    }
+
+    /**
+     * Assembles the file (if it has not been assembled yet) and moves it in place of the final file.
+     *
+     * @return the size of the file.
+     */
+    public long commit() throws IOException {
+        long size = this.stage();
+        Files.move(this.temp.toPath(), this.f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.committed = true;
+        return size;
+    }
+
+    /**
+     * Writes the header, the dictionary and the index, followed by the rows, to the temporary file that commit moves
+     * in place of the final file. No more rows can be written afterwards.
+     *
+     * @return the size of the file.
+     */
+    long stage() throws IOException {
+        if (this.size >= 0) {
+            return this.size;
+        }
+        this.rows.close();
+        long rowsStart = HEADER_SIZE + 8L * this.dictionary.size() + 8L * (this.numberOfParticipants + 1);
+        FileOutputStream file = new FileOutputStream(this.temp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(this.dictionary.size());
+            out.writeInt(this.numberOfParticipants);
+            for (long formId : this.dictionary) {
+                out.writeLong(formId);
+            }
+            for (int i = 0; i <= this.numberOfParticipants; i++) {
+                out.writeLong(rowsStart + this.rowOffsets[i]);
+            }
+            out.flush();
+            // The rows are copied as they are.
+            FileChannel source = new FileInputStream(this.rowsFile).getChannel();
+            try {
+                long position = 0;
+                while (position < this.rowsSize) {
+                    position += source.transferTo(position, this.rowsSize - position, file.getChannel());
+                }
+            } finally {
+                source.close();
+            }
+        } finally {
+            out.close();
+        }
+        this.rowsFile.delete();
+        this.size = rowsStart + this.rowsSize;
+        return this.size;
+    }
+
+    /**
+     * Discards the temporary files unless the writer has been committed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!this.committed) {
+            this.rows.close();
+            this.rowsFile.delete();
+            this.temp.delete();
+        }
+    }
+}
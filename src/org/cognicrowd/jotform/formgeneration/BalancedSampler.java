@@ -0,0 +1,144 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import org.cognicrowd.jotform.util.Hashing;
+
+/**
+ * @author csarasua
+ *         Draws subsets of a pool of forms so that every form is shown a near-equal number of times: each sample takes
+ *         the forms that have been shown the fewest times so far (ties broken at random).
+ *         The number of times each form has been drawn is kept in an array of ints, and the forms in a binary min-heap
+ *         (primitive arrays) keyed by that number and a random tie-break, so drawing k forms out of n costs
+ *         O(k log n). After any number of samples, the counts of any two forms differ by at most one.
+ *         The tie-breaks are derived from the seed and the number of tie-breaks drawn so far (as in SplitMix64), so
+ *         the whole state of a sampler is in these arrays and a counter, and a copy draws the same samples.
+ */
+public class BalancedSampler {
+
+    private final int poolSize;
+    private final int sampleSize;
+    private final long seed;
+    // Number of tie-breaks drawn so far.
+    private long tieBreaks = 0;
+
+    // Number of times each form has been drawn.
+    private final int[] exposures;
+    // Min-heap of the forms: key (exposure in the high 32 bits, random tie-break in the low 32 bits) and form.
+    private final long[] keys;
+    private final int[] forms;
+
+    /**
+     * Constructor
+     *
+     * @param poolSize   number of forms in the pool.
+     * @param sampleSize number of forms of each sample.
+     * @param seed       seed of the tie-breaks.
+     */
+    public BalancedSampler(int poolSize, int sampleSize, long seed) {
+        if (sampleSize < 0 || sampleSize > poolSize) {
+            throw new IllegalArgumentException("Cannot draw " + sampleSize + " forms out of " + poolSize);
+        }
+        this.poolSize = poolSize;
+        this.sampleSize = sampleSize;
+        this.seed = seed;
+        this.exposures = new int[poolSize];
+        this.keys = new long[poolSize];
+        this.forms = new int[poolSize];
+        for (int i = 0; i < poolSize; i++) {
+            this.keys[i] = this.key(0);
+            this.forms[i] = i;
+        }
+        for (int i = poolSize / 2 - 1; i >= 0; i--) {
+            this.siftDown(i, poolSize);
+        }
+    }
+
+    /**
+     * Copies a sampler, which is left unchanged: the copy draws the same samples as the sampler would.
+     *
+     * @param sampler the sampler to copy.
+     */
+    public BalancedSampler(BalancedSampler sampler) {
+        this.poolSize = sampler.poolSize;
+        this.sampleSize = sampler.sampleSize;
+        this.seed = sampler.seed;
+        this.tieBreaks = sampler.tieBreaks;
+        this.exposures = sampler.exposures.clone();
+        this.keys = sampler.keys.clone();
+        this.forms = sampler.forms.clone();
+    }
+
+    /**
+     * Draws the next sample.
+     *
+     * @return the positions in the pool of the drawn forms (distinct), least shown first.
+     */
+    public int[] sample() {
+        int[] sample = new int[this.sampleSize];
+        // Takes the k least shown forms out of the heap, then puts them back with their new exposure.
+        int size = this.poolSize;
+        for (int i = 0; i < this.sampleSize; i++) {
+            sample[i] = this.forms[0];
+            size--;
+            this.swap(0, size);
+            this.siftDown(0, size);
+        }
+        for (int i = 0; i < this.sampleSize; i++) {
+            int form = sample[i];
+            this.exposures[form]++;
+            this.keys[size] = this.key(this.exposures[form]);
+            this.forms[size] = form;
+            this.siftUp(size);
+            size++;
+        }
+        return sample;
+    }
+
+    /**
+     * Number of times a form has been drawn.
+     */
+    public int getExposure(int form) {
+        return this.exposures[form];
+    }
+
+    private long key(int exposure) {
+        long tieBreak = Hashing.mix(this.seed + 0x9E3779B97F4A7C15L * ++this.tieBreaks);
+        return ((long) exposure << 32) | (tieBreak & 0xFFFFFFFFL);
+    }
+
+    private void siftDown(int i, int size) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                return;
+            }
+            if (child + 1 < size && this.keys[child + 1] < this.keys[child]) {
+                child++;
+            }
+            if (this.keys[i] <= this.keys[child]) {
+                return;
+            }
+            this.swap(i, child);
+            i = child;
+        }
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (this.keys[parent] <= this.keys[i]) {
+                return;
+            }
+            this.swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void swap(int i, int j) {
+        long key = this.keys[i];
+        this.keys[i] = this.keys[j];
+        this.keys[j] = key;
+        int form = this.forms[i];
+        this.forms[i] = this.forms[j];
+        this.forms[j] = form;
+    }
+}
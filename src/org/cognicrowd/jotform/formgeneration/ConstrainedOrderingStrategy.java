@@ -0,0 +1,99 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import org.cognicrowd.jotform.datamodel.Form;
+import org.cognicrowd.jotform.datamodel.TypeOfForm;
+import org.cognicrowd.jotform.util.Hashing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * @author csarasua
+ *         Random order in which the less numerous type of form (usually the tests) is spread evenly among the other
+ *         one (usually the tasks):
+ *         - no two forms of the less numerous type are adjacent, as long as there are enough forms of the other type;
+ *         - both types are spread evenly across the sessions, whatever the number of sessions.
+ *         The tests and the tasks are shuffled separately with a random generator derived from (seed, participant),
+ *         and the slots of the less numerous type are evenly spaced with a random offset.
+ */
+public class ConstrainedOrderingStrategy implements OrderingStrategy {
+
+    private final long seed;
+    // Positions of the forms of the less numerous type, and of the other type.
+    private final int[] spreadForms;
+    private final int[] otherForms;
+
+    /**
+     * Constructor
+     *
+     * @param forms the forms to order (tests and tasks).
+     * @param seed  seed from which the orders are derived.
+     */
+    public ConstrainedOrderingStrategy(List<Form> forms, long seed) {
+        this.seed = seed;
+        List<Integer> tests = new ArrayList<Integer>();
+        List<Integer> others = new ArrayList<Integer>();
+        for (int i = 0; i < forms.size(); i++) {
+            if (forms.get(i).getType() == TypeOfForm.Test) {
+                tests.add(i);
+            } else {
+                others.add(i);
+            }
+        }
+        boolean spreadTests = tests.size() <= others.size();
+        this.spreadForms = toArray(spreadTests ? tests : others);
+        this.otherForms = toArray(spreadTests ? others : tests);
+    }
+
+    @Override
+    public int[] orderFor(long participant) {
+        SplittableRandom random = new SplittableRandom(Hashing.mix(this.seed ^ Hashing.mix(participant + 1)));
+        int[] spread = shuffle(this.spreadForms.clone(), random);
+        int[] other = shuffle(this.otherForms.clone(), random);
+
+        int length = spread.length + other.length;
+        int[] order = new int[length];
+        if (spread.length == 0) {
+            System.arraycopy(other, 0, order, 0, length);
+            return order;
+        }
+        // Form k of the spread type goes to slot floor((k + offset) * length / count), so consecutive ones are at
+        // least floor(length / count) positions apart.
+        double offset = random.nextDouble();
+        int nextSpread = 0;
+        int nextOther = 0;
+        int nextSlot = slot(0, offset, length, spread.length);
+        for (int position = 0; position < length; position++) {
+            if (nextSpread < spread.length && position == nextSlot) {
+                order[position] = spread[nextSpread++];
+                nextSlot = nextSpread < spread.length ? slot(nextSpread, offset, length, spread.length) : -1;
+            } else {
+                order[position] = other[nextOther++];
+            }
+        }
+        return order;
+    }
+
+    private static int slot(int k, double offset, int length, int count) {
+        return (int) ((k + offset) * length / count);
+    }
+
+    private static int[] shuffle(int[] array, SplittableRandom random) {
+        for (int i = array.length - 1; i > 0; i--) {
+            int other = random.nextInt(i + 1);
+            int temp = array[i];
+            array[i] = array[other];
+            array[other] = temp;
+        }
+        return array;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+}
@@ -0,0 +1,286 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import org.cognicrowd.jotform.datamodel.Form;
+import org.cognicrowd.jotform.datamodel.TypeOfForm;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * @author csarasua
+ *         Catalogue of forms read from a CSV file with one form per line: "id,title" (no header, the title may be
+ *         quoted, UTF-8).
+ *         The file is read at once into a buffer of the heap and scanned once, without creating objects per line: the
+ *         ids are kept as longs (JotForm ids are numeric) and the titles as the bytes of the file, in columns. The Form
+ *         of each line is only created (and its title decoded) when it is requested, so a catalogue of hundreds of
+ *         thousands of forms from which only some are used costs little more than its file.
+ *         The file is not memory-mapped: a mapping stays open until it is garbage collected, which keeps the file
+ *         locked on Windows. The buffer is dropped (and the file closed) as soon as the file has been scanned.
+ */
+public class FormCatalogue {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final TypeOfForm type;
+    private final int size;
+    // Id of each form.
+    private final long[] ids;
+    // Bytes of all the titles, one after the other; the title of form i goes from titleStarts[i] to titleStarts[i+1].
+    private final byte[] titles;
+    private final int[] titleStarts;
+    // Titles with escaped quotes ("") to be unescaped when they are decoded.
+    private final BitSet escapedTitles;
+    // Forms created so far.
+    private final AtomicReferenceArray<Form> forms;
+
+    private FormCatalogue(TypeOfForm type, int size, long[] ids, byte[] titles, int[] titleStarts, BitSet escapedTitles) {
+        this.type = type;
+        this.size = size;
+        this.ids = ids;
+        this.titles = titles;
+        this.titleStarts = titleStarts;
+        this.escapedTitles = escapedTitles;
+        this.forms = new AtomicReferenceArray<Form>(size);
+    }
+
+    /**
+     * Reads a catalogue.
+     *
+     * @param f    CSV file with the forms.
+     * @param type the type of the forms.
+     * @return the catalogue.
+     * @throws FileNotFoundException if the file does not exist.
+     * @throws IOException           if the file cannot be read or a line does not start with a numeric id.
+     */
+    public static FormCatalogue load(File f, TypeOfForm type) throws IOException {
+        if (!f.isFile()) {
+            throw new FileNotFoundException(f.getPath());
+        }
+        FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+        try {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("The catalogue " + f + " is larger than 2GB");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("The catalogue " + f + " was truncated while it was read");
+                }
+            }
+            buffer.flip();
+            return new Scanner(buffer, f, type).scan();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Scans the lines of a catalogue read into a buffer into the columns.
+     */
+    private static class Scanner {
+        private final ByteBuffer buffer;
+        private final File f;
+        private final TypeOfForm type;
+        private final int limit;
+
+        private int size = 0;
+        private long[] ids = new long[1024];
+        private int[] titleStarts = new int[1025];
+        private byte[] titles = new byte[16384];
+        private final BitSet escapedTitles = new BitSet();
+
+        private int position = 0;
+        private int line = 1;
+
+        Scanner(ByteBuffer buffer, File f, TypeOfForm type) {
+            this.buffer = buffer;
+            this.f = f;
+            this.type = type;
+            this.limit = buffer.limit();
+        }
+
+        FormCatalogue scan() throws IOException {
+            // Byte order mark of UTF-8.
+            if (this.limit >= 3 && this.buffer.get(0) == (byte) 0xEF && this.buffer.get(1) == (byte) 0xBB && this.buffer.get(2) == (byte) 0xBF) {
+                this.position = 3;
+            }
+            while (this.position < this.limit) {
+                byte b = this.buffer.get(this.position);
+                if (b == '\n') {
+                    this.line++;
+                    this.position++;
+                } else if (b == '\r') {
+                    this.position++;
+                } else {
+                    this.scanLine();
+                }
+            }
+            return new FormCatalogue(this.type, this.size, Arrays.copyOf(this.ids, this.size),
+                    Arrays.copyOf(this.titles, this.titleStarts[this.size]), Arrays.copyOf(this.titleStarts, this.size + 1),
+                    this.escapedTitles);
+        }
+
+        private void scanLine() throws IOException {
+            long id = this.scanId();
+            if (this.position >= this.limit || this.buffer.get(this.position) != ',') {
+                throw new IOException("Line " + this.line + " of " + this.f + " does not have the shape id,title");
+            }
+            this.position++;
+
+            int start;
+            int end;
+            if (this.position < this.limit && this.buffer.get(this.position) == '"') {
+                this.position++;
+                start = this.position;
+                while (true) {
+                    if (this.position >= this.limit) {
+                        throw new IOException("Line " + this.line + " of " + this.f + " has a title without closing quote");
+                    }
+                    byte b = this.buffer.get(this.position);
+                    if (b == '"') {
+                        if (this.position + 1 < this.limit && this.buffer.get(this.position + 1) == '"') {
+                            this.escapedTitles.set(this.size);
+                            this.position += 2;
+                            continue;
+                        }
+                        end = this.position;
+                        this.position++;
+                        break;
+                    }
+                    if (b == '\n') {
+                        this.line++;
+                    }
+                    this.position++;
+                }
+            } else {
+                start = this.position;
+                while (this.position < this.limit && !isEndOfField(this.buffer.get(this.position))) {
+                    this.position++;
+                }
+                end = this.position;
+            }
+            this.add(id, start, end);
+
+            // Any other field of the line is ignored.
+            while (this.position < this.limit && this.buffer.get(this.position) != '\n') {
+                this.position++;
+            }
+        }
+
+        private long scanId() throws IOException {
+            boolean quoted = this.buffer.get(this.position) == '"';
+            if (quoted) {
+                this.position++;
+            }
+            long id = 0;
+            int digits = 0;
+            while (this.position < this.limit) {
+                byte b = this.buffer.get(this.position);
+                if (b < '0' || b > '9') {
+                    break;
+                }
+                id = id * 10 + (b - '0');
+                digits++;
+                this.position++;
+            }
+            if (quoted && this.position < this.limit && this.buffer.get(this.position) == '"') {
+                this.position++;
+            }
+            if (digits == 0 || digits > 18) {
+                throw new IOException("Line " + this.line + " of " + this.f + " does not start with a numeric form id");
+            }
+            return id;
+        }
+
+        private static boolean isEndOfField(byte b) {
+            return b == ',' || b == '\n' || b == '\r';
+        }
+
+        private void add(long id, int start, int end) {
+            if (this.size == this.ids.length) {
+                this.ids = Arrays.copyOf(this.ids, this.size * 2);
+                this.titleStarts = Arrays.copyOf(this.titleStarts, this.size * 2 + 1);
+            }
+            int titleStart = this.titleStarts[this.size];
+            int length = end - start;
+            if (titleStart + length > this.titles.length) {
+                this.titles = Arrays.copyOf(this.titles, Math.max(this.titles.length * 2, titleStart + length));
+            }
+            // Copies the bytes of the title straight from the buffer (the scan only uses absolute positions).
+            this.buffer.position(start);
+            this.buffer.get(this.titles, titleStart, length);
+            this.ids[this.size] = id;
+            this.size++;
+            this.titleStarts[this.size] = titleStart + length;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public TypeOfForm getType() {
+        return type;
+    }
+
+    public long getId(int index) {
+        return this.ids[index];
+    }
+
+    /**
+     * Decodes the title of a form.
+     */
+    public String getTitle(int index) {
+        int start = this.titleStarts[index];
+        String title = new String(this.titles, start, this.titleStarts[index + 1] - start, UTF8);
+        return this.escapedTitles.get(index) ? title.replace("\"\"", "\"") : title;
+    }
+
+    /**
+     * Gets the form of a line of the catalogue, creating it the first time it is requested.
+     *
+     * @param index position of the form in the catalogue.
+     * @return the form.
+     */
+    public Form getForm(int index) {
+        Form form = this.forms.get(index);
+        if (form == null) {
+            Form newForm = new Form(Long.toString(this.ids[index]), this.getTitle(index), this.type);
+            form = this.forms.compareAndSet(index, null, newForm) ? newForm : this.forms.get(index);
+        }
+        return form;
+    }
+
+    /**
+     * View of the catalogue as a list of forms, created as they are requested.
+     */
+    public List<Form> asList() {
+        return new FormList();
+    }
+
+    private class FormList extends AbstractList<Form> implements RandomAccess {
+        @Override
+        public Form get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+            }
+            return getForm(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
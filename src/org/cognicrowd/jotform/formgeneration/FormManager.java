@@ -1,28 +1,27 @@
 package org.cognicrowd.jotform.formgeneration;
 
-import com.fasterxml.jackson.core.JsonFactory;
-import com.fasterxml.jackson.core.JsonGenerator;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.io.Files;
 import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.methods.HttpPut;
-import org.apache.http.entity.ContentType;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cognicrowd.jotform.client.JotFormClient;
+import org.cognicrowd.jotform.client.QuestionCache;
 import org.cognicrowd.jotform.datamodel.Form;
 import org.cognicrowd.jotform.datamodel.TypeOfForm;
+import org.cognicrowd.jotform.export.SubmissionExporter;
+import org.cognicrowd.jotform.metrics.Metrics;
 import org.cognicrowd.jotform.util.ConfigurationManager;
+import org.cognicrowd.jotform.util.ConfigurationSnapshot;
 
 import java.io.*;
+import java.math.BigInteger;
 import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 
 /**
  * @author csarasua
@@ -30,20 +29,41 @@ import java.util.*;
  */
 public class FormManager {
 
-    // Main directory of the code.
-    static String workingDir = System.getProperty("user.dir");
-    static String workingDirForFileName = workingDir.replace("\\", "/");
-
-    // All tests that there are available.
-    List<Form> listOfTests = new ArrayList<Form>();
-    // All tasks that there are available.
-    List<Form> listOfTasks = new ArrayList<Form>();
-
-    // The set of shuffleLists created by the method "createSetOfShuffledLists"
-    Set<List<Form>> setOfShuffledLists = new HashSet<List<Form>>();
-
-    // Counter for calculating the order (position in form) of each question.
-    int countCurrentOrder = 0;
+    private static final Log log = LogFactory.getLog(FormManager.class);
+
+    // All tests that there are available (a view of their FormCatalogue: each Form is created when it is first used).
+    List<Form> listOfTests;
+    // All tasks that there are available (same).
+    List<Form> listOfTasks;
+
+    // All tests followed by all tasks (a view of both). The shuffled lists are permutations of this list.
+    List<Form> listOfEverything;
+    // Position of each form in "listOfEverything", only built when a list has to be encoded (see encode).
+    Map<Form, Integer> positionOfForm;
+
+    // The shuffled lists created by the method "createSetOfShuffledLists", one per participant, in the order of the
+    // participants (the list of participant i is at position i, even if the ordering repeats it).
+    List<List<Form>> setOfShuffledLists = new ArrayList<List<Form>>();
+    // The distinct lists in "setOfShuffledLists", encoded as the positions of their forms in "listOfEverything".
+    PermutationIndex shuffledListIndex = new PermutationIndex();
+
+    // Number of participants whose lists are generated, decorated and written together (in parallel).
+    static final int BATCH_SIZE = 4096;
+
+    // Seed from which the shuffled list of each participant is derived.
+    long seed;
+    // How the forms of each participant are ordered.
+    TypeOfOrdering typeOfOrdering = TypeOfOrdering.Random;
+    // Computes the order of "listOfEverything" of each participant (or of the slots of the sampled forms).
+    OrderingStrategy orderingStrategy;
+    // Number of tests and tasks of each participant, 0 for all of them.
+    int testsPerParticipant = 0;
+    int tasksPerParticipant = 0;
+    // Chooses the tests and tasks of each participant, or null if every participant gets all of them.
+    StratifiedSampler sampler;
+    // With sampling, the orders of the slots repeat after this number of participants (there are only as many
+    // distinct random permutations).
+    long slotCycle = Long.MAX_VALUE;
 
     /**
      * Constructor
@@ -52,461 +72,383 @@ public class FormManager {
      * @param tasks file containing the list of available tasks
      */
     public FormManager(File tests, File tasks) {
-        this.readForms(tests, this.listOfTests, TypeOfForm.Test);
-        this.readForms(tasks, this.listOfTasks, TypeOfForm.Task);
+        this.listOfTests = this.readForms(tests, TypeOfForm.Test);
+        this.listOfTasks = this.readForms(tasks, TypeOfForm.Task);
+
+        // Creates a list containing ALL forms, indexed by position, without creating them.
+        this.listOfEverything = new TestsAndTasks(this.listOfTests, this.listOfTasks);
+
+        // Uses the ordering, the sampling and the seed of the configuration, or the seed of the serialisation in the
+        // journal (so that a resumed serialisation has the same lists), or else a new seed (printed, so that the run
+        // can be reproduced).
+        ConfigurationSnapshot config = ConfigurationManager.getInstance().getSnapshot();
+        this.typeOfOrdering = TypeOfOrdering.valueOf(config.getOrderingStrategy());
+        this.testsPerParticipant = config.getSamplingTests();
+        this.tasksPerParticipant = config.getSamplingTasks();
+        Long configuredSeed = config.getShuffleSeed();
+        if (configuredSeed == null) {
+            try {
+                configuredSeed = SerialisationJournal.readSeed(config.getJournalFile());
+                if (configuredSeed != null) {
+                    log.info("shuffle.seed = " + configuredSeed + " (from " + config.getJournalFile() + ")");
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        this.setSeed(configuredSeed != null ? configuredSeed : new Random().nextLong());
+        if (configuredSeed == null) {
+            log.info("shuffle.seed = " + this.seed);
+        }
     }
 
     /**
-     * Reads the CSV file and creates a list of forms (either tasks or tests).
+     * Sets the seed from which the shuffled list of each participant is derived.
+     * The same seed (and the same tests and tasks) always gives the same shuffled lists.
      *
-     * @param f    CSV file containing the description of the forms to load into memory.
-     * @param list list to which the forms need to be added.
-     * @param type the type of forms that need to be created.
+     * @param seed the seed.
      */
-    private void readForms(File f, List<Form> list, TypeOfForm type) {
-        Reader in = null;
-        try {
-            // Reads the tests
+    public void setSeed(long seed) {
+        this.seed = seed;
+        this.createOrderingStrategy();
+    }
 
-            // Creates the file reader.
-            in = new FileReader(f);
-            //Creates the header of the CSV file.
-            final String[] FILE_HEADER_MAPPING = {"'id'", "'title'"};
+    public long getSeed() {
+        return seed;
+    }
 
-            // Gets all the CSV records according to the header defined before.
-            Iterable<CSVRecord> records = CSVFormat.DEFAULT.withHeader(FILE_HEADER_MAPPING).parse(in);
+    /**
+     * Sets how the forms of each participant are ordered (random shuffle by default).
+     *
+     * @param typeOfOrdering the ordering strategy.
+     */
+    public void setTypeOfOrdering(TypeOfOrdering typeOfOrdering) {
+        this.typeOfOrdering = typeOfOrdering;
+        this.createOrderingStrategy();
+    }
 
-            // note: When including the header in the file it does not leave out the header in the records iterable
+    public TypeOfOrdering getTypeOfOrdering() {
+        return typeOfOrdering;
+    }
 
-            // Goes through all available CSV records.
-            for (CSVRecord record : records) {
-                // Gets the two attributes for each record (id and title).
-                String id = record.get("'id'");
-                String title = record.get("'title'");
+    /**
+     * Sets how many tests and tasks each participant gets. They are drawn from all the tests and tasks so that every
+     * form is shown a near-equal number of times (StratifiedSampler), and then ordered by the ordering strategy.
+     *
+     * @param testsPerParticipant number of tests of each participant, 0 for all of them.
+     * @param tasksPerParticipant number of tasks of each participant, 0 for all of them.
+     * @throws IllegalArgumentException if there are fewer tests or tasks than each participant needs.
+     */
+    public void setFormsPerParticipant(int testsPerParticipant, int tasksPerParticipant) {
+        this.testsPerParticipant = testsPerParticipant;
+        this.tasksPerParticipant = tasksPerParticipant;
+        this.createOrderingStrategy();
+    }
 
-                // Creates a new form.
-                Form form = new Form(id, title, type);
-                // Adds the created form to the input list, in which the corresponding forms are kept.
-                list.add(form);
-            }
+    private void createOrderingStrategy() {
+        if (this.testsPerParticipant <= 0 && this.tasksPerParticipant <= 0) {
+            this.sampler = null;
+            this.slotCycle = Long.MAX_VALUE;
+            this.orderingStrategy = this.typeOfOrdering.create(this.listOfEverything, this.seed);
+            return;
+        }
+        this.sampler = new StratifiedSampler(this.listOfTests.size(), this.listOfTasks.size(),
+                this.testsPerParticipant > 0 ? this.testsPerParticipant : this.listOfTests.size(),
+                this.tasksPerParticipant > 0 ? this.tasksPerParticipant : this.listOfTasks.size(), this.seed);
+        this.orderingStrategy = this.typeOfOrdering.create(this.sampler.getSlots(), this.seed);
+        BigInteger permutations = PermutationGenerator.factorial(this.sampler.getSampleSize());
+        this.slotCycle = this.typeOfOrdering == TypeOfOrdering.Random && permutations.bitLength() < 63
+                ? permutations.longValue() : Long.MAX_VALUE;
+    }
 
+    /**
+     * Recomputes the shuffled list (without instructions and breaks) of one participant, without generating the
+     * lists of the others. Its order costs O(length) with the LatinSquare and Constrained orderings, and, with the
+     * Random ordering, O(length log length) for up to 20 forms and O(length^2 log length) beyond (see
+     * PermutationGenerator).
+     * With sampling (setFormsPerParticipant), the forms of a participant depend on those drawn for the participants
+     * before: the StratifiedSampler keeps the draws of its last block of participants only, so drawing them is
+     * O(length) for a participant of that block, O(block size * length * log(number of forms)) for a participant of an earlier block
+     * (drawn again from the state of the sampler at its start), and the first look-up of a later participant p draws
+     * all the participants up to p, at O(p * length * log(number of forms)).
+     *
+     * @param participant number of the participant (0 for "user1").
+     * @return the shuffled list of the participant.
+     */
+    public List<Form> getShuffledList(long participant) {
+        if (this.sampler == null) {
+            return this.toShuffledList(this.orderingStrategy.orderFor(participant));
+        }
+        // The sampled forms depend on the participants before, which are drawn (once) if needed.
+        return this.toShuffledList(this.arrange(this.sampler.positionsFor(participant), participant));
+    }
+
+    /**
+     * Computes (in parallel) the orders of a number of consecutive participants.
+     *
+     * @param firstParticipant number of the first participant.
+     * @param size             number of participants.
+     * @return the orders, in the order of the participants.
+     */
+    private List<int[]> ordersFor(final long firstParticipant, int size) {
+        if (this.sampler == null) {
+            return LongStream.range(firstParticipant, firstParticipant + size).parallel()
+                    .mapToObj(this.orderingStrategy::orderFor)
+                    .collect(Collectors.toCollection(ArrayList<int[]>::new));
+        }
+        // The forms are drawn in the order of the participants, and then arranged in parallel.
+        final List<int[]> positions = new ArrayList<int[]>(size);
+        for (long participant = firstParticipant; participant < firstParticipant + size; participant++) {
+            positions.add(this.sampler.positionsFor(participant));
+        }
+        return IntStream.range(0, size).parallel()
+                .mapToObj(i -> this.arrange(positions.get(i), firstParticipant + i))
+                .collect(Collectors.toCollection(ArrayList<int[]>::new));
+    }
+
+    /**
+     * Puts the sampled forms of a participant in the order that the ordering strategy gives to their slots.
+     *
+     * @param positions   positions in "listOfEverything" of the sampled tests and then tasks.
+     * @param participant number of the participant.
+     * @return the positions in the order in which the participant sees them.
+     */
+    private int[] arrange(int[] positions, long participant) {
+        int[] slots = this.orderingStrategy.orderFor(participant % this.slotCycle);
+        int[] order = new int[slots.length];
+        for (int i = 0; i < slots.length; i++) {
+            order[i] = positions[slots[i]];
+        }
+        return order;
+    }
+
+    /**
+     * Reads the CSV file of a list of forms (either tasks or tests).
+     * The file is loaded as a FormCatalogue, and the list is a view of it: the forms are only created from the
+     * catalogue at the positions that are used.
+     *
+     * @param f    CSV file containing the description of the forms to load into memory.
+     * @param type the type of forms that need to be created.
+     * @return the forms, or an empty list if the file cannot be read.
+     */
+    private List<Form> readForms(File f, TypeOfForm type) {
+        try {
+            return FormCatalogue.load(f, type).asList();
         } catch (FileNotFoundException e) {
             e.printStackTrace();
         } catch (IOException e) {
             e.printStackTrace();
         }
+        return Collections.emptyList();
+    }
+
+    /**
+     * All the tests followed by all the tasks, as a view of both lists.
+     */
+    private static class TestsAndTasks extends AbstractList<Form> implements RandomAccess {
+        private final List<Form> tests;
+        private final List<Form> tasks;
+
+        TestsAndTasks(List<Form> tests, List<Form> tasks) {
+            this.tests = tests;
+            this.tasks = tasks;
+        }
+
+        @Override
+        public Form get(int index) {
+            return index < this.tests.size() ? this.tests.get(index) : this.tasks.get(index - this.tests.size());
+        }
+
+        @Override
+        public int size() {
+            return this.tests.size() + this.tasks.size();
+        }
     }
 
     /**
      * Builds the set of shuffled lists of tests and tasks.
-     * Each shuffled list is a random permutation of tests and tasks.
-     * Each shuffled list includes ALL tests and tasks.
+     * Each shuffled list is a permutation of tests and tasks, computed (in parallel) by the ordering strategy from the
+     * seed and the number of the participant.
+     * Each shuffled list includes ALL tests and tasks, unless a number of tests and tasks per participant has been
+     * set (setFormsPerParticipant).
+     * With the Random ordering the lists are distinct; other orderings repeat the same orders in blocks of
+     * participants (which is how they are balanced), and every participant still gets its own list.
      *
      * @param size the number of shuffled lists to be created (one per user).
+     * @throws IllegalArgumentException if, with the Random ordering, there are not as many distinct permutations of
+     *                                  the forms as participants.
      */
     public void createSetOfShuffledLists(int size) {
-        List<Form> shuffledList = new ArrayList<Form>();
 
-        // Creates a list containing ALL forms.
-        List<Form> listOfEverything = new ArrayList<Form>();
-        listOfEverything.addAll(this.listOfTests);
-        listOfEverything.addAll(this.listOfTasks);
+        // Continues with the participants after the ones of previous calls (with the Random ordering, the new lists are
+        // then distinct from them).
+        int firstParticipant = this.setOfShuffledLists.size();
 
-        // Creates the list that is going to be shuffled, containing all forms (of tests and tasks).
-        List<Form> listOfEverythingSuffleable = new ArrayList<Form>();
-        listOfEverythingSuffleable.addAll(listOfEverything);
-
-        // Create shuffled forms as many times as the value of "size". This number represents the number of subjects.
-        for (int i = 0; i < size; i++) {
+        // Creates one shuffled list per permutation. The number of permutations represents the number of subjects.
+        for (int[] permutation : this.ordersFor(firstParticipant, size)) {
+            // Only the distinct lists are indexed, for isRepeatedShuffledList.
+            this.shuffledListIndex.add(permutation);
             // Creates a new shuffled list --- one list for a particular user
-            List<Form> newShuffledList = new ArrayList<Form>();
-            boolean newShuffled = false;
-            // Assumes that the number of possible permutations is smaller or equal to the size (the number of shuffled lists to be built).
-
-            // While no new unique shuffled list has been created, keeps on generating a new one.
-            while (!newShuffled) {
-
-                // Shuffles the list.
-                Collections.shuffle(listOfEverythingSuffleable);
-                // Creates a new object for the new shuffled list.
-                newShuffledList = new ArrayList<Form>();
-                // Copies all the elements in the current status of the shuffleable list
-                newShuffledList.addAll(listOfEverythingSuffleable);
-                // Adds the new shuffled list to the set of shuffled lists
-                // Checks that the candidate shuffled list of forms has not yet been generated and kept.
-                if (this.setOfShuffledLists.size() == 0 || (this.setOfShuffledLists.size() != 0 && !isRepeatedShuffledList(newShuffledList)))
-                {
-                    newShuffled = true;
-                }
-
-            }
-            // It is new, therefore it is kept in the final list.
-            this.setOfShuffledLists.add(newShuffledList);
+            this.setOfShuffledLists.add(this.toShuffledList(permutation));
         }
+        Metrics.getInstance().recordListsGenerated(size);
 
     }
 
     /**
      * Checks whether a (candidate shuffled) list of forms has been already generated and stored in the setOfShuffledLists.
+     * The list is looked up in the shuffledListIndex, so the cost does not grow with the number of lists.
      * @param list
      * @return true / false indicating whether it is or not a repeated list.
      */
-    private boolean isRepeatedShuffledList(List<Form> list) {
-
-        boolean result = false;
-
-        for (List<Form> listI : this.setOfShuffledLists) {
-
-            if (listI.size() == list.size()) {
-                int equals = 0;
-                for (int i = 0; i < list.size(); i++) {
-                    System.out.println("list shuffle candidate " + list.get(i).getFormId());
-                    System.out.println("list in set already " + listI.get(i).getFormId());
-
+    boolean isRepeatedShuffledList(List<Form> list) {
+        int[] permutation = this.encode(list);
+        return permutation != null && this.shuffledListIndex.contains(permutation);
+    }
 
-                    if (list.get(i).getFormId() != listI.get(i).getFormId()) {
-                        break;
-                    } else {
-                        equals = equals + 1;
-                    }
-                }
-                if (equals == list.size()) {
-                    result = true;
-                }
+    /**
+     * Encodes a list of forms as the positions of its forms in "listOfEverything".
+     *
+     * @param list list of forms.
+     * @return the positions, or null if the list contains a form that is neither a test nor a task.
+     */
+    private int[] encode(List<Form> list) {
+        if (this.positionOfForm == null) {
+            // Creates all the forms, which the generation of the lists does not need.
+            Map<Form, Integer> positions = new HashMap<Form, Integer>();
+            for (int i = 0; i < this.listOfEverything.size(); i++) {
+                positions.put(this.listOfEverything.get(i), i);
             }
-
-
+            this.positionOfForm = positions;
         }
-
-
-        return result;
+        int[] permutation = new int[list.size()];
+        for (int i = 0; i < permutation.length; i++) {
+            Integer position = this.positionOfForm.get(list.get(i));
+            if (position == null) {
+                return null;
+            }
+            permutation[i] = position;
+        }
+        return permutation;
     }
 
     /**
      * Creates the set of forms in JotForm out of the shuffledLists.
+     * Each participant gets their own merged form, even if another participant has the same list, so that the
+     * submissions of each form are those of one participant.
+     * The shuffled lists are independent of each other, so they go through a SerialisationPipeline: the forms of
+     * some lists are created while the questions of others are assembled and uploaded, sharing one JotFormClient.
+     * All the lists contain the same forms, so the questions of each form are fetched only once, before creating any
+     * form, and kept in a QuestionCache (saved to "questions.snapshot" if it is configured, and then read by the next
+     * runs instead of fetching the questions again, until the file is deleted). They are also encoded to JSON only once
+     * (MergedFormTemplate); the payload of each list is a copy of the encoded questions in its order.
+     * The seed of the lists is recorded in the journal, and the serialisation is only resumed with the same seed (the
+     * constructor takes it from the journal unless "shuffle.seed" is configured).
      *
      * @param parts number of parts to build per shuffledList (in case two sessions need to be created).
+     * @throws IllegalStateException if the journal is of a serialisation of lists with another seed.
      */
     public void serialiseSetOfShuffledLists(int parts) {
         // For all the shuffledLists in the set generated with the method "createSetOfShuffledLists"
 
-        int countList = 0;
-        for (List<Form> list : this.setOfShuffledLists) {
-            countList++;
-            this.countCurrentOrder = 0;
-
-            // Creates the HTTP clients.
-            HttpClient client = new DefaultHttpClient();
-            HttpClient client2 = new DefaultHttpClient();
-            HttpClient client3 = new DefaultHttpClient();
-
-            // Gets the key of the API.
-            String key = ConfigurationManager.getInstance().getApiKey();
-
-            HttpResponse response = null;
-
-            // Creates the Http POST request to generate the new forms.
-            HttpPost postForm = new HttpPost(ConfigurationManager.getInstance().getHttpPostForm() + "?apiKey=" + key);
-            System.out.println(postForm.getURI());
-            postForm.setHeader("Accept", "application/json");
-
-
-            String formData = "{\"properties\":{ \n " +
-                    " \"title\":\" Form" + countList + "\"" +
-                    " }}";
+        ConfigurationSnapshot config = ConfigurationManager.getInstance().getSnapshot();
+        JotFormClient client = new JotFormClient(ConfigurationManager.getInstance());
+        ExecutorService executor = Executors.newFixedThreadPool(config.getSerialisationThreads());
+        SerialisationJournal journal = null;
 
-            StringEntity formDataEntity = new StringEntity(formData, ContentType.create(
-                    "application/json", "UTF-8"));
-            System.out.println("data: " + formData);
-            postForm.setEntity(formDataEntity);
-
-
-            int statusNewForm = 1;
-            String newCreatedId = null;
-
-            // Tries until it gives a 200 as response.
-            while (statusNewForm == 1) {
-                try {
-                    response = client.execute(postForm);
-                } catch (IOException e) {
-                    e.printStackTrace();
+        try {
+            // Skips the lists that were completely serialised by a previous run.
+            journal = new SerialisationJournal(config.getJournalFile(), config.getJournalSyncBatch());
+            if (journal.getSeed() != null && journal.getSeed() != this.seed) {
+                // The forms of the journal were created for other lists, and would be left behind.
+                throw new IllegalStateException("The journal " + config.getJournalFile() + " is of the lists of the seed "
+                        + journal.getSeed() + ", not " + this.seed + ": remove it (or set that shuffle.seed) to serialise these lists");
+            }
+            journal.recordSeed(this.seed);
+            Map<Integer, List<Form>> pendingLists = new LinkedHashMap<Integer, List<Form>>();
+            int countList = 0;
+            for (List<Form> list : this.setOfShuffledLists) {
+                countList++;
+                SerialisationJournal.Entry entry = journal.get(countList, list);
+                if (entry == null || !entry.isQuestionsAdded()) {
+                    pendingLists.put(countList, list);
                 }
-                int statusCode = response.getStatusLine().getStatusCode();
-                // If the response is positive
-                if (statusCode == 200) {
-                    // Reads the content of the response.
-                    HttpEntity responseEntity = response.getEntity();
-                    if (responseEntity != null) {
-                        ObjectMapper mapper = new ObjectMapper();
-                        InputStream in = null;
-                        try {
-                            in = responseEntity.getContent();
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                        Map<String, Object> newFormCall = null;
-                        try {
-                            newFormCall = mapper.readValue(in,
-                                    new TypeReference<Map<String, Object>>() {
-                                    });
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-
-                        for (Map.Entry<String, Object> entry : newFormCall.entrySet()) {
-                            if (entry.getKey().equals("content") && entry.getValue() instanceof Map) {
-                                Map<String, Object> formMap = (Map<String, Object>) entry.getValue();
-                                for (Map.Entry<String, Object> formAttribute : formMap.entrySet()) {
-                                    if (formAttribute.getKey().equals("id") && (formAttribute.getValue() instanceof String)) {
-                                        newCreatedId = formAttribute.getValue().toString();
-                                    }
-                                }
-                            }
-                        }
-
-                    }
-
-
-                    statusNewForm = 0;
-
+            }
+            log.info((countList - pendingLists.size()) + " of " + countList + " lists were already serialised");
 
-                } else {
-                    System.out.println("there was a problem in post form: " + response.getStatusLine().getStatusCode() + " " + response.getStatusLine().getReasonPhrase());
+            // Fetches the questions of every form that appears in any of the pending lists.
+            final QuestionCache questionCache = new QuestionCache();
+            File snapshot = config.getQuestionsSnapshot();
+            if (snapshot != null) {
+                questionCache.readSnapshot(snapshot);
+            }
+            Set<Form> pendingForms = new LinkedHashSet<Form>();
+            Set<String> formIds = new LinkedHashSet<String>();
+            for (List<Form> list : pendingLists.values()) {
+                for (Form form : list) {
+                    pendingForms.add(form);
+                    formIds.add(form.getFormId());
                 }
-
+            }
+            questionCache.load(client, formIds, executor);
+            if (snapshot != null) {
+                questionCache.writeSnapshot(snapshot);
             }
 
-
-            postForm.releaseConnection();
-
-            HttpResponse response2 = null;
-            String data = new String();
-            data = data + "{\n" +
-                    "   \"questions\":[\n";
-
-            // Creates the Http PUT request to create the questions in the new form(s).
-            HttpPut putQuestionsToForm = new HttpPut(ConfigurationManager.getInstance().getHttpPostForm() + "/" + newCreatedId + "/questions?apiKey=" + ConfigurationManager.getInstance().getApiKey());
-            System.out.println(putQuestionsToForm.getURI());
-
-
-            // Retrieves all the questions from the individual forms of tests and tasks
-            for (Form form : list) {
-                // Gets the questions in the form
-
+            MergedFormTemplate template = new MergedFormTemplate(pendingForms, questionCache);
+            new SerialisationPipeline(client, template, journal, config).run(pendingLists);
+            log.info(Metrics.getInstance().getSummary());
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+            client.shutdown();
+            if (journal != null) {
                 try {
-
-                    // Creates the Http GET request to get the questions of forms.
-                    HttpGet getQuestionsOfForm = new HttpGet(ConfigurationManager.getInstance().getHttpGetForm() + "/" + form.getFormId() + "/questions?apiKey=" + key);
-
-                    System.out.println(getQuestionsOfForm.getURI());
-                    getQuestionsOfForm.setHeader("Accept", "application/json");
-
-                    int status = 1;
-
-                    // While there is something wrong (e.g. Internet broke or the server was offline) retry.
-                    while (status == 1) {
-                        response2 = client2.execute(getQuestionsOfForm);
-
-                        // Gets the status line.
-                        int statusCode = response2.getStatusLine().getStatusCode();
-                        // If everything went OK (status == 200)
-
-                        /**
-                         * Sample response:
-                         * {
-                         "responseCode": 200,
-                         "message": "success",
-                         "content": {
-                         "1": {
-                         "hint":" ",
-                         "labelAlign":"Auto",
-                         "name":"textboxExample1",
-                         "order":"1",
-                         "qid":"1",
-                         "readonly":"No",
-                         "required":"No",
-                         "shrink": "No",
-                         "size":"20",
-                         "text":"Textbox Example",
-                         "type":"control_textbox",
-                         "validation":"None"
-                         },
-                         "2": {
-                         "labelAlign":"Auto",
-                         "middle":"No",
-                         "name":"fullName2",
-                         "order":"1",
-                         "prefix":"No",
-                         "qid":"2",
-                         "readonly":"No",
-                         "required":"No",
-                         "shrink": "Yes",
-                         "sublabels":
-                         {
-                         "prefix":"Prefix",
-                         "first":"First Name",
-                         "middle":"Middle Name",
-                         "last":"Last Name",
-                         "suffix":"Suffix"
-                         },
-                         "suffix":"No",
-                         "text":"Full Name",
-                         "type":"control_fullname"
-                         },
-                         ...}
-                         */
-                        if (statusCode == 200) {
-
-
-                            // Gets the entity in the response (body).
-                            HttpEntity responseEntity = response2.getEntity();
-                            if (responseEntity != null) {
-                                ObjectMapper mapper = new ObjectMapper();
-                                InputStream in = null;
-                                try {
-                                    in = responseEntity.getContent();
-                                } catch (IOException e) {
-                                    e.printStackTrace();
-                                }
-                                Map<String, Object> formQuestionsCall = null;
-                                try {
-                                    formQuestionsCall = mapper.readValue(in,
-                                            new TypeReference<Map<String, Object>>() {
-                                            });
-                                } catch (IOException e) {
-                                    e.printStackTrace();
-                                }
-
-
-                                //most outer level
-                                for (Map.Entry<String, Object> entry : formQuestionsCall.entrySet()) {
-                                    //Gets the questions
-                                    //if(entry.getKey().equals("content") && entry.getValue() instanceof List)
-                                    if (entry.getKey().equals("content")) {
-                                        JsonFactory jsonFactory = new JsonFactory().configure(
-                                                JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
-                                        Map<String, Object> mapOfQuestions = (Map<String, Object>) entry.getValue();
-                                        ObjectMapper mapper2 = new ObjectMapper(jsonFactory);
-
-
-                                        for (Map.Entry<String, Object> questionEntry : mapOfQuestions.entrySet()) {
-
-
-                                            // Map<String,Object> questionI = (Map<String,Object>)questionEntry.getValue();
-                                            // for (Map.Entry<String,Object> questionAttribute: questionI.entrySet())
-                                            //{
-
-                                            /** each of shape:
-                                             *   "1": {
-                                             "hint":" ",
-                                             "labelAlign":"Auto",
-                                             "name":"textboxExample1",
-                                             "order":"1",
-                                             "qid":"1",
-                                             "readonly":"No",
-                                             "required":"No",
-                                             "shrink": "No",
-                                             "size":"20",
-                                             "text":"Textbox Example",
-                                             "type":"control_textbox",
-                                             "validation":"None"
-                                             },
-                                             */
-
-                                            String idQuestionInMap = (String) questionEntry.getKey();
-
-                                            Map<String, Object> questionAttributeMap = (Map<String, Object>) questionEntry.getValue();
-
-                                            putQuestionsToForm.setHeader("Content-type", "application/json");
-
-                                            /* Makes the qid of each question unique, by using the id of the new form created, together with the position in the current list of forms.
-                                            * There will be several question with the same ID.
-                                            * each qid=1 of each individual form will be aggregated into the global one).
-                                             */
-                                            //Integer index = list.indexOf(form);
-
-                                            String newId = form.getFormId() +"-" + questionAttributeMap.get("qid");
-                                            questionAttributeMap.put("qid", newId);
-
-                                            /**
-                                             * Makes the order of each question unique, for the same reason as for the qid.
-                                             */
-                                            if (list.indexOf(form) > 0) {
-                                                String originalOrder = (String) questionAttributeMap.get("order");
-                                                Integer orderInt = new Integer(originalOrder);
-                                                Integer newOrder = new Integer(orderInt.intValue() + this.countCurrentOrder);
-                                                questionAttributeMap.put("order", newOrder.toString());
-                                            }
-
-
-                                            data = data + mapper2.writeValueAsString(questionAttributeMap);
-
-                                            data = data + ", ";
-                                            //For the next one
-
-
-                                        }
-                                        this.countCurrentOrder = this.countCurrentOrder + mapOfQuestions.size();
-
-
-                                    }
-
-                                }
-
-
-                            }
-                            status = 0;
-                        } else {
-                            System.out.println("there was a problem in response 2 : " + response2.getStatusLine().getStatusCode() + " " + response2.getStatusLine().getReasonPhrase());
-                        }
-
-                        getQuestionsOfForm.releaseConnection();
-
-                        putQuestionsToForm.releaseConnection();
-
-
-                    }
-
-                } catch (Exception e) {
+                    journal.close();
+                } catch (IOException e) {
                     e.printStackTrace();
-
-
                 }
-
-
-                // Adds the retrieved questions to the list of questions
             }
-            if (data.endsWith(", ")) {
-                String dataTemp = new String(data);
-                data = new String(dataTemp.substring(0, dataTemp.length() - 2));
-            }
-            data = data + "\n ]";
-            data = data + "\n }";
-
-            StringEntity sEntE = new StringEntity(data, ContentType.create(
-                    "application/json", "UTF-8"));
-            System.out.println("data: " + data);
-            putQuestionsToForm.setEntity(sEntE);
+        }
+    }
 
-            int statusPut = 1;
-            // Creates the form in JotForm including all the questions of the individual forms
+    /**
+     * Exports the submissions of the merged forms created by serialiseSetOfShuffledLists (as recorded in the journal)
+     * to the CSV file of "output.submissions", one row per answer, tagged with the participant, the source form of the
+     * question and its position in the list of the participant (see SubmissionExporter).
+     *
+     * @return the number of merged forms whose submissions could not be exported (they are left out of the file).
+     * @throws IOException if the journal cannot be read or the file cannot be written.
+     */
+    public int exportSubmissions() throws IOException {
+        ConfigurationSnapshot config = ConfigurationManager.getInstance().getSnapshot();
+        JotFormClient client = new JotFormClient(ConfigurationManager.getInstance());
+        SerialisationJournal journal = null;
 
-            while (statusPut == 1) {
-                HttpResponse response3 = null;
+        try {
+            journal = new SerialisationJournal(config.getJournalFile(), config.getJournalSyncBatch());
+            int failed = new SubmissionExporter(client, config).export(journal.getEntries(), config.getSubmissionsFile());
+            if (failed > 0) {
+                log.warn("The submissions of " + failed + " merged forms could not be exported; export them again to complete "
+                        + config.getSubmissionsFile());
+            }
+            log.info(Metrics.getInstance().getSummary());
+            return failed;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("The export of the submissions was interrupted");
+        } finally {
+            client.shutdown();
+            if (journal != null) {
                 try {
-                    response3 = client3.execute(putQuestionsToForm);
+                    journal.close();
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
-                int statusPutQuestionsForm = response3.getStatusLine().getStatusCode();
-                if (statusPutQuestionsForm == 200) {
-                    statusPut = 0;
-                } else {
-                    System.out.print("there was a problem in put form: " + response3.getStatusLine().getStatusCode() + " " + response3.getStatusLine().getStatusCode() + " " + response3.getStatusLine().getReasonPhrase());
-                }
             }
-
-
         }
     }
 
@@ -514,115 +456,192 @@ public class FormManager {
      * Generates a file containing a set of tests and tasks to be accomplished by each user.
      * The file is a CSV file. Each row has shape:  "userid", "form1", ..., "formn" .
      * form1 ... formn will be any of the tests and tasks designed in JotForm. At the beginning there is always the instructions, 
+     * The lists are generated, decorated (with a SessionLayout computed once) and written in batches of users (they are not kept in setOfShuffledLists), so
+     * the memory needed does not depend on the number of users, except with sampling, where the StratifiedSampler keeps
+     * a copy of its state (O(number of forms)) for each block of participants. The list of user k is the one of participant k-1 (see
+     * getShuffledList).
+     * The lists are also written to the binary AssignmentStore of "output.assignmentstore" if it is configured.
      * @param numberOfUsers the number of total users that will participate in the experiment.
      * @param numberOfSessions the number of sessions in which the experiment should be split.
      */
     public void generateShuffledLists(int numberOfUsers, int numberOfSessions) throws FileNotFoundException {
 
-        List<Form> frontForms = new ArrayList<Form>();
-        List<Form> middleForms = new ArrayList<Form>();
-        List<Form> endForms = new ArrayList<Form>();
-
-
-        // generate lists of shuffled forms
-        this.createSetOfShuffledLists(numberOfUsers);
-
-        // create a copy of the generated set of shuffled lists
-        Set<List<Form>> tempShuffledSet = new HashSet<List<Form>>();
-
-        // go through all the content of the set of shuffled lists and include  instructions in the front and a break inbetween
-        File frontFile = new File(workingDirForFileName+"/data/front.csv");
-        this.readForms(frontFile, frontForms, TypeOfForm.Other);
-
-        File middleFile = new File(workingDirForFileName+"/data/middle.csv");
-        this.readForms(middleFile, middleForms, TypeOfForm.Other);
-
-        File endFile = new File(workingDirForFileName+"/data/end.csv");
-        this.readForms(endFile, endForms, TypeOfForm.Other);
-
-
-
-
-        for (List<Form> listFi: this.setOfShuffledLists)
-        {
-            List<Form> newList = new ArrayList<Form>();
-           // add the front forms at the beginning of the list
-           for(Form form: frontForms)
-           {
-               newList.add(form);
-           }
-           int sizeOfSession = Math.round(listFi.size() / numberOfSessions);
-           int sizeNoBreak = Math.round(sizeOfSession / 2);
-           Iterator listFiIt =  listFi.iterator();
-            int currentSession = 1;
-            int count = 0;
-           while(listFiIt.hasNext())
-           {
-
-               newList.add((Form)listFiIt.next());
-               count++;
-               if(count==(((currentSession-1)*sizeOfSession)+sizeNoBreak))
-               {
-                   // only one form for break
-                   newList.add(middleForms.get(0));
-               }
-               else if(count==currentSession*sizeOfSession)
-               {
-                   // only one form for the end of session
-                   newList.add(endForms.get(0));
-                   currentSession++;
-               }
-           }
-
-           //add it to the temp set of shuffled lists
-            tempShuffledSet.add(newList);
-        }
-
+        // include instructions in the front, and a break and an end in each session, at the same places in every list
+        SessionLayout layout = this.createSessionLayout(numberOfSessions);
 
-        // remove the previous content of the set of shuffledlists and replace it with the updated content (including instructions and breaks)
-        this.setOfShuffledLists.clear();
-        this.setOfShuffledLists.addAll(tempShuffledSet);
+        File f = ConfigurationManager.getInstance().getSnapshot().getListsFile();
 
-
-        this.writeShuffledResult();
+        try {
+            ShuffledResultWriter writer = this.createWriter(f);
+            try {
+                // generate lists of shuffled forms: permutation -> shuffled list -> decorated list -> row
+                // The permutations of each batch of participants are computed in parallel, and written in order.
+                for (int firstParticipant = 0; firstParticipant < numberOfUsers; firstParticipant += BATCH_SIZE) {
+                    int size = Math.min(BATCH_SIZE, numberOfUsers - firstParticipant);
+                    for (int[] permutation : this.ordersFor(firstParticipant, size)) {
+                        writer.writeRow(layout.apply(this.toShuffledList(permutation)));
+                    }
+                    Metrics.getInstance().recordListsGenerated(size);
+                }
+                writer.commit();
+            } finally {
+                writer.close();
+            }
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
 
     }
 
-    private void writeShuffledResult()
-    {
+    /**
+     * Updates the file generated by generateShuffledLists after the tests or tasks have changed, keeping the
+     * assignments of the participants who already started (see ShuffledListUpdater): the forms that are no longer in
+     * the catalogue are removed from the lists, and the new forms are spliced into them (or, with sampling, replace
+     * the removed ones), at balanced positions. Only the rows that change are decorated again; the others are copied
+     * as they were.
+     * Participants beyond the ones in the previous file get new lists, as by generateShuffledLists (with the Random
+     * ordering, skipping any list that repeats one that is kept, since the seed or the catalogue may not be those of
+     * the previous file); if there are fewer users, the last rows are dropped. If there is no previous file, all the
+     * lists are generated.
+     * The previous file can also be in the format of the first versions of the application ('user1','url',...,).
+     * The kept rows are written in the current format, with the same forms.
+     *
+     * @param numberOfUsers    the number of total users that will participate in the experiment.
+     * @param numberOfSessions the number of sessions in which the experiment should be split.
+     * @throws IOException if the previous file cannot be read (e.g. it has another format), in which case it is left
+     *                     untouched.
+     */
+    public void updateShuffledLists(int numberOfUsers, int numberOfSessions) throws IOException {
 
-        String defaultJotFormURLBase = "http://form.jotformpro.com/form/";
-        File f = new File(workingDirForFileName+"/output/listOfShuffledTestsAndTasks.csv");
+        File f = ConfigurationManager.getInstance().getSnapshot().getListsFile();
+        if (!f.exists()) {
+            this.generateShuffledLists(numberOfUsers, numberOfSessions);
+            return;
+        }
 
-        try {
-            Files.write("Forms for users", f,
-                    Charset.defaultCharset());
-            String ls = System.getProperty("line.separator");
-            Files.append(ls, f, Charset.defaultCharset());
+        SessionLayout layout = this.createSessionLayout(numberOfSessions);
+        Set<String> decorationIds = new HashSet<String>();
+        for (Form form : layout.getDecorationForms()) {
+            decorationIds.add(form.getFormId());
+        }
+        ShuffledListUpdater updater = new ShuffledListUpdater(this.listOfEverything, this.listOfTests.size(),
+                this.testsPerParticipant, this.tasksPerParticipant, decorationIds, this.seed);
+
+        if (updater.isSampling()) {
+            // The exposure of the forms in all the previous lists decides which forms replace the removed ones.
+            CSVParser previous = CSVParser.parse(f, Charset.forName("UTF-8"), CSVFormat.DEFAULT);
+            try {
+                for (CSVRecord row : previous) {
+                    if (previous.getRecordNumber() > 1) {
+                        updater.countExposure(ShuffledResultWriter.formIdsOf(row));
+                    }
+                }
+            } finally {
+                previous.close();
+            }
+        }
 
-            int count =0;
-           for(List<Form> listOfOneUser: this.setOfShuffledLists)
-           {
-               //write one list of shuffled lists per line - one line is one user
-               count++;
-               Files.append("'user"+count+"',", f, Charset.defaultCharset());
-               for(Form userFormI: listOfOneUser)
-               {
-                   Files.append("'"+defaultJotFormURLBase+userFormI.getFormId()+"',", f, Charset.defaultCharset());
-               }
-               //new line
-               Files.append(ls, f, Charset.defaultCharset());
+        // With the Random ordering every participant must get a distinct list. The lists of the new participants
+        // come from the current seed and catalogue, which may not be those of the previous lists, so they are
+        // checked against the lists that are kept.
+        boolean distinct = this.sampler == null && this.typeOfOrdering == TypeOfOrdering.Random;
+        PermutationIndex keptLists = new PermutationIndex();
 
-           }
+        int users = 0;
+        int changedRows = 0;
+        CSVParser previous = CSVParser.parse(f, Charset.forName("UTF-8"), CSVFormat.DEFAULT);
+        ShuffledResultWriter writer = this.createWriter(f);
+        try {
+            for (CSVRecord row : previous) {
+                // Skips the header.
+                if (previous.getRecordNumber() == 1) {
+                    continue;
+                }
+                if (users == numberOfUsers) {
+                    break;
+                }
+                List<String> formIds = ShuffledResultWriter.formIdsOf(row);
+                List<Form> listFi = updater.update(users, formIds);
+                if (listFi == null) {
+                    writer.copyRow(formIds);
+                } else {
+                    writer.writeRow(layout.apply(listFi));
+                    changedRows++;
+                }
+                if (distinct) {
+                    keptLists.add(listFi == null ? updater.positionsOf(formIds) : this.encode(listFi));
+                }
+                users++;
+            }
+            if (!updater.getRemovedIds().isEmpty()) {
+                log.warn(updater.getRemovedIds().size() + " forms of the previous lists are no longer in the catalogue and were removed from them: " + updater.getRemovedIds());
+            }
+            log.info(changedRows + " of " + users + " lists changed");
+            // New participants. A list that repeats a kept one is replaced by the list of the next participant.
+            long nextParticipant = users;
+            int repeated = 0;
+            while (users < numberOfUsers) {
+                int size = Math.min(BATCH_SIZE, numberOfUsers - users);
+                for (int[] permutation : this.ordersFor(nextParticipant, size)) {
+                    if (distinct && !keptLists.add(permutation)) {
+                        repeated++;
+                        continue;
+                    }
+                    writer.writeRow(layout.apply(this.toShuffledList(permutation)));
+                    users++;
+                }
+                nextParticipant += size;
+                Metrics.getInstance().recordListsGenerated(size);
+            }
+            if (repeated > 0) {
+                log.info(repeated + " lists of new participants repeated kept lists and were replaced");
+            }
+            writer.commit();
+        } finally {
+            previous.close();
+            writer.close();
+        }
+    }
 
+    /**
+     * Creates the writer of the file with the lists of the users, which also writes them to the binary store of
+     * "output.assignmentstore" if it is configured.
+     */
+    private ShuffledResultWriter createWriter(File f) throws IOException {
+        return new ShuffledResultWriter(f, ConfigurationManager.getInstance().getSnapshot().getAssignmentStore());
+    }
 
+    /**
+     * Computes where the instructions, breaks and ends of session go in the lists of the participants, from the forms
+     * of the files "data.front", "data.middle" and "data.end" of the configuration.
+     *
+     * @param numberOfSessions the number of sessions in which the experiment should be split.
+     */
+    SessionLayout createSessionLayout(int numberOfSessions) {
+        int formsPerList = this.sampler == null ? this.listOfEverything.size() : this.sampler.getSampleSize();
+        ConfigurationSnapshot config = ConfigurationManager.getInstance().getSnapshot();
+        return new SessionLayout(formsPerList, numberOfSessions, this.readOtherForms(config.getFrontFile()),
+                this.readOtherForms(config.getMiddleFile()), this.readOtherForms(config.getEndFile()));
+    }
 
+    /**
+     * Reads a file of data with forms that are neither tests nor tasks (instructions, breaks and ends of session).
+     */
+    private List<Form> readOtherForms(File f) {
+        return this.readForms(f, TypeOfForm.Other);
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Creates the shuffled list of forms that corresponds to a permutation of "listOfEverything".
+     */
+    private List<Form> toShuffledList(int[] permutation) {
+        List<Form> shuffledList = new ArrayList<Form>(permutation.length);
+        for (int position : permutation) {
+            shuffledList.add(this.listOfEverything.get(position));
         }
-
-
+        return shuffledList;
     }
 
 }
@@ -0,0 +1,72 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import java.util.SplittableRandom;
+
+/**
+ * @author csarasua
+ *         Orders the forms following the rows of a balanced Latin square (Williams design).
+ *         With n forms, every form appears once in every position and follows every other form once in each block of
+ *         n participants (2n participants if n is odd, where each row is also used reversed). Participant i gets row
+ *         i modulo the number of rows, so position effects are balanced after each block instead of only on average.
+ *         The forms are relabelled with a permutation drawn from the seed, so which form gets which label is random.
+ */
+public class LatinSquareOrderingStrategy implements OrderingStrategy {
+
+    private final int numberOfForms;
+    // First row of the square: 0, 1, n-1, 2, n-2, ...
+    private final int[] firstRow;
+    // Form that corresponds to each label of the square.
+    private final int[] formOfLabel;
+
+    /**
+     * Constructor
+     *
+     * @param numberOfForms number of forms to order.
+     * @param seed          seed from which the labels of the forms are drawn.
+     */
+    public LatinSquareOrderingStrategy(int numberOfForms, long seed) {
+        this.numberOfForms = numberOfForms;
+        this.firstRow = new int[numberOfForms];
+        int low = 1;
+        int high = numberOfForms - 1;
+        for (int j = 1; j < numberOfForms; j++) {
+            this.firstRow[j] = (j % 2 == 1) ? low++ : high--;
+        }
+
+        this.formOfLabel = new int[numberOfForms];
+        for (int i = 0; i < numberOfForms; i++) {
+            this.formOfLabel[i] = i;
+        }
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = numberOfForms - 1; i > 0; i--) {
+            int other = random.nextInt(i + 1);
+            int temp = this.formOfLabel[i];
+            this.formOfLabel[i] = this.formOfLabel[other];
+            this.formOfLabel[other] = temp;
+        }
+    }
+
+    /**
+     * Number of participants after which the orders repeat.
+     */
+    public int getNumberOfRows() {
+        return this.numberOfForms % 2 == 0 ? this.numberOfForms : 2 * this.numberOfForms;
+    }
+
+    @Override
+    public int[] orderFor(long participant) {
+        int[] order = new int[this.numberOfForms];
+        if (this.numberOfForms == 0) {
+            return order;
+        }
+        int row = (int) (participant % this.getNumberOfRows());
+        int shift = row % this.numberOfForms;
+        // With an odd number of forms, the second half of the rows are the first half reversed.
+        boolean reversed = row >= this.numberOfForms;
+        for (int j = 0; j < this.numberOfForms; j++) {
+            int label = (this.firstRow[j] + shift) % this.numberOfForms;
+            order[reversed ? this.numberOfForms - 1 - j : j] = this.formOfLabel[label];
+        }
+        return order;
+    }
+}
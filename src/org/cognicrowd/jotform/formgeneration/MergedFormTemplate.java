@@ -0,0 +1,257 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.cognicrowd.jotform.client.QuestionCache;
+import org.cognicrowd.jotform.datamodel.Form;
+import org.cognicrowd.jotform.datamodel.Question;
+import org.cognicrowd.jotform.util.JsonMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * @author csarasua
+ *         Template of the payload of the merged forms, {"questions":[...]}.
+ *         All the shuffled lists contain the same forms, so the questions of each form are encoded to JSON only once,
+ *         as a block of bytes with the qid already prefixed with the id of the form. The payload of a shuffled list is
+ *         then written by copying the blocks in the order of the list, and only the "order" of each question (which
+ *         depends on the forms before it) is written per list.
+ *         The payload can also be written in chunks: the questions from one position to another of the merged form.
+ */
+public class MergedFormTemplate {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte[] START = "{\"questions\":[".getBytes(UTF8);
+    private static final byte[] END = "]}".getBytes(UTF8);
+
+    // Writes the nested attributes of the questions without flushing after each one.
+    private static final ObjectWriter ATTRIBUTE_WRITER = JsonMapper.MAPPER.writer()
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    /**
+     * Questions of one form, encoded.
+     */
+    private static final class Block {
+        // The questions separated by commas, with empty "order" values.
+        final byte[] bytes;
+        // Position in "bytes" of the start of each question.
+        final int[] questionStarts;
+        // Position in "bytes" of the (empty) order value of each question, between its quotes.
+        final int[] orderPositions;
+        // Order of each question in its own form.
+        final int[] orders;
+
+        Block(byte[] bytes, int[] questionStarts, int[] orderPositions, int[] orders) {
+            this.bytes = bytes;
+            this.questionStarts = questionStarts;
+            this.orderPositions = orderPositions;
+            this.orders = orders;
+        }
+    }
+
+    private final Map<String, Block> blockOfForm = new HashMap<String, Block>();
+
+    /**
+     * Encodes the questions of the forms.
+     *
+     * @param forms         the forms (the tests and tasks that are shuffled).
+     * @param questionCache questions of all the forms.
+     */
+    public MergedFormTemplate(Collection<Form> forms, QuestionCache questionCache) throws IOException {
+        for (Form form : forms) {
+            if (!this.blockOfForm.containsKey(form.getFormId())) {
+                this.blockOfForm.put(form.getFormId(), encode(form, questionCache.getQuestions(form.getFormId())));
+            }
+        }
+    }
+
+    /**
+     * Encodes the questions of a form, making their qid unique in the merged form: the qid is prefixed with the id of
+     * its form (each qid=1 of each individual form is aggregated into the global one). The order is left empty.
+     */
+    private static Block encode(Form form, List<Question> questions) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int[] questionStarts = new int[questions.size()];
+        int[] orderPositions = new int[questions.size()];
+        int[] orders = new int[questions.size()];
+        // The questions are written as an array (so that the generator separates them), without its brackets.
+        JsonGenerator generator = JsonMapper.MAPPER.getFactory().createGenerator(out);
+        generator.writeStartArray();
+        for (int i = 0; i < questions.size(); i++) {
+            Question question = questions.get(i);
+            generator.writeStartObject();
+            generator.flush();
+            // Positions without the opening bracket.
+            questionStarts[i] = out.size() - 2;
+            generator.writeStringField("qid", form.getFormId() + "-" + question.getQid());
+            generator.writeStringField("order", "");
+            generator.flush();
+            // Between the two quotes just written.
+            orderPositions[i] = out.size() - 2;
+            orders[i] = question.getOrder();
+            writeOptionalField(generator, "type", question.getType());
+            writeOptionalField(generator, "text", question.getText());
+            writeOptionalField(generator, "name", question.getName());
+            writeOptionalField(generator, "required", question.getRequired());
+            for (Map.Entry<String, Object> attribute : question.getOtherAttributes().entrySet()) {
+                generator.writeFieldName(attribute.getKey());
+                ATTRIBUTE_WRITER.writeValue(generator, attribute.getValue());
+            }
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+        generator.close();
+        byte[] array = out.toByteArray();
+        return new Block(Arrays.copyOfRange(array, 1, array.length - 1), questionStarts, orderPositions, orders);
+    }
+
+    private static void writeOptionalField(JsonGenerator generator, String name, String value) throws IOException {
+        if (value != null) {
+            generator.writeStringField(name, value);
+        }
+    }
+
+    /**
+     * Writes the payload of a shuffled list: the questions of its forms in the order of the list, with the order of
+     * each question shifted by the number of questions of the forms before it.
+     *
+     * @param list the shuffled list.
+     * @param out  stream to which the payload is written.
+     */
+    public void writeTo(List<Form> list, OutputStream out) throws IOException {
+        this.writeTo(list, 0, Integer.MAX_VALUE, out);
+    }
+
+    /**
+     * Writes a chunk of the payload of a shuffled list: the questions from one position to another of the merged
+     * form (with the same order as in the whole payload).
+     *
+     * @param list          the shuffled list.
+     * @param fromQuestion  position of the first question of the chunk in the merged form (inclusive).
+     * @param toQuestion    position of the last question of the chunk in the merged form (exclusive).
+     * @param out           stream to which the chunk is written.
+     */
+    public void writeTo(List<Form> list, int fromQuestion, int toQuestion, OutputStream out) throws IOException {
+        byte[] digits = new byte[11];
+        out.write(START);
+        // Counter for calculating the order (position in form) of each question.
+        int countCurrentOrder = 0;
+        boolean first = true;
+        for (Form form : list) {
+            Block block = this.blockOf(form);
+            int numberOfQuestions = block.orders.length;
+            int from = Math.max(fromQuestion - countCurrentOrder, 0);
+            int to = Math.min(toQuestion - countCurrentOrder, numberOfQuestions);
+            if (from < to) {
+                if (!first) {
+                    out.write(',');
+                }
+                first = false;
+                int copied = block.questionStarts[from];
+                for (int i = from; i < to; i++) {
+                    out.write(block.bytes, copied, block.orderPositions[i] - copied);
+                    int length = toDigits(block.orders[i] + countCurrentOrder, digits);
+                    out.write(digits, digits.length - length, length);
+                    copied = block.orderPositions[i];
+                }
+                out.write(block.bytes, copied, endOf(block, to) - copied);
+            }
+            countCurrentOrder = countCurrentOrder + numberOfQuestions;
+        }
+        out.write(END);
+    }
+
+    /**
+     * Computes the length in bytes of the payload of a shuffled list, without writing it.
+     */
+    public long lengthOf(List<Form> list) {
+        return this.lengthOf(list, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Computes the length in bytes of a chunk of the payload of a shuffled list, without writing it.
+     */
+    public long lengthOf(List<Form> list, int fromQuestion, int toQuestion) {
+        long length = START.length + END.length;
+        int countCurrentOrder = 0;
+        int writtenBlocks = 0;
+        for (Form form : list) {
+            Block block = this.blockOf(form);
+            int numberOfQuestions = block.orders.length;
+            int from = Math.max(fromQuestion - countCurrentOrder, 0);
+            int to = Math.min(toQuestion - countCurrentOrder, numberOfQuestions);
+            if (from < to) {
+                writtenBlocks++;
+                length += endOf(block, to) - block.questionStarts[from];
+                for (int i = from; i < to; i++) {
+                    length += numberOfDigits(block.orders[i] + countCurrentOrder);
+                }
+            }
+            countCurrentOrder = countCurrentOrder + numberOfQuestions;
+        }
+        return length + Math.max(0, writtenBlocks - 1);
+    }
+
+    /**
+     * Number of questions of the merged form of a shuffled list.
+     */
+    public int numberOfQuestions(List<Form> list) {
+        int numberOfQuestions = 0;
+        for (Form form : list) {
+            numberOfQuestions += this.blockOf(form).orders.length;
+        }
+        return numberOfQuestions;
+    }
+
+    /**
+     * Position in the bytes of a block of the end of the questions before "to" (without the comma that follows).
+     */
+    private static int endOf(Block block, int to) {
+        return to < block.orders.length ? block.questionStarts[to] - 1 : block.bytes.length;
+    }
+
+    private Block blockOf(Form form) {
+        Block block = this.blockOfForm.get(form.getFormId());
+        if (block == null) {
+            throw new IllegalArgumentException("The questions of form " + form.getFormId() + " are not in the template");
+        }
+        return block;
+    }
+
+    private static int numberOfDigits(int value) {
+        int digits = value < 0 ? 2 : 1;
+        long remaining = Math.abs((long) value);
+        while (remaining >= 10) {
+            remaining = remaining / 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * Writes the decimal digits of a number at the end of a buffer.
+     *
+     * @return the number of bytes written.
+     */
+    private static int toDigits(int value, byte[] buffer) {
+        int position = buffer.length;
+        long remaining = value;
+        boolean negative = remaining < 0;
+        if (negative) {
+            remaining = -remaining;
+        }
+        do {
+            buffer[--position] = (byte) ('0' + remaining % 10);
+            remaining = remaining / 10;
+        } while (remaining > 0);
+        if (negative) {
+            buffer[--position] = '-';
+        }
+        return buffer.length - position;
+    }
+}
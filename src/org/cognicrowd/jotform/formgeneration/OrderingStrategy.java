@@ -0,0 +1,19 @@
+package org.cognicrowd.jotform.formgeneration;
+
+/**
+ * @author csarasua
+ *         Decides in which order each participant sees the tests and tasks.
+ *         The forms are identified by their position in the list of forms the strategy was created for.
+ *         Implementations compute the order of a participant on its own (without retries and without looking at the
+ *         orders of other participants), so orders can be computed in parallel and recomputed at any time.
+ */
+public interface OrderingStrategy {
+
+    /**
+     * Computes the order of the forms of one participant.
+     *
+     * @param participant number of the participant (0 for "user1").
+     * @return the positions of the forms, in the order in which the participant sees them.
+     */
+    int[] orderFor(long participant);
+}
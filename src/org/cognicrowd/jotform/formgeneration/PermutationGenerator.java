@@ -0,0 +1,211 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import org.cognicrowd.jotform.util.Hashing;
+
+import java.math.BigInteger;
+import java.util.SplittableRandom;
+
+/**
+ * @author csarasua
+ *         Generates distinct permutations of the positions 0..length-1, one per participant.
+ *         Each permutation is identified by its rank in the factorial number system (Lehmer code). The rank of
+ *         participant i is obtained by applying to i a bijection of [0, length!) keyed by a seed (a Feistel network
+ *         with cycle walking). Therefore:
+ *         - the permutations of different participants are always distinct, without keeping track of the ones
+ *         already generated;
+ *         - the permutation of any participant can be recomputed on its own from (seed, i), in any order and in
+ *         parallel;
+ *         - the same seed always gives the same permutations.
+ *         A permutation of L positions costs O(L log L) while length! fits in a long (L <= 20); beyond, the ranks are
+ *         BigIntegers of O(L log L) bits, and taking the L digits of the Lehmer code out of one costs O(L^2 log L).
+ */
+public class PermutationGenerator {
+
+    // Largest number of bits of the ranks that are handled with longs instead of BigIntegers (20! fits).
+    private static final int MAX_BITS_WITH_LONG_RANKS = 62;
+    // Number of rounds of the Feistel network.
+    private static final int ROUNDS = 6;
+
+    // Number of positions of each permutation.
+    private final int length;
+    // length! (number of distinct permutations).
+    private final BigInteger numberOfPermutations;
+    // Number of bits of each half of the Feistel network.
+    private final int halfBits;
+    // Key of each round, derived from the seed.
+    private final long[] roundKeys = new long[ROUNDS];
+
+    /**
+     * Constructor
+     *
+     * @param length number of elements of each permutation.
+     * @param seed   seed from which all the permutations are derived.
+     */
+    public PermutationGenerator(int length, long seed) {
+        this.length = length;
+        this.numberOfPermutations = factorial(length);
+        // The Feistel network permutes [0, 2^(2*halfBits)), which contains [0, length!).
+        int bits = Math.max(2, this.numberOfPermutations.subtract(BigInteger.ONE).bitLength());
+        this.halfBits = (bits + 1) / 2;
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = 0; i < ROUNDS; i++) {
+            this.roundKeys[i] = random.nextLong();
+        }
+    }
+
+    public BigInteger getNumberOfPermutations() {
+        return this.numberOfPermutations;
+    }
+
+    /**
+     * Computes the permutation of one participant.
+     *
+     * @param participant number of the participant, in [0, length!).
+     * @return the positions in their new order.
+     */
+    public int[] permutationFor(long participant) {
+        if (participant < 0 || BigInteger.valueOf(participant).compareTo(this.numberOfPermutations) >= 0) {
+            throw new IllegalArgumentException("There are only " + this.numberOfPermutations + " distinct permutations of "
+                    + this.length + " elements, participant " + participant + " has none");
+        }
+        if (2 * this.halfBits <= MAX_BITS_WITH_LONG_RANKS) {
+            long bound = this.numberOfPermutations.longValue();
+            // Cycle walking: applies the network until the result falls in [0, length!).
+            long rank = participant;
+            do {
+                rank = this.feistel(rank);
+            } while (rank >= bound);
+            return decode(rank, this.length);
+        }
+        BigInteger rank = BigInteger.valueOf(participant);
+        do {
+            rank = this.feistel(rank);
+        } while (rank.compareTo(this.numberOfPermutations) >= 0);
+        return decode(rank, this.length);
+    }
+
+    /**
+     * Feistel network on [0, 2^(2*halfBits)) with ranks as longs.
+     */
+    private long feistel(long value) {
+        long mask = (1L << this.halfBits) - 1;
+        long left = value >>> this.halfBits;
+        long right = value & mask;
+        for (long roundKey : this.roundKeys) {
+            long newRight = (left ^ Hashing.mix(roundKey ^ right)) & mask;
+            left = right;
+            right = newRight;
+        }
+        return (left << this.halfBits) | right;
+    }
+
+    /**
+     * Feistel network on [0, 2^(2*halfBits)) with ranks as BigIntegers.
+     */
+    private BigInteger feistel(BigInteger value) {
+        BigInteger left = value.shiftRight(this.halfBits);
+        BigInteger right = value.subtract(left.shiftLeft(this.halfBits));
+        for (long roundKey : this.roundKeys) {
+            BigInteger newRight = left.xor(this.roundFunction(roundKey, right));
+            left = right;
+            right = newRight;
+        }
+        return left.shiftLeft(this.halfBits).or(right);
+    }
+
+    /**
+     * Pseudo-random function of halfBits bits of a half of the Feistel network.
+     */
+    private BigInteger roundFunction(long roundKey, BigInteger half) {
+        long hash = roundKey;
+        for (byte b : half.toByteArray()) {
+            hash = hash * 31 + b;
+        }
+        SplittableRandom random = new SplittableRandom(Hashing.mix(hash));
+        byte[] output = new byte[(this.halfBits + 7) / 8];
+        for (int i = 0; i < output.length; i += 8) {
+            long bits = random.nextLong();
+            for (int j = i; j < Math.min(i + 8, output.length); j++) {
+                output[j] = (byte) bits;
+                bits = bits >>> 8;
+            }
+        }
+        // Clears the bits above halfBits.
+        output[0] &= (byte) (0xFF >>> (output.length * 8 - this.halfBits));
+        return new BigInteger(1, output);
+    }
+
+    /**
+     * Decodes a rank into the corresponding permutation of the positions 0..length-1, in O(length log length).
+     *
+     * @param rank   rank of the permutation in [0, length!).
+     * @param length number of positions.
+     * @return the permutation.
+     */
+    static int[] decode(long rank, int length) {
+        int[] lehmerCode = new int[length];
+        for (int radix = 1; radix <= length; radix++) {
+            lehmerCode[length - radix] = (int) (rank % radix);
+            rank = rank / radix;
+        }
+        return decodeLehmerCode(lehmerCode);
+    }
+
+    /**
+     * Decodes a rank that does not fit in a long, in O(length^2 log length): each of the length digits is the
+     * remainder of a division of a number of O(length log length) bits.
+     */
+    static int[] decode(BigInteger rank, int length) {
+        int[] lehmerCode = new int[length];
+        for (int radix = 1; radix <= length; radix++) {
+            BigInteger[] quotientAndRemainder = rank.divideAndRemainder(BigInteger.valueOf(radix));
+            lehmerCode[length - radix] = quotientAndRemainder[1].intValue();
+            rank = quotientAndRemainder[0];
+        }
+        return decodeLehmerCode(lehmerCode);
+    }
+
+    /**
+     * Decodes a Lehmer code: digit i is the index of the chosen position among the positions that are still left.
+     * The positions left are counted in a Fenwick tree, so each digit is decoded in O(log length).
+     */
+    static int[] decodeLehmerCode(int[] lehmerCode) {
+        int length = lehmerCode.length;
+        // left[j] (from 1) is the number of positions left in [j - lowest bit of j, j), all of them at first.
+        int[] left = new int[length + 1];
+        for (int j = 1; j <= length; j++) {
+            left[j]++;
+            int parent = j + (j & -j);
+            if (parent <= length) {
+                left[parent] += left[j];
+            }
+        }
+        int highestStep = Integer.highestOneBit(Math.max(1, length));
+        int[] permutation = new int[length];
+        for (int i = 0; i < length; i++) {
+            // Descends to the last position with at most lehmerCode[i] positions left up to it: the chosen one is next.
+            int index = lehmerCode[i];
+            int position = 0;
+            for (int step = highestStep; step > 0; step >>= 1) {
+                int next = position + step;
+                if (next <= length && left[next] <= index) {
+                    position = next;
+                    index -= left[next];
+                }
+            }
+            permutation[i] = position;
+            for (int j = position + 1; j <= length; j += j & -j) {
+                left[j]--;
+            }
+        }
+        return permutation;
+    }
+
+    static BigInteger factorial(int n) {
+        BigInteger result = BigInteger.ONE;
+        for (int i = 2; i <= n; i++) {
+            result = result.multiply(BigInteger.valueOf(i));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,118 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import org.cognicrowd.jotform.util.Hashing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author csarasua
+ *         Index of permutations (shuffled lists encoded as arrays of form positions) for duplicate detection.
+ *         Each permutation is keyed by a 64-bit fingerprint in an open-addressing table; the permutations are only
+ *         compared element by element when their fingerprints are equal.
+ */
+public class PermutationIndex {
+
+    // Fingerprints of the stored permutations.
+    private long[] fingerprints;
+    // Position + 1 in "permutations" of the permutation kept in each slot, 0 means the slot is free.
+    private int[] entries;
+    private int mask;
+
+    private final List<int[]> permutations = new ArrayList<int[]>();
+
+    public PermutationIndex() {
+        this(16);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param expectedSize number of permutations that are expected to be added, used to pre-size the table.
+     */
+    public PermutationIndex(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(8, expectedSize * 2) - 1) << 1;
+        this.fingerprints = new long[capacity];
+        this.entries = new int[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Adds a permutation to the index.
+     *
+     * @param permutation the permutation, which must not be modified afterwards.
+     * @return true if the permutation was not yet in the index.
+     */
+    public boolean add(int[] permutation) {
+        long fingerprint = fingerprint(permutation);
+        int slot = this.slotOf(permutation, fingerprint);
+        if (this.entries[slot] != 0) {
+            return false;
+        }
+        this.permutations.add(permutation);
+        this.fingerprints[slot] = fingerprint;
+        this.entries[slot] = this.permutations.size();
+        if (this.permutations.size() * 2 > this.fingerprints.length) {
+            this.rehash();
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether a permutation has been already added.
+     */
+    public boolean contains(int[] permutation) {
+        return this.entries[this.slotOf(permutation, fingerprint(permutation))] != 0;
+    }
+
+    public int size() {
+        return this.permutations.size();
+    }
+
+    /**
+     * Gets the slot holding the permutation, or the free slot where it would be inserted.
+     */
+    private int slotOf(int[] permutation, long fingerprint) {
+        int slot = (int) fingerprint & this.mask;
+        while (this.entries[slot] != 0) {
+            // Exact comparison only for a fingerprint hit.
+            if (this.fingerprints[slot] == fingerprint
+                    && Arrays.equals(this.permutations.get(this.entries[slot] - 1), permutation)) {
+                return slot;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        return slot;
+    }
+
+    private void rehash() {
+        long[] oldFingerprints = this.fingerprints;
+        int[] oldEntries = this.entries;
+        int capacity = oldFingerprints.length * 2;
+        this.fingerprints = new long[capacity];
+        this.entries = new int[capacity];
+        this.mask = capacity - 1;
+        for (int i = 0; i < oldEntries.length; i++) {
+            if (oldEntries[i] != 0) {
+                int slot = (int) oldFingerprints[i] & this.mask;
+                while (this.entries[slot] != 0) {
+                    slot = (slot + 1) & this.mask;
+                }
+                this.fingerprints[slot] = oldFingerprints[i];
+                this.entries[slot] = oldEntries[i];
+            }
+        }
+    }
+
+    /**
+     * Computes the 64-bit fingerprint of a permutation.
+     */
+    public static long fingerprint(int[] permutation) {
+        long hash = 0x9E3779B97F4A7C15L * (permutation.length + 1);
+        for (int position : permutation) {
+            hash = Hashing.mix(hash ^ (position + 0x632BE59BD9B4E019L));
+        }
+        return hash;
+    }
+}
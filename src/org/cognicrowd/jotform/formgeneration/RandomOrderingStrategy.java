@@ -0,0 +1,28 @@
+package org.cognicrowd.jotform.formgeneration;
+
+/**
+ * @author csarasua
+ *         Gives each participant a distinct random permutation of the forms (see PermutationGenerator).
+ */
+public class RandomOrderingStrategy implements OrderingStrategy {
+
+    private final PermutationGenerator generator;
+
+    /**
+     * Constructor
+     *
+     * @param numberOfForms number of forms to order.
+     * @param seed          seed from which the permutations are derived.
+     */
+    public RandomOrderingStrategy(int numberOfForms, long seed) {
+        this.generator = new PermutationGenerator(numberOfForms, seed);
+    }
+
+    /**
+     * @throws IllegalArgumentException if there are fewer distinct permutations than participants.
+     */
+    @Override
+    public int[] orderFor(long participant) {
+        return this.generator.permutationFor(participant);
+    }
+}
@@ -0,0 +1,323 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import org.cognicrowd.jotform.datamodel.Form;
+import org.cognicrowd.jotform.util.Hashing;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * @author csarasua
+ *         Append-only journal of the serialisation of the shuffled lists, so that a run that dies halfway can be
+ *         resumed without creating again the forms that were already created.
+ *         Each participant has their own merged form (so that the submissions of a form are those of one participant),
+ *         even if their list is the same as the list of another participant: the progress is kept by list number, and
+ *         only applies while the list of the participant has the same fingerprint.
+ *         Each line is one record, with tab-separated fields:
+ *         - "SEED  seed": the seed of the shuffled lists (FormManager.setSeed), written once by the first run; the
+ *         runs that resume the serialisation derive their lists from the same seed, so they find the forms created
+ *         for them.
+ *         - "CREATED  fingerprint  formId  listNumber  id1,id2,...": the merged form of a list has been created; it
+ *         replaces any form created before for the same list number.
+ *         - "CHUNK  fingerprint  formId  from  to": the questions from position "from" to "to" (exclusive) have been
+ *         added to the merged form (when the questions are uploaded in chunks).
+ *         - "QUESTIONS  fingerprint  formId": the questions of the list have been added to the merged form.
+ *         Records are appended through a FileChannel and forced to disk in batches ("journal.syncbatch" records), and
+ *         always when the journal is closed.
+ */
+public class SerialisationJournal implements Closeable {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static final String SEED = "SEED";
+    static final String CREATED = "CREATED";
+    static final String CHUNK = "CHUNK";
+    static final String QUESTIONS = "QUESTIONS";
+
+    /**
+     * Progress of the shuffled list of one participant.
+     */
+    public static class Entry {
+        private final long fingerprint;
+        private final String formId;
+        private final int listNumber;
+        private final List<String> formIds;
+        private volatile boolean questionsAdded;
+        // Positions of the questions already added to the merged form (guarded by the entry).
+        private final BitSet uploadedQuestions = new BitSet();
+
+        Entry(long fingerprint, String formId, int listNumber, List<String> formIds) {
+            this.fingerprint = fingerprint;
+            this.formId = formId;
+            this.listNumber = listNumber;
+            this.formIds = formIds;
+        }
+
+        public long getFingerprint() {
+            return fingerprint;
+        }
+
+        // Id of the merged form created in JotForm.
+        public String getFormId() {
+            return formId;
+        }
+
+        // Number of the participant of the list (1 for "user1").
+        public int getListNumber() {
+            return listNumber;
+        }
+
+        // Ids of the forms of the list, in order.
+        public List<String> getFormIds() {
+            return formIds;
+        }
+
+        public boolean isQuestionsAdded() {
+            return questionsAdded;
+        }
+
+        /**
+         * Checks whether any chunk of questions has been added to the merged form.
+         */
+        public synchronized boolean hasUploadedChunks() {
+            return !this.uploadedQuestions.isEmpty();
+        }
+
+        /**
+         * Gets the chunks of questions that have not been added to the merged form yet.
+         *
+         * @param numberOfQuestions number of questions of the merged form.
+         * @param chunkSize         maximum number of questions of each chunk (0 or less: no limit).
+         * @return the chunks, as {from, to (exclusive)} positions in the merged form.
+         */
+        public synchronized List<int[]> pendingChunks(int numberOfQuestions, int chunkSize) {
+            List<int[]> chunks = new ArrayList<int[]>();
+            int from = this.uploadedQuestions.nextClearBit(0);
+            while (from < numberOfQuestions) {
+                // End of the gap of questions not uploaded.
+                int nextUploaded = this.uploadedQuestions.nextSetBit(from);
+                int end = nextUploaded < 0 ? numberOfQuestions : Math.min(numberOfQuestions, nextUploaded);
+                for (int start = from; start < end; start += chunkSize > 0 ? chunkSize : end) {
+                    chunks.add(new int[]{start, chunkSize > 0 ? Math.min(end, start + chunkSize) : end});
+                }
+                from = this.uploadedQuestions.nextClearBit(end);
+            }
+            return chunks;
+        }
+
+        private synchronized void markUploaded(int from, int to) {
+            this.uploadedQuestions.set(from, to);
+        }
+    }
+
+    private final FileChannel channel;
+    private final int syncBatch;
+    // Records written since the last time the channel was forced to disk.
+    private int pendingRecords = 0;
+
+    // Seed of the shuffled lists, or null if it has not been recorded.
+    private volatile Long seed;
+    // Progress of each list, by list number.
+    private final ConcurrentNavigableMap<Integer, Entry> entries = new ConcurrentSkipListMap<Integer, Entry>();
+
+    /**
+     * Opens the journal, reading the records of previous runs (if the file exists).
+     *
+     * @param f         the journal file.
+     * @param syncBatch number of records after which the file is forced to disk.
+     */
+    public SerialisationJournal(File f, int syncBatch) throws IOException {
+        this.syncBatch = Math.max(1, syncBatch);
+        if (f.exists()) {
+            this.read(f);
+        }
+        this.channel = FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void read(File f) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(f), UTF8));
+        // The CHUNK and QUESTIONS records refer to the entry of their form.
+        Map<String, Entry> entryOfForm = new HashMap<String, Entry>();
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t");
+                // A line cut by a crash is ignored.
+                if (fields[0].equals(SEED) && fields.length == 2 && this.seed == null) {
+                    this.seed = Long.parseLong(fields[1]);
+                } else if (fields[0].equals(CREATED) && fields.length == 5) {
+                    long fingerprint = Long.parseUnsignedLong(fields[1], 16);
+                    List<String> formIds = Collections.unmodifiableList(Arrays.asList(fields[4].split(",")));
+                    Entry entry = new Entry(fingerprint, fields[2], Integer.parseInt(fields[3]), formIds);
+                    this.entries.put(entry.listNumber, entry);
+                    entryOfForm.put(entry.formId, entry);
+                } else if (fields[0].equals(CHUNK) && fields.length == 5) {
+                    Entry entry = entryOfForm.get(fields[2]);
+                    if (entry != null) {
+                        entry.markUploaded(Integer.parseInt(fields[3]), Integer.parseInt(fields[4]));
+                    }
+                } else if (fields[0].equals(QUESTIONS) && fields.length == 3) {
+                    Entry entry = entryOfForm.get(fields[2]);
+                    if (entry != null) {
+                        entry.questionsAdded = true;
+                    }
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the seed recorded in a journal, without opening it for writing.
+     *
+     * @param f the journal file.
+     * @return the seed, or null if the file does not exist or has no seed.
+     */
+    public static Long readSeed(File f) throws IOException {
+        if (!f.exists()) {
+            return null;
+        }
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(f), UTF8));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields[0].equals(SEED) && fields.length == 2) {
+                    return Long.parseLong(fields[1]);
+                }
+            }
+            return null;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Gets the seed of the shuffled lists, or null if it has not been recorded.
+     */
+    public Long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Records the seed of the shuffled lists. Only the first seed of the journal is kept.
+     */
+    public void recordSeed(long seed) throws IOException {
+        if (this.seed == null) {
+            this.seed = seed;
+            this.append(new StringBuilder().append(SEED).append('\t').append(seed));
+        }
+    }
+
+    /**
+     * Gets the progress of the list of a participant.
+     *
+     * @param listNumber number of the list (of the participant).
+     * @param list       the shuffled list.
+     * @return the progress, or null if the merged form of the list has not been created (or was created for another
+     * list of the participant).
+     */
+    public Entry get(int listNumber, List<Form> list) {
+        Entry entry = this.entries.get(listNumber);
+        return entry != null && entry.fingerprint == fingerprint(list) ? entry : null;
+    }
+
+    /**
+     * Gets the progress of all the lists in the journal, by list number.
+     */
+    public Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(this.entries.values());
+    }
+
+    /**
+     * Records that the merged form of a list has been created.
+     *
+     * @param list       the shuffled list.
+     * @param formId     id of the created form.
+     * @param listNumber number of the list (of the participant).
+     * @return the progress of the list.
+     */
+    public Entry recordCreated(List<Form> list, String formId, int listNumber) throws IOException {
+        long fingerprint = fingerprint(list);
+        List<String> formIds = new ArrayList<String>(list.size());
+        StringBuilder record = new StringBuilder();
+        record.append(CREATED).append('\t').append(Long.toHexString(fingerprint)).append('\t').append(formId)
+                .append('\t').append(listNumber).append('\t');
+        for (Form form : list) {
+            if (!formIds.isEmpty()) {
+                record.append(',');
+            }
+            record.append(form.getFormId());
+            formIds.add(form.getFormId());
+        }
+        Entry entry = new Entry(fingerprint, formId, listNumber, Collections.unmodifiableList(formIds));
+        this.entries.put(listNumber, entry);
+        this.append(record);
+        return entry;
+    }
+
+    /**
+     * Records that a chunk of the questions of a list has been added to its merged form.
+     *
+     * @param entry the progress of the list.
+     * @param from  position of the first question of the chunk (inclusive).
+     * @param to    position of the last question of the chunk (exclusive).
+     */
+    public void recordChunkUploaded(Entry entry, int from, int to) throws IOException {
+        entry.markUploaded(from, to);
+        this.append(new StringBuilder().append(CHUNK).append('\t').append(Long.toHexString(entry.fingerprint))
+                .append('\t').append(entry.formId).append('\t').append(from).append('\t').append(to));
+    }
+
+    /**
+     * Records that the questions of a list have been added to its merged form.
+     */
+    public void recordQuestionsAdded(Entry entry) throws IOException {
+        entry.questionsAdded = true;
+        this.append(new StringBuilder().append(QUESTIONS).append('\t').append(Long.toHexString(entry.fingerprint))
+                .append('\t').append(entry.formId));
+    }
+
+    private synchronized void append(StringBuilder record) throws IOException {
+        ByteBuffer buffer = UTF8.encode(record.append('\n').toString());
+        while (buffer.hasRemaining()) {
+            this.channel.write(buffer);
+        }
+        this.pendingRecords++;
+        if (this.pendingRecords >= this.syncBatch) {
+            this.channel.force(false);
+            this.pendingRecords = 0;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.channel.isOpen()) {
+            this.channel.force(false);
+            this.channel.close();
+        }
+    }
+
+    /**
+     * Computes the 64-bit fingerprint of a list of forms from the ids of its forms.
+     */
+    public static long fingerprint(List<Form> list) {
+        long hash = 0x9E3779B97F4A7C15L * (list.size() + 1);
+        for (Form form : list) {
+            String formId = form.getFormId();
+            long formHash = 0xCBF29CE484222325L;
+            for (int i = 0; i < formId.length(); i++) {
+                formHash = (formHash ^ formId.charAt(i)) * 0x100000001B3L;
+            }
+            hash = Hashing.mix(hash ^ formHash);
+        }
+        return hash;
+    }
+}
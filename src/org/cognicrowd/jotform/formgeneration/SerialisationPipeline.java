@@ -0,0 +1,339 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.cognicrowd.jotform.client.JotFormClient;
+import org.cognicrowd.jotform.datamodel.Form;
+import org.cognicrowd.jotform.metrics.Metrics;
+import org.cognicrowd.jotform.util.ConfigurationSnapshot;
+import org.cognicrowd.jotform.util.LogSampler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author csarasua
+ *         Serialises shuffled lists in three stages, each with its own threads, connected by bounded queues:
+ *         - create form: creates the merged form of a list (POST /form), or reuses the one of a previous run;
+ *         - assemble payload: writes the questions of the list, in chunks, from the MergedFormTemplate;
+ *         - upload questions: adds each chunk to its form (PUT /form/{id}/questions), the chunks of one form at the
+ *         same time as those of others.
+ *         While the forms of some lists are being created, the payloads of others are assembled and uploaded. A stage
+ *         that gets ahead blocks when the queue of the next one is full, so no more than "pipeline.queuecapacity"
+ *         items wait between two stages (that is, the assembled payloads held in memory are bounded).
+ *         The items processed by each stage, its throughput and the depth of its queue are kept in the Metrics.
+ *         Each step is recorded in the journal, as by a serialisation list by list.
+ */
+public class SerialisationPipeline {
+
+    private static final Log log = LogFactory.getLog(SerialisationPipeline.class);
+
+    static final String CREATE_FORM = "create form";
+    static final String ASSEMBLE_PAYLOAD = "assemble payload";
+    static final String UPLOAD_QUESTIONS = "upload questions";
+
+    private static final ContentType JSON = ContentType.create("application/json", "UTF-8");
+
+    /**
+     * A shuffled list on its way through the pipeline.
+     */
+    private static class Job {
+        final List<Form> list;
+        final int countList;
+        SerialisationJournal.Entry entry;
+        // Chunks of the list that have not been uploaded yet.
+        final AtomicInteger pendingChunks = new AtomicInteger();
+        // Whether the chunks are recorded: not needed if all the questions are sent in one request.
+        boolean recordChunks;
+        // Whether a chunk failed: the first upload thread that sets it reports the failure of the list.
+        final AtomicBoolean failed = new AtomicBoolean();
+
+        Job(List<Form> list, int countList) {
+            this.list = list;
+            this.countList = countList;
+        }
+    }
+
+    /**
+     * An assembled chunk of the questions of a list.
+     */
+    private static class Chunk {
+        final Job job;
+        final int fromQuestion;
+        final int toQuestion;
+        final byte[] payload;
+
+        Chunk(Job job, int fromQuestion, int toQuestion, byte[] payload) {
+            this.job = job;
+            this.fromQuestion = fromQuestion;
+            this.toQuestion = toQuestion;
+            this.payload = payload;
+        }
+    }
+
+    // Markers of the end of the items of a queue, one per thread of the stage that takes from it.
+    private static final Job END_OF_JOBS = new Job(null, 0);
+    private static final Chunk END_OF_CHUNKS = new Chunk(null, 0, 0, null);
+
+    private final JotFormClient client;
+    private final MergedFormTemplate template;
+    private final SerialisationJournal journal;
+    // Maximum number of questions per request, 0 for all the questions of a form in one request.
+    private final int chunkSize;
+    private final int createThreads;
+    private final int assembleThreads;
+    private final int uploadThreads;
+    private final BlockingQueue<Job> createQueue;
+    private final BlockingQueue<Job> assembleQueue;
+    private final BlockingQueue<Chunk> uploadQueue;
+    private final Metrics metrics = Metrics.getInstance();
+    // Lists whose serialisation is logged.
+    private final LogSampler sampler;
+    // Failures that are logged; all of them are counted in "failedLists".
+    private final LogSampler failureSampler;
+    private final AtomicInteger failedLists = new AtomicInteger();
+
+    /**
+     * Constructor
+     *
+     * @param client   client of the JotForm API.
+     * @param template questions of all the forms in the lists, encoded.
+     * @param journal  journal of the serialisation.
+     * @param config   configuration with the threads of each stage and the capacity of the queues.
+     */
+    public SerialisationPipeline(JotFormClient client, MergedFormTemplate template, SerialisationJournal journal, ConfigurationSnapshot config) {
+        this.client = client;
+        this.template = template;
+        this.journal = journal;
+        this.chunkSize = config.getUploadChunkSize();
+        this.createThreads = Math.max(1, config.getSerialisationThreads());
+        this.assembleThreads = Math.max(1, config.getPipelineAssembleThreads());
+        this.uploadThreads = Math.max(1, config.getUploadThreads());
+        int capacity = Math.max(1, config.getPipelineQueueCapacity());
+        this.createQueue = new ArrayBlockingQueue<Job>(capacity);
+        this.assembleQueue = new ArrayBlockingQueue<Job>(capacity);
+        this.uploadQueue = new ArrayBlockingQueue<Chunk>(capacity);
+        this.sampler = new LogSampler(config.getLogSampleRate());
+        this.failureSampler = new LogSampler(config.getLogSampleRate());
+        this.metrics.registerStageQueue(CREATE_FORM, this.createQueue);
+        this.metrics.registerStageQueue(ASSEMBLE_PAYLOAD, this.assembleQueue);
+        this.metrics.registerStageQueue(UPLOAD_QUESTIONS, this.uploadQueue);
+    }
+
+    /**
+     * Serialises the lists and waits until all of them have gone through the pipeline. The lists that fail (after
+     * the retries of the client, or with any other exception) are counted, logged one in "log.samplerate", and left
+     * pending in the journal for the next run.
+     *
+     * @param lists the shuffled lists, by list number (the participant, also used for the title of the form).
+     * @throws InterruptedException if interrupted, in which case the stages are stopped.
+     */
+    public void run(Map<Integer, List<Form>> lists) throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(this.createThreads + this.assembleThreads + this.uploadThreads);
+        try {
+            final AtomicInteger creating = new AtomicInteger(this.createThreads);
+            final AtomicInteger assembling = new AtomicInteger(this.assembleThreads);
+            for (int i = 0; i < this.createThreads; i++) {
+                workers.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        createForms(creating);
+                    }
+                });
+            }
+            for (int i = 0; i < this.assembleThreads; i++) {
+                workers.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        assemblePayloads(assembling);
+                    }
+                });
+            }
+            for (int i = 0; i < this.uploadThreads; i++) {
+                workers.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        uploadQuestions();
+                    }
+                });
+            }
+            workers.shutdown();
+
+            // Blocks while the create stage is behind.
+            for (Map.Entry<Integer, List<Form>> list : lists.entrySet()) {
+                this.createQueue.put(new Job(list.getValue(), list.getKey()));
+            }
+            endQueue(this.createQueue, END_OF_JOBS, this.createThreads);
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            if (this.failedLists.get() > 0) {
+                log.warn(this.failedLists.get() + " of " + lists.size() + " lists failed and are left pending for the next run");
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Create stage: creates the form of each list, or reuses the one created by a previous run. A reused form only
+     * gets its questions if it does not have any yet (the record of a previous addition may have been lost), or
+     * only the chunks of questions that were not added if they were uploaded in chunks.
+     * The last thread of the stage to finish (in any way) tells the assemble stage that there are no more lists.
+     */
+    private void createForms(AtomicInteger running) {
+        try {
+            for (Job job = this.createQueue.take(); job != END_OF_JOBS; job = this.createQueue.take()) {
+                long start = System.nanoTime();
+                try {
+                    SerialisationJournal.Entry entry = this.journal.get(job.countList, job.list);
+                    if (entry == null) {
+                        String newCreatedId = this.client.createForm(" Form" + job.countList);
+                        if (newCreatedId == null || newCreatedId.isEmpty()) {
+                            throw new IOException("the response of post form has no form id");
+                        }
+                        job.entry = this.journal.recordCreated(job.list, newCreatedId, job.countList);
+                    } else if (!entry.hasUploadedChunks() && !this.client.getQuestions(entry.getFormId()).isEmpty()) {
+                        this.journal.recordQuestionsAdded(entry);
+                        job = null;
+                    } else {
+                        job.entry = entry;
+                    }
+                } catch (Exception e) {
+                    this.failed(job, CREATE_FORM, e);
+                    job = null;
+                }
+                this.metrics.recordStageItem(CREATE_FORM, System.nanoTime() - start);
+                if (job != null) {
+                    this.assembleQueue.put(job);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (running.decrementAndGet() == 0) {
+                endQueue(this.assembleQueue, END_OF_JOBS, this.assembleThreads);
+            }
+        }
+    }
+
+    /**
+     * Assemble stage: writes the payload of each chunk of questions of a list that is still pending.
+     * The last thread of the stage to finish (in any way) tells the upload stage that there are no more chunks.
+     */
+    private void assemblePayloads(AtomicInteger running) {
+        try {
+            for (Job job = this.assembleQueue.take(); job != END_OF_JOBS; job = this.assembleQueue.take()) {
+                long start = System.nanoTime();
+                List<Chunk> chunks = new ArrayList<Chunk>();
+                try {
+                    int numberOfQuestions = this.template.numberOfQuestions(job.list);
+                    List<int[]> pending = job.entry.pendingChunks(numberOfQuestions, this.chunkSize);
+                    job.recordChunks = pending.size() > 1 || job.entry.hasUploadedChunks();
+                    job.pendingChunks.set(pending.size());
+                    for (int[] chunk : pending) {
+                        ByteArrayOutputStream payload = new ByteArrayOutputStream((int) this.template.lengthOf(job.list, chunk[0], chunk[1]));
+                        this.template.writeTo(job.list, chunk[0], chunk[1], payload);
+                        chunks.add(new Chunk(job, chunk[0], chunk[1], payload.toByteArray()));
+                    }
+                    if (pending.isEmpty()) {
+                        // All the chunks were uploaded by a previous run, which stopped before recording the form.
+                        this.completed(job);
+                    }
+                } catch (Exception e) {
+                    this.failed(job, ASSEMBLE_PAYLOAD, e);
+                    chunks.clear();
+                }
+                this.metrics.recordStageItem(ASSEMBLE_PAYLOAD, System.nanoTime() - start);
+                for (Chunk chunk : chunks) {
+                    this.uploadQueue.put(chunk);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (running.decrementAndGet() == 0) {
+                endQueue(this.uploadQueue, END_OF_CHUNKS, this.uploadThreads);
+            }
+        }
+    }
+
+    /**
+     * Upload stage: adds each chunk of questions to its form. A list is recorded as serialised once all its chunks
+     * have been added; if any of them fails, the others are still recorded, so only the failed ones are sent again
+     * by the next run.
+     */
+    private void uploadQuestions() {
+        try {
+            for (Chunk chunk = this.uploadQueue.take(); chunk != END_OF_CHUNKS; chunk = this.uploadQueue.take()) {
+                long start = System.nanoTime();
+                Job job = chunk.job;
+                try {
+                    this.client.putQuestions(job.entry.getFormId(), new ByteArrayEntity(chunk.payload, JSON));
+                    this.metrics.getChunkLatency().record(System.nanoTime() - start);
+                    this.metrics.recordBytesUploaded(chunk.payload.length);
+                    if (job.recordChunks) {
+                        this.journal.recordChunkUploaded(job.entry, chunk.fromQuestion, chunk.toQuestion);
+                    }
+                } catch (Exception e) {
+                    if (job.failed.compareAndSet(false, true)) {
+                        this.failed(job, UPLOAD_QUESTIONS, e);
+                    }
+                }
+                if (job.pendingChunks.decrementAndGet() == 0 && !job.failed.get()) {
+                    this.completed(job);
+                }
+                this.metrics.recordStageItem(UPLOAD_QUESTIONS, System.nanoTime() - start);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void completed(Job job) {
+        try {
+            this.journal.recordQuestionsAdded(job.entry);
+        } catch (IOException e) {
+            this.failed(job, UPLOAD_QUESTIONS, e);
+            return;
+        }
+        if (log.isDebugEnabled() && this.sampler.sample()) {
+            log.debug("list " + job.countList + " serialised in form " + job.entry.getFormId());
+        }
+    }
+
+    /**
+     * Counts a list that failed in a stage (it is left pending in the journal), and logs the failure if it is
+     * sampled.
+     */
+    private void failed(Job job, String stage, Exception e) {
+        this.failedLists.incrementAndGet();
+        if (log.isWarnEnabled() && this.failureSampler.sample()) {
+            log.warn("list " + job.countList + " failed in " + stage + ": " + e, e);
+        }
+    }
+
+    /**
+     * Puts the end markers of a queue. If the thread is interrupted, the pipeline is being stopped and the threads
+     * that take from the queue are interrupted too.
+     */
+    private static <T> void endQueue(BlockingQueue<T> queue, T end, int threads) {
+        try {
+            for (int i = 0; i < threads; i++) {
+                queue.put(end);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import org.cognicrowd.jotform.datamodel.Form;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author csarasua
+ *         Where the instructions, breaks and ends of session go in the decorated lists of a number of forms.
+ *         The forms of a list are split in sessions whose sizes differ at most by one (the first forms % sessions
+ *         sessions get one form more). A decorated list is:
+ *         - all the front forms (instructions);
+ *         - for each session: the first half of its forms, all the middle forms (break), the rest of its forms, and
+ *         all the end forms (end of session).
+ *         A session with a single form has no break, and a session without forms (more sessions than forms) is left
+ *         out.
+ *         The layout is computed once; each list is then decorated by copying the decoration and placing its forms
+ *         at the precomputed positions of one array.
+ */
+public class SessionLayout {
+
+    private final int formsPerList;
+    private final int numberOfSessions;
+    private final List<Form> frontForms;
+    private final List<Form> middleForms;
+    private final List<Form> endForms;
+
+    // Decorated list with the decoration in place and null in the positions of the forms of the shuffled list.
+    private final Form[] decoration;
+    // Position in the decorated list of each form of the shuffled list.
+    private final int[] positions;
+
+    /**
+     * Constructor
+     *
+     * @param formsPerList     number of forms of each shuffled list.
+     * @param numberOfSessions the number of sessions in which the experiment should be split.
+     * @param frontForms       forms with the instructions.
+     * @param middleForms      forms for the break.
+     * @param endForms         forms for the end of session.
+     * @throws IllegalArgumentException if the number of sessions is not positive.
+     */
+    public SessionLayout(int formsPerList, int numberOfSessions, List<Form> frontForms, List<Form> middleForms, List<Form> endForms) {
+        if (numberOfSessions < 1) {
+            throw new IllegalArgumentException("The number of sessions must be positive: " + numberOfSessions);
+        }
+        this.formsPerList = formsPerList;
+        this.numberOfSessions = numberOfSessions;
+        this.frontForms = frontForms;
+        this.middleForms = middleForms;
+        this.endForms = endForms;
+
+        int sessions = Math.min(numberOfSessions, formsPerList);
+        int sizeOfSession = sessions == 0 ? 0 : formsPerList / sessions;
+        int remainder = sessions == 0 ? 0 : formsPerList % sessions;
+        int sessionsWithBreak = sizeOfSession > 1 ? sessions : remainder;
+        int size = frontForms.size() + formsPerList + sessionsWithBreak * middleForms.size() + sessions * endForms.size();
+
+        this.decoration = new Form[size];
+        this.positions = new int[formsPerList];
+        int position = this.place(0, frontForms);
+        int form = 0;
+        for (int session = 0; session < sessions; session++) {
+            int formsOfSession = sizeOfSession + (session < remainder ? 1 : 0);
+            int formsBeforeBreak = formsOfSession / 2;
+            for (int i = 0; i < formsOfSession; i++) {
+                if (i == formsBeforeBreak && formsBeforeBreak > 0) {
+                    position = this.place(position, middleForms);
+                }
+                this.positions[form++] = position++;
+            }
+            position = this.place(position, endForms);
+        }
+    }
+
+    private int place(int position, List<Form> forms) {
+        for (Form form : forms) {
+            this.decoration[position++] = form;
+        }
+        return position;
+    }
+
+    public int getFormsPerList() {
+        return formsPerList;
+    }
+
+    /**
+     * Gets the front, middle and end forms, which are added to all the lists.
+     */
+    public List<Form> getDecorationForms() {
+        List<Form> forms = new ArrayList<Form>(this.frontForms);
+        forms.addAll(this.middleForms);
+        forms.addAll(this.endForms);
+        return forms;
+    }
+
+    /**
+     * Gets the number of forms of each decorated list.
+     */
+    public int getSize() {
+        return this.decoration.length;
+    }
+
+    /**
+     * Decorates a shuffled list. A list with a number of forms other than the one of the layout is decorated with a
+     * layout of its own.
+     *
+     * @param shuffledList the shuffled list.
+     * @return the decorated list.
+     */
+    public List<Form> apply(List<Form> shuffledList) {
+        if (shuffledList.size() != this.formsPerList) {
+            return new SessionLayout(shuffledList.size(), this.numberOfSessions, this.frontForms, this.middleForms, this.endForms).apply(shuffledList);
+        }
+        Form[] decorated = this.decoration.clone();
+        for (int i = 0; i < this.positions.length; i++) {
+            decorated[this.positions[i]] = shuffledList.get(i);
+        }
+        return Arrays.asList(decorated);
+    }
+}
@@ -0,0 +1,275 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import org.cognicrowd.jotform.datamodel.Form;
+import org.cognicrowd.jotform.datamodel.TypeOfForm;
+import org.cognicrowd.jotform.util.Hashing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * @author csarasua
+ *         Updates the shuffled lists of a previous run to a new catalogue of tests and tasks, changing as little as
+ *         possible, so that the participants who already started keep their assignments:
+ *         - the forms that are no longer in the catalogue are removed;
+ *         - if every participant gets all the forms, each new form is spliced into every list at position
+ *         (participant + offset of the form) mod (length + 1), so that across participants it appears at every
+ *         position equally often;
+ *         - if each participant gets a sample of the forms, the removed forms are replaced, at their positions, by the
+ *         least exposed forms of the same type (tests or tasks) that the participant does not have yet; the new forms
+ *         start with no exposure, so they are chosen first. The type of a removed form is learnt from the previous
+ *         lists that lack only tests or only tasks; where it is not known, the freed positions go first to the type
+ *         with more forms missing.
+ *         The lists that do not need any change are left as they are.
+ */
+class ShuffledListUpdater {
+
+    // All tests followed by all tasks of the new catalogue.
+    private final List<Form> listOfEverything;
+    private final int numberOfTests;
+    // Position of each form (by id) in "listOfEverything".
+    private final Map<String, Integer> positionOfId = new HashMap<String, Integer>();
+    // Ids of the instructions, breaks and ends of session, which are not part of the shuffled lists.
+    private final Set<String> decorationIds;
+    // Number of tests and tasks of each participant, 0 for all of them.
+    private final int testsPerParticipant;
+    private final int tasksPerParticipant;
+    private final long seed;
+    // Number of lists in which each form appears (only kept with sampling).
+    private final int[] exposure;
+    // Ids of the forms of the previous lists that are not in the new catalogue.
+    private final Set<String> removedIds = new TreeSet<String>();
+    // Type of the removed forms, as far as it is known (only kept with sampling).
+    private final Map<String, TypeOfForm> typeOfRemoved = new HashMap<String, TypeOfForm>();
+
+    /**
+     * Constructor
+     *
+     * @param listOfEverything    all the tests followed by all the tasks of the new catalogue.
+     * @param numberOfTests       number of tests at the beginning of listOfEverything.
+     * @param testsPerParticipant number of tests of each participant, 0 for all of them.
+     * @param tasksPerParticipant number of tasks of each participant, 0 for all of them.
+     * @param decorationIds       ids of the forms added around the shuffled lists (instructions, breaks...).
+     * @param seed                seed from which the positions of the new forms are derived.
+     */
+    ShuffledListUpdater(List<Form> listOfEverything, int numberOfTests, int testsPerParticipant, int tasksPerParticipant, Set<String> decorationIds, long seed) {
+        this.listOfEverything = listOfEverything;
+        this.numberOfTests = numberOfTests;
+        this.testsPerParticipant = testsPerParticipant;
+        this.tasksPerParticipant = tasksPerParticipant;
+        this.decorationIds = decorationIds;
+        this.seed = seed;
+        this.exposure = new int[listOfEverything.size()];
+        for (int i = 0; i < listOfEverything.size(); i++) {
+            this.positionOfId.put(listOfEverything.get(i).getFormId(), i);
+        }
+    }
+
+    /**
+     * Whether each participant gets a sample of the forms, in which case the exposure of the forms in the previous
+     * lists has to be counted (countExposure) before updating them.
+     */
+    boolean isSampling() {
+        return this.testsPerParticipant > 0 || this.tasksPerParticipant > 0;
+    }
+
+    /**
+     * Counts the forms of a previous list in the exposure of the forms, and learns the type of its removed forms if
+     * the list lacks only tests or only tasks.
+     *
+     * @param formIds ids of the forms of the list, in order (including the decoration, which is ignored).
+     */
+    void countExposure(List<String> formIds) {
+        List<String> removed = new ArrayList<String>();
+        int tests = 0;
+        int tasks = 0;
+        for (String id : formIds) {
+            if (this.decorationIds.contains(id)) {
+                continue;
+            }
+            Integer position = this.positionOfId.get(id);
+            if (position == null) {
+                removed.add(id);
+                continue;
+            }
+            this.exposure[position]++;
+            if (position < this.numberOfTests) {
+                tests++;
+            } else {
+                tasks++;
+            }
+        }
+        TypeOfForm type = null;
+        if (this.missingTests(tests) > 0 && this.missingTasks(tasks) <= 0) {
+            type = TypeOfForm.Test;
+        } else if (this.missingTasks(tasks) > 0 && this.missingTests(tests) <= 0) {
+            type = TypeOfForm.Task;
+        }
+        if (type != null) {
+            for (String id : removed) {
+                this.typeOfRemoved.put(id, type);
+            }
+        }
+    }
+
+    /**
+     * Updates the list of a participant to the new catalogue.
+     *
+     * @param participant number of the participant (0 for "user1").
+     * @param formIds     ids of the forms of the previous list, in order (including the decoration, which is ignored).
+     * @return the new shuffled list (without decoration), or null if the previous list does not change.
+     */
+    List<Form> update(long participant, List<String> formIds) {
+        List<Form> list = new ArrayList<Form>(formIds.size() + 1);
+        boolean[] present = new boolean[this.listOfEverything.size()];
+        // Positions in "list" where the removed forms were, and the ids of those forms.
+        List<Integer> freed = new ArrayList<Integer>();
+        List<String> freedIds = new ArrayList<String>();
+        int tests = 0;
+        int tasks = 0;
+        for (String id : formIds) {
+            if (this.decorationIds.contains(id)) {
+                continue;
+            }
+            Integer position = this.positionOfId.get(id);
+            if (position == null) {
+                this.removedIds.add(id);
+                freed.add(list.size());
+                freedIds.add(id);
+                continue;
+            }
+            list.add(this.listOfEverything.get(position));
+            present[position] = true;
+            if (position < this.numberOfTests) {
+                tests++;
+            } else {
+                tasks++;
+            }
+        }
+        boolean changed = !freed.isEmpty();
+
+        if (!this.isSampling()) {
+            for (int position = 0; position < this.listOfEverything.size(); position++) {
+                if (!present[position]) {
+                    list.add(this.balancedPosition(participant, this.listOfEverything.get(position), list.size()), this.listOfEverything.get(position));
+                    changed = true;
+                }
+            }
+            return changed ? list : null;
+        }
+
+        List<Integer> testReplacements = new ArrayList<Integer>();
+        List<Integer> taskReplacements = new ArrayList<Integer>();
+        this.chooseLeastExposed(0, this.numberOfTests, this.missingTests(tests), present, participant, testReplacements);
+        this.chooseLeastExposed(this.numberOfTests, this.listOfEverything.size(), this.missingTasks(tasks), present, participant, taskReplacements);
+        // Each freed position gets a replacement of the type of the removed form; the positions of forms of unknown
+        // type go to the tests missing besides those of the removed tests, and then to the tasks.
+        int unknownTests = testReplacements.size();
+        for (String id : freedIds) {
+            if (this.typeOfRemoved.get(id) == TypeOfForm.Test) {
+                unknownTests--;
+            }
+        }
+        int inserted = 0;
+        for (int i = 0; i < freed.size(); i++) {
+            TypeOfForm type = this.typeOfRemoved.get(freedIds.get(i));
+            if (type == null) {
+                type = unknownTests > 0 ? TypeOfForm.Test : TypeOfForm.Task;
+                if (type == TypeOfForm.Test) {
+                    unknownTests--;
+                }
+            }
+            List<Integer> replacements = type == TypeOfForm.Test ? testReplacements : taskReplacements;
+            if (!replacements.isEmpty()) {
+                list.add(freed.get(i) + inserted, this.listOfEverything.get(replacements.remove(0)));
+                inserted++;
+            }
+        }
+        // The other missing forms go at balanced positions.
+        testReplacements.addAll(taskReplacements);
+        for (int position : testReplacements) {
+            list.add(this.balancedPosition(participant, this.listOfEverything.get(position), list.size()), this.listOfEverything.get(position));
+            changed = true;
+        }
+        return changed ? list : null;
+    }
+
+    /**
+     * Number of tests that a list with the given number of tests of the catalogue lacks.
+     */
+    private int missingTests(int tests) {
+        return (this.testsPerParticipant > 0 ? this.testsPerParticipant : this.numberOfTests) - tests;
+    }
+
+    /**
+     * Number of tasks that a list with the given number of tasks of the catalogue lacks.
+     */
+    private int missingTasks(int tasks) {
+        int numberOfTasks = this.listOfEverything.size() - this.numberOfTests;
+        return (this.tasksPerParticipant > 0 ? this.tasksPerParticipant : numberOfTasks) - tasks;
+    }
+
+    /**
+     * Positions in "listOfEverything" of the forms of a previous list that does not change (see update).
+     *
+     * @param formIds ids of the forms of the list, in order (including the decoration, which is ignored).
+     */
+    int[] positionsOf(List<String> formIds) {
+        int[] positions = new int[formIds.size()];
+        int length = 0;
+        for (String id : formIds) {
+            Integer position = this.positionOfId.get(id);
+            if (position != null) {
+                positions[length++] = position;
+            }
+        }
+        return Arrays.copyOf(positions, length);
+    }
+
+    /**
+     * Ids of the forms found in the previous lists that are not in the new catalogue (nor decoration), so far.
+     */
+    Set<String> getRemovedIds() {
+        return this.removedIds;
+    }
+
+    /**
+     * Chooses the least exposed forms in [from, to) of "listOfEverything" that are not in the list yet, starting the
+     * search at a different form for each participant so that ties are spread.
+     */
+    private void chooseLeastExposed(int from, int to, int count, boolean[] present, long participant, List<Integer> chosen) {
+        int size = to - from;
+        if (size <= 0) {
+            return;
+        }
+        for (int c = 0; c < count; c++) {
+            int best = -1;
+            for (int i = 0; i < size; i++) {
+                int position = from + (int) ((participant + i) % size);
+                if (!present[position] && (best < 0 || this.exposure[position] < this.exposure[best])) {
+                    best = position;
+                }
+            }
+            if (best < 0) {
+                return;
+            }
+            present[best] = true;
+            this.exposure[best]++;
+            chosen.add(best);
+        }
+    }
+
+    /**
+     * Position at which a new form is spliced into the list of a participant: consecutive participants get
+     * consecutive positions, from an offset that depends on the form.
+     */
+    private int balancedPosition(long participant, Form form, int length) {
+        long offset = Hashing.mix(this.seed ^ form.getFormId().hashCode()) >>> 1;
+        return (int) ((participant % (length + 1) + offset % (length + 1)) % (length + 1));
+    }
+}
@@ -0,0 +1,178 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import com.google.common.io.CountingOutputStream;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import org.cognicrowd.jotform.datamodel.Form;
+import org.cognicrowd.jotform.metrics.Metrics;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author csarasua
+ *         Writes the CSV file with the forms of each user: one row per user of shape "userid", "form1", ..., "formn",
+ *         where each form is the URL of a form in JotForm.
+ *         Rows are written one at a time through one buffered writer, so they do not need to be kept in memory.
+ *         The rows go to a temporary file that only replaces the final file once all of them have been written.
+ *         The same rows can also be written to a binary AssignmentStore, which is committed together with the CSV file.
+ *         The bytes written to the files are recorded in the Metrics.
+ */
+public class ShuffledResultWriter implements Closeable {
+
+    static final String DEFAULT_JOTFORM_URL_BASE = "http://form.jotformpro.com/form/";
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final File f;
+    private final File temp;
+    private final CSVPrinter printer;
+    // Bytes that have reached the file, and the ones already recorded in the metrics.
+    private final CountingOutputStream counter;
+    private long recordedBytes = 0;
+    // Binary copy of the rows, or null.
+    private final AssignmentStoreWriter store;
+
+    // Number of the last user written.
+    private int count = 0;
+    private boolean committed = false;
+
+    /**
+     * Constructor. Creates the temporary file and writes the header.
+     *
+     * @param f the CSV file to write.
+     */
+    public ShuffledResultWriter(File f) throws IOException {
+        this(f, null);
+    }
+
+    /**
+     * Constructor. Creates the temporary files and writes the header.
+     *
+     * @param f     the CSV file to write.
+     * @param store the binary file to which the rows are also written, or null.
+     */
+    public ShuffledResultWriter(File f, File store) throws IOException {
+        this.f = f;
+        this.store = store != null ? new AssignmentStoreWriter(store) : null;
+        this.temp = new File(f.getPath() + ".tmp");
+        this.counter = new CountingOutputStream(new FileOutputStream(this.temp));
+        Writer out = new BufferedWriter(new OutputStreamWriter(this.counter, Charset.forName("UTF-8")), BUFFER_SIZE);
+        this.printer = new CSVPrinter(out, CSVFormat.DEFAULT);
+        this.printer.printRecord("Forms for users");
+    }
+
+    /**
+     * Writes the row of the next user.
+     *
+     * @param listOfOneUser the forms of the user, in order.
+     */
+    public void writeRow(List<Form> listOfOneUser) throws IOException {
+        //write one list of shuffled lists per line - one line is one user
+        this.count++;
+        this.printer.print("user" + this.count);
+        for (Form userFormI : listOfOneUser) {
+            this.printer.print(DEFAULT_JOTFORM_URL_BASE + userFormI.getFormId());
+        }
+        this.printer.println();
+        this.recordBytes();
+        if (this.store != null) {
+            List<String> formIds = new ArrayList<String>(listOfOneUser.size());
+            for (Form userFormI : listOfOneUser) {
+                formIds.add(userFormI.getFormId());
+            }
+            this.store.writeRow(formIds);
+        }
+    }
+
+    /**
+     * Writes the row of the next user with the forms it had in a previous file (read with formIdsOf).
+     *
+     * @param formIds the ids of the forms of the user, in order.
+     */
+    public void copyRow(List<String> formIds) throws IOException {
+        this.count++;
+        this.printer.print("user" + this.count);
+        for (String formId : formIds) {
+            this.printer.print(DEFAULT_JOTFORM_URL_BASE + formId);
+        }
+        this.printer.println();
+        this.recordBytes();
+        if (this.store != null) {
+            this.store.writeRow(formIds);
+        }
+    }
+
+    /**
+     * Reads the ids of the forms of a row (after the user) of a file written by this class, or by the first versions
+     * of the application, which quoted each cell with ' and ended each row with a comma: 'user1','http://.../id',...,
+     * The id is the last part of the URL of each cell; empty cells are skipped.
+     *
+     * @param row the row, parsed with CSVFormat.DEFAULT.
+     * @return the ids of the forms, in order.
+     * @throws IOException if a cell is not the URL of a form (e.g. the file has another format).
+     */
+    static List<String> formIdsOf(CSVRecord row) throws IOException {
+        List<String> formIds = new ArrayList<String>(row.size() - 1);
+        for (int i = 1; i < row.size(); i++) {
+            String cell = row.get(i).trim();
+            if (cell.length() >= 2 && cell.startsWith("'") && cell.endsWith("'")) {
+                cell = cell.substring(1, cell.length() - 1);
+            }
+            if (cell.isEmpty()) {
+                continue;
+            }
+            String formId = cell.substring(cell.lastIndexOf('/') + 1);
+            if (formId.isEmpty() || !formId.chars().allMatch(Character::isDigit)) {
+                throw new IOException("Row " + row.getRecordNumber() + ", cell " + (i + 1) + " is not the URL of a form: " + row.get(i));
+            }
+            formIds.add(formId);
+        }
+        return formIds;
+    }
+
+    private void recordBytes() {
+        long bytes = this.counter.getCount();
+        if (bytes != this.recordedBytes) {
+            Metrics.getInstance().recordBytesWritten(bytes - this.recordedBytes);
+            this.recordedBytes = bytes;
+        }
+    }
+
+    /**
+     * Closes the temporary files and moves them in place of the final files. Both files are written before either is
+     * moved, and the CSV file, from which the lists are read back (updateShuffledLists), is moved first: the store is
+     * only left behind the CSV file if its own move fails.
+     */
+    public void commit() throws IOException {
+        this.printer.close();
+        this.recordBytes();
+        if (this.store != null) {
+            Metrics.getInstance().recordBytesWritten(this.store.stage());
+        }
+        Files.move(this.temp.toPath(), this.f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (this.store != null) {
+            this.store.commit();
+        }
+        this.committed = true;
+    }
+
+    /**
+     * Discards the temporary file unless the writer has been committed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!this.committed) {
+            this.printer.close();
+            this.temp.delete();
+            if (this.store != null) {
+                this.store.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import org.cognicrowd.jotform.datamodel.Form;
+import org.cognicrowd.jotform.datamodel.TypeOfForm;
+import org.cognicrowd.jotform.util.Hashing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author csarasua
+ *         Chooses the forms of each participant when participants do not get every test and task: k tests out of the
+ *         pool of tests and m tasks out of the pool of tasks, each pool drawn by a BalancedSampler so that every form is
+ *         shown a near-equal number of times.
+ *         The forms of a participant depend on the ones drawn for the participants before, so participants are drawn in
+ *         order, in blocks of BLOCK_SIZE participants. Only the draws of the last block are kept, and, for each block,
+ *         a copy of the two BalancedSamplers at its start (O(poolSize), instead of BLOCK_SIZE * sampleSize draws), from
+ *         which the draws of an earlier block are drawn again when one of its participants is asked for; the last
+ *         block drawn again is also kept. So:
+ *         - asking for a participant of a block that is kept costs O(sampleSize);
+ *         - asking for a later one first draws the participants in between, at O(sampleSize log poolSize) each;
+ *         - asking for one of an earlier block draws that block again, at O(BLOCK_SIZE * sampleSize log poolSize).
+ */
+public class StratifiedSampler {
+
+    private final int numberOfTests;
+    private final int numberOfTasks;
+    private final int testsPerParticipant;
+    private final int tasksPerParticipant;
+    private final long seed;
+
+    // Number of participants of each block.
+    private static final int BLOCK_SIZE = 4096;
+
+    private final BalancedSampler testSampler;
+    private final BalancedSampler taskSampler;
+    // Participant whose forms are drawn next.
+    private long nextParticipant = 0;
+    // Copies of the samplers at the start of each block: the test sampler of block b at 2b, the task sampler at 2b+1.
+    private final List<BalancedSampler> checkpoints = new ArrayList<BalancedSampler>();
+    // Draws of the block of the last participant drawn: participant p at [(p % BLOCK_SIZE) * sampleSize, ...).
+    private final int[] lastBlock;
+    // Earlier block drawn again for the last participant asked for in it, and its number (-1 if none).
+    private int[] replayedBlock;
+    private long replayedBlockNumber = -1;
+
+    /**
+     * Constructor
+     *
+     * @param numberOfTests       number of tests in the pool (the first forms of "listOfEverything").
+     * @param numberOfTasks       number of tasks in the pool (the forms after the tests).
+     * @param testsPerParticipant number of tests of each participant.
+     * @param tasksPerParticipant number of tasks of each participant.
+     * @param seed                seed from which the samples are derived.
+     * @throws IllegalArgumentException if a pool has fewer forms than each participant needs.
+     */
+    public StratifiedSampler(int numberOfTests, int numberOfTasks, int testsPerParticipant, int tasksPerParticipant, long seed) {
+        this.numberOfTests = numberOfTests;
+        this.numberOfTasks = numberOfTasks;
+        this.testsPerParticipant = testsPerParticipant;
+        this.tasksPerParticipant = tasksPerParticipant;
+        this.seed = seed;
+        this.testSampler = new BalancedSampler(this.numberOfTests, this.testsPerParticipant, Hashing.mix(this.seed));
+        this.taskSampler = new BalancedSampler(this.numberOfTasks, this.tasksPerParticipant, Hashing.mix(~this.seed));
+        this.lastBlock = new int[BLOCK_SIZE * this.getSampleSize()];
+    }
+
+    /**
+     * Number of forms of each participant.
+     */
+    public int getSampleSize() {
+        return this.testsPerParticipant + this.tasksPerParticipant;
+    }
+
+    /**
+     * Types of the slots of the forms of a participant (the tests first, then the tasks), so that an ordering strategy
+     * can be created for them. The forms have no id.
+     */
+    public List<Form> getSlots() {
+        List<Form> slots = new ArrayList<Form>(this.getSampleSize());
+        for (int i = 0; i < this.testsPerParticipant; i++) {
+            slots.add(new Form(null, null, TypeOfForm.Test));
+        }
+        for (int i = 0; i < this.tasksPerParticipant; i++) {
+            slots.add(new Form(null, null, TypeOfForm.Task));
+        }
+        return slots;
+    }
+
+    /**
+     * Gets the forms of a participant, drawing them (and those of the participants before) if they have not been
+     * drawn yet, or drawing their block again if it is no longer kept.
+     *
+     * @param participant number of the participant (0 for "user1").
+     * @return the positions in "listOfEverything" of the tests and then the tasks of the participant.
+     */
+    public synchronized int[] positionsFor(long participant) {
+        int sampleSize = this.getSampleSize();
+        long blockNumber = participant / BLOCK_SIZE;
+        int[] block;
+        if (participant >= this.nextParticipant || blockNumber == (this.nextParticipant - 1) / BLOCK_SIZE) {
+            while (this.nextParticipant <= participant) {
+                if (this.nextParticipant % BLOCK_SIZE == 0) {
+                    // The draws of the previous block are dropped; they can be drawn again from here.
+                    this.checkpoints.add(new BalancedSampler(this.testSampler));
+                    this.checkpoints.add(new BalancedSampler(this.taskSampler));
+                }
+                this.draw(this.testSampler, this.taskSampler, this.lastBlock, (int) (this.nextParticipant % BLOCK_SIZE) * sampleSize);
+                this.nextParticipant++;
+            }
+            block = this.lastBlock;
+        } else {
+            if (blockNumber != this.replayedBlockNumber) {
+                BalancedSampler tests = new BalancedSampler(this.checkpoints.get((int) (2 * blockNumber)));
+                BalancedSampler tasks = new BalancedSampler(this.checkpoints.get((int) (2 * blockNumber + 1)));
+                if (this.replayedBlock == null) {
+                    this.replayedBlock = new int[BLOCK_SIZE * sampleSize];
+                }
+                for (int i = 0; i < BLOCK_SIZE; i++) {
+                    this.draw(tests, tasks, this.replayedBlock, i * sampleSize);
+                }
+                this.replayedBlockNumber = blockNumber;
+            }
+            block = this.replayedBlock;
+        }
+        int offset = (int) (participant % BLOCK_SIZE) * sampleSize;
+        return Arrays.copyOfRange(block, offset, offset + sampleSize);
+    }
+
+    /**
+     * Draws the tests and the tasks of the next participant of two samplers into a block of draws.
+     */
+    private void draw(BalancedSampler testSampler, BalancedSampler taskSampler, int[] block, int offset) {
+        int[] tests = testSampler.sample();
+        int[] tasks = taskSampler.sample();
+        System.arraycopy(tests, 0, block, offset, tests.length);
+        for (int i = 0; i < tasks.length; i++) {
+            block[offset + tests.length + i] = this.numberOfTests + tasks[i];
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import org.cognicrowd.jotform.datamodel.Form;
+
+import java.util.List;
+
+/**
+ * @author csarasua
+ *         The available ordering strategies.
+ */
+public enum TypeOfOrdering {
+
+    // A distinct random permutation per participant.
+    Random,
+    // Balanced Latin square (Williams design): every form appears equally often in each position and right after
+    // each other form.
+    LatinSquare,
+    // Random order in which the less numerous type of form (tests or tasks) is spread evenly among the other one.
+    Constrained;
+
+    /**
+     * Creates the strategy for a list of forms.
+     *
+     * @param forms the forms to order.
+     * @param seed  seed from which the orders are derived.
+     * @return the strategy.
+     */
+    public OrderingStrategy create(List<Form> forms, long seed) {
+        switch (this) {
+            case LatinSquare:
+                return new LatinSquareOrderingStrategy(forms.size(), seed);
+            case Constrained:
+                return new ConstrainedOrderingStrategy(forms, seed);
+            default:
+                return new RandomOrderingStrategy(forms.size(), seed);
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package org.cognicrowd.jotform.metrics;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cognicrowd.jotform.util.ConfigurationManager;
+import org.cognicrowd.jotform.util.LatencyHistogram;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author csarasua
+ *         Counters and latency histograms of the application: requests to each endpoint of the JotForm API, retries,
+ *         hits of the question cache, shuffled lists generated, bytes written, and the items processed by and waiting
+ *         for each stage of the serialisation pipeline.
+ *         The metrics are registered in JMX and, every "metrics.summaryperiod" milliseconds (if there was any
+ *         activity), summarised in one line of the log.
+ *         Recording a value is a few atomic operations, so it can be done in the hot paths by any thread.
+ */
+public class Metrics implements MetricsMXBean {
+
+    private static final Log log = LogFactory.getLog(Metrics.class);
+
+    static final String OBJECT_NAME = "org.cognicrowd.jotform:type=Metrics";
+
+    static private Metrics singleton;
+
+    /**
+     * Metrics of one endpoint.
+     */
+    private static class Endpoint {
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong retries = new AtomicLong();
+        final LatencyHistogram latency = new LatencyHistogram();
+    }
+
+    /**
+     * Metrics of one stage of the serialisation pipeline.
+     */
+    private static class Stage {
+        final AtomicLong items = new AtomicLong();
+        final AtomicLong firstItemNanos = new AtomicLong();
+        final LatencyHistogram latency = new LatencyHistogram();
+        // Queue of the items waiting for the stage.
+        volatile Collection<?> queue;
+    }
+
+    private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<String, Endpoint>();
+    private final ConcurrentMap<String, Stage> stages = new ConcurrentHashMap<String, Stage>();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final AtomicLong listsGenerated = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong bytesUploaded = new AtomicLong();
+    // Latency of each chunk of questions, including its retries.
+    private final LatencyHistogram chunkLatency = new LatencyHistogram();
+
+    // When the first list was generated, for the number of lists per second.
+    private final AtomicLong firstListNanos = new AtomicLong();
+    // Activity at the time of the previous summary.
+    private long lastSummaryActivity = 0;
+
+    private Metrics() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            log.warn("the metrics could not be registered in JMX", e);
+        }
+        long period = ConfigurationManager.getInstance().getSnapshot().getMetricsSummaryPeriod();
+        if (period > 0) {
+            ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "metrics-summary");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            timer.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    logSummaryIfActive();
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public static synchronized Metrics getInstance() {
+
+        if (singleton == null) {
+
+            singleton = new Metrics();
+
+        }
+        return singleton;
+    }
+
+    /**
+     * Records one request to an endpoint of the API.
+     *
+     * @param endpoint name of the endpoint.
+     * @param nanos    time until the response (or the failure).
+     * @param success  whether the request succeeded.
+     */
+    public void recordCall(String endpoint, long nanos, boolean success) {
+        Endpoint metrics = this.endpointOf(endpoint);
+        metrics.calls.incrementAndGet();
+        metrics.latency.record(nanos);
+        if (!success) {
+            metrics.errors.incrementAndGet();
+        }
+    }
+
+    public void recordRetry(String endpoint) {
+        this.endpointOf(endpoint).retries.incrementAndGet();
+    }
+
+    public void recordCacheHits(int hits) {
+        this.cacheHits.addAndGet(hits);
+    }
+
+    public void recordCacheMisses(int misses) {
+        this.cacheMisses.addAndGet(misses);
+    }
+
+    public void recordListsGenerated(int lists) {
+        this.firstListNanos.compareAndSet(0, System.nanoTime());
+        this.listsGenerated.addAndGet(lists);
+    }
+
+    public void recordBytesWritten(long bytes) {
+        this.bytesWritten.addAndGet(bytes);
+    }
+
+    public void recordBytesUploaded(long bytes) {
+        this.bytesUploaded.addAndGet(bytes);
+    }
+
+    public LatencyHistogram getChunkLatency() {
+        return chunkLatency;
+    }
+
+    /**
+     * Registers the queue of the items waiting for a stage of the pipeline, whose size is its queue depth.
+     */
+    public void registerStageQueue(String stage, Collection<?> queue) {
+        this.stageOf(stage).queue = queue;
+    }
+
+    /**
+     * Records one item processed by a stage of the pipeline.
+     *
+     * @param stage name of the stage.
+     * @param nanos time spent on the item.
+     */
+    public void recordStageItem(String stage, long nanos) {
+        Stage metrics = this.stageOf(stage);
+        metrics.firstItemNanos.compareAndSet(0, System.nanoTime() - nanos);
+        metrics.items.incrementAndGet();
+        metrics.latency.record(nanos);
+    }
+
+    private Stage stageOf(String stage) {
+        Stage metrics = this.stages.get(stage);
+        if (metrics == null) {
+            Stage newMetrics = new Stage();
+            metrics = this.stages.putIfAbsent(stage, newMetrics);
+            if (metrics == null) {
+                metrics = newMetrics;
+            }
+        }
+        return metrics;
+    }
+
+    private Endpoint endpointOf(String endpoint) {
+        Endpoint metrics = this.endpoints.get(endpoint);
+        if (metrics == null) {
+            Endpoint newMetrics = new Endpoint();
+            metrics = this.endpoints.putIfAbsent(endpoint, newMetrics);
+            if (metrics == null) {
+                metrics = newMetrics;
+            }
+        }
+        return metrics;
+    }
+
+    @Override
+    public long getApiCalls() {
+        long calls = 0;
+        for (Endpoint metrics : this.endpoints.values()) {
+            calls += metrics.calls.get();
+        }
+        return calls;
+    }
+
+    @Override
+    public long getApiErrors() {
+        long errors = 0;
+        for (Endpoint metrics : this.endpoints.values()) {
+            errors += metrics.errors.get();
+        }
+        return errors;
+    }
+
+    @Override
+    public long getRetries() {
+        long retries = 0;
+        for (Endpoint metrics : this.endpoints.values()) {
+            retries += metrics.retries.get();
+        }
+        return retries;
+    }
+
+    @Override
+    public Map<String, Long> getCallsPerEndpoint() {
+        Map<String, Long> calls = new TreeMap<String, Long>();
+        for (Map.Entry<String, Endpoint> endpoint : this.endpoints.entrySet()) {
+            calls.put(endpoint.getKey(), endpoint.getValue().calls.get());
+        }
+        return calls;
+    }
+
+    @Override
+    public Map<String, Double> getP50MillisPerEndpoint() {
+        return this.percentilePerEndpoint(50);
+    }
+
+    @Override
+    public Map<String, Double> getP99MillisPerEndpoint() {
+        return this.percentilePerEndpoint(99);
+    }
+
+    private Map<String, Double> percentilePerEndpoint(double percentile) {
+        Map<String, Double> latencies = new TreeMap<String, Double>();
+        for (Map.Entry<String, Endpoint> endpoint : this.endpoints.entrySet()) {
+            latencies.put(endpoint.getKey(), endpoint.getValue().latency.getPercentileMillis(percentile));
+        }
+        return latencies;
+    }
+
+    @Override
+    public double getQuestionCacheHitRate() {
+        long hits = this.cacheHits.get();
+        long total = hits + this.cacheMisses.get();
+        return total == 0 ? 0 : 100.0 * hits / total;
+    }
+
+    @Override
+    public long getListsGenerated() {
+        return this.listsGenerated.get();
+    }
+
+    @Override
+    public double getListsPerSecond() {
+        long first = this.firstListNanos.get();
+        if (first == 0) {
+            return 0;
+        }
+        return this.listsGenerated.get() / Math.max(1e-3, (System.nanoTime() - first) / 1e9);
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return this.bytesWritten.get();
+    }
+
+    @Override
+    public long getBytesUploaded() {
+        return this.bytesUploaded.get();
+    }
+
+    @Override
+    public double getChunkP50Millis() {
+        return this.chunkLatency.getPercentileMillis(50);
+    }
+
+    @Override
+    public double getChunkP99Millis() {
+        return this.chunkLatency.getPercentileMillis(99);
+    }
+
+    @Override
+    public Map<String, Long> getItemsPerStage() {
+        Map<String, Long> items = new TreeMap<String, Long>();
+        for (Map.Entry<String, Stage> stage : this.stages.entrySet()) {
+            items.put(stage.getKey(), stage.getValue().items.get());
+        }
+        return items;
+    }
+
+    @Override
+    public Map<String, Double> getItemsPerSecondPerStage() {
+        Map<String, Double> throughput = new TreeMap<String, Double>();
+        for (Map.Entry<String, Stage> stage : this.stages.entrySet()) {
+            throughput.put(stage.getKey(), itemsPerSecond(stage.getValue()));
+        }
+        return throughput;
+    }
+
+    private static double itemsPerSecond(Stage stage) {
+        long first = stage.firstItemNanos.get();
+        return first == 0 ? 0 : stage.items.get() / Math.max(1e-3, (System.nanoTime() - first) / 1e9);
+    }
+
+    @Override
+    public Map<String, Integer> getQueueDepthPerStage() {
+        Map<String, Integer> depths = new TreeMap<String, Integer>();
+        for (Map.Entry<String, Stage> stage : this.stages.entrySet()) {
+            depths.put(stage.getKey(), queueDepth(stage.getValue()));
+        }
+        return depths;
+    }
+
+    private static int queueDepth(Stage stage) {
+        Collection<?> queue = stage.queue;
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * One line with all the metrics, e.g.
+     * "api calls=120 errors=2 retries=2 [post form: 60 calls p50=80.1ms p99=200.3ms] ... cache hit rate=100.0%
+     * lists=80 (1200.5/s) written=10240B uploaded=204800B chunks p50=90.2ms p99=210.0ms".
+     */
+    @Override
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append("api calls=").append(this.getApiCalls()).append(" errors=").append(this.getApiErrors())
+                .append(" retries=").append(this.getRetries());
+        for (Map.Entry<String, Endpoint> endpoint : new TreeMap<String, Endpoint>(this.endpoints).entrySet()) {
+            LatencyHistogram latency = endpoint.getValue().latency;
+            summary.append(String.format(" [%s: %d calls p50=%.1fms p99=%.1fms]", endpoint.getKey(),
+                    endpoint.getValue().calls.get(), latency.getPercentileMillis(50), latency.getPercentileMillis(99)));
+        }
+        summary.append(String.format(" cache hit rate=%.1f%% lists=%d (%.1f/s) written=%dB uploaded=%dB",
+                this.getQuestionCacheHitRate(), this.getListsGenerated(), this.getListsPerSecond(),
+                this.getBytesWritten(), this.getBytesUploaded()));
+        if (this.chunkLatency.getCount() > 0) {
+            summary.append(String.format(" chunks p50=%.1fms p99=%.1fms", this.getChunkP50Millis(), this.getChunkP99Millis()));
+        }
+        for (Map.Entry<String, Stage> stage : new TreeMap<String, Stage>(this.stages).entrySet()) {
+            summary.append(String.format(" [%s: %d items %.1f/s p50=%.1fms queue=%d]", stage.getKey(),
+                    stage.getValue().items.get(), itemsPerSecond(stage.getValue()),
+                    stage.getValue().latency.getPercentileMillis(50), queueDepth(stage.getValue())));
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Logs the summary if anything has been recorded since the previous one.
+     */
+    synchronized void logSummaryIfActive() {
+        long activity = this.getApiCalls() + this.getListsGenerated() + this.getBytesWritten();
+        if (activity != this.lastSummaryActivity) {
+            this.lastSummaryActivity = activity;
+            log.info(this.getSummary());
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.cognicrowd.jotform.metrics;
+
+import java.util.Map;
+
+/**
+ * @author csarasua
+ *         Metrics of the generation and serialisation of the shuffled lists, as exposed through JMX
+ *         (org.cognicrowd.jotform:type=Metrics).
+ */
+public interface MetricsMXBean {
+
+    // Requests sent to the JotForm API (including the retries), and the ones that failed.
+    long getApiCalls();
+
+    long getApiErrors();
+
+    long getRetries();
+
+    Map<String, Long> getCallsPerEndpoint();
+
+    Map<String, Double> getP50MillisPerEndpoint();
+
+    Map<String, Double> getP99MillisPerEndpoint();
+
+    // Percentage of the forms whose questions were already in the question cache.
+    double getQuestionCacheHitRate();
+
+    long getListsGenerated();
+
+    double getListsPerSecond();
+
+    // Bytes of the CSV files of shuffled lists, and of the questions sent to JotForm.
+    long getBytesWritten();
+
+    long getBytesUploaded();
+
+    double getChunkP50Millis();
+
+    double getChunkP99Millis();
+
+    // Items processed by each stage of the serialisation pipeline, per second, and waiting in the queue of each stage.
+    Map<String, Long> getItemsPerStage();
+
+    Map<String, Double> getItemsPerSecondPerStage();
+
+    Map<String, Integer> getQueueDepthPerStage();
+
+    String getSummary();
+}
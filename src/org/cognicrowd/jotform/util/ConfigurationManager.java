@@ -1,53 +1,162 @@
 package org.cognicrowd.jotform.util;
 
-import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.PropertiesConfiguration;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * @author csarasua
+ *         Publishes the configuration of config.properties (in the working directory, or the file of the system
+ *         property "jotform.config") as an immutable ConfigurationSnapshot.
+ *         The current snapshot is kept in a volatile field, so reading it never blocks. When config.properties changes
+ *         (unless "config.watch" is false), the file is read again and a new snapshot replaces the old one; the code
+ *         that gets the snapshot for each request (e.g. the JotFormClient) picks up the new values, such as the
+ *         requests per second, without pausing. The values overridden with setProperty are kept across reloads, until clearProperty.
  */
 public class ConfigurationManager {
 
-    private Configuration config;
-
-    static private ConfigurationManager singleton;
+    private static final Log log = LogFactory.getLog(ConfigurationManager.class);
 
-    private ConfigurationManager() {
-
-        try {
+    private final File f;
+    private volatile ConfigurationSnapshot snapshot;
+    // Values overridden for the rest of the run.
+    private final Map<String, Object> overrides = new LinkedHashMap<String, Object>();
+    // Whether config.properties is watched ("config.watch").
+    private volatile boolean watchEnabled = true;
 
-            String workingDir = System.getProperty("user.dir");
-            File f = new File(workingDir + "/config.properties");
-            config = new PropertiesConfiguration(f);
+    ConfigurationManager(File f) {
+        this.f = f.getAbsoluteFile();
+        this.snapshot = this.read();
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
+    /**
+     * Holder of the singleton, created (and watched) on the first use.
+     */
+    private static class Holder {
+        static final ConfigurationManager SINGLETON = create();
+
+        private static ConfigurationManager create() {
+            String path = System.getProperty("jotform.config");
+            ConfigurationManager manager = new ConfigurationManager(path != null ? new File(path) : new File(System.getProperty("user.dir"), "config.properties"));
+            if (manager.watchEnabled) {
+                manager.watch();
+            }
+            return manager;
         }
+    }
 
+    public static ConfigurationManager getInstance() {
+        return Holder.SINGLETON;
     }
 
-    public static synchronized ConfigurationManager getInstance() {
+    /**
+     * Gets the current configuration.
+     */
+    public ConfigurationSnapshot getSnapshot() {
+        return this.snapshot;
+    }
 
-        if (singleton == null) {
+    /**
+     * Overrides a property for the rest of the run (config.properties is not modified), e.g. to point the API
+     * endpoints to a local server. A new snapshot is published with the value.
+     */
+    public synchronized void setProperty(String key, Object value) {
+        this.overrides.put(key, value);
+        this.snapshot = this.read();
+    }
 
-            singleton = new ConfigurationManager();
+    /**
+     * Removes the override of a property, so that the value of config.properties applies again.
+     */
+    public synchronized void clearProperty(String key) {
+        this.overrides.remove(key);
+        this.snapshot = this.read();
+    }
 
+    /**
+     * Reads config.properties again and publishes the new snapshot. If the file cannot be read, the previous
+     * snapshot is kept.
+     */
+    public synchronized void reload() {
+        ConfigurationSnapshot reloaded = this.read();
+        if (reloaded != this.snapshot) {
+            this.snapshot = reloaded;
+            log.info("configuration reloaded from " + this.f);
         }
-        return singleton;
     }
 
-    public String getApiKey(){return config.getString("api.key");}
-
-
-    public String getHttpGetForm(){return config.getString("api.getform");}
-    public String getHttpPostForm(){return config.getString("api.postform");}
-   /* public void setXX(XXX) {
-
-            this.config.setProperty("xxx.yyy", xxx);
-
+    /**
+     * Reads the file and applies the overrides, or gives the current snapshot if the file cannot be read (the
+     * defaults if there is none yet).
+     */
+    private ConfigurationSnapshot read() {
+        PropertiesConfiguration config = new PropertiesConfiguration();
+        try {
+            config = new PropertiesConfiguration(this.f);
+        } catch (Exception e) {
+            e.printStackTrace();
+            if (this.snapshot != null) {
+                return this.snapshot;
+            }
         }
+        for (Map.Entry<String, Object> override : this.overrides.entrySet()) {
+            config.setProperty(override.getKey(), override.getValue());
+        }
+        this.watchEnabled = config.getBoolean("config.watch", true);
+        return new ConfigurationSnapshot(config, this.f.getParentFile());
+    }
 
-    }*/
-
+    /**
+     * Starts a daemon thread that reloads the configuration whenever config.properties is modified.
+     */
+    private void watch() {
+        final Path dir = this.f.getParentFile().toPath();
+        final Path name = this.f.toPath().getFileName();
+        final WatchService watcher;
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        WatchKey key = watcher.take();
+                        boolean changed = false;
+                        for (WatchEvent<?> event : key.pollEvents()) {
+                            changed |= name.equals(event.context());
+                        }
+                        key.reset();
+                        if (changed) {
+                            // Lets the editor finish writing the file.
+                            Thread.sleep(100);
+                            reload();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ClosedWatchServiceException e) {
+                    // Stops watching.
+                }
+            }
+        }, "configuration watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
 }
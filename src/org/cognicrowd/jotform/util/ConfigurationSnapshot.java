@@ -0,0 +1,166 @@
+package org.cognicrowd.jotform.util;
+
+import org.apache.commons.configuration.Configuration;
+
+import java.io.File;
+
+/**
+ * @author csarasua
+ *         The values of the configuration at one moment, read once from config.properties (and the overrides of the
+ *         run). A snapshot never changes: a new one is published by the ConfigurationManager when config.properties
+ *         changes, so it can be read by any number of threads without locks, and the values read from one snapshot
+ *         are always consistent with each other.
+ *         Relative paths are resolved against the directory of config.properties.
+ */
+public final class ConfigurationSnapshot {
+
+    // Directory against which the relative paths are resolved.
+    private final File baseDir;
+
+    private final String apiKey;
+    private final String httpGetForm;
+    private final String httpPostForm;
+
+    private final int maxConnections;
+    private final int maxConnectionsPerRoute;
+    private final int connectTimeout;
+    private final int socketTimeout;
+    private final double requestsPerSecond;
+    private final int serialisationThreads;
+    private final int retryMaxAttempts;
+    private final long retryBaseDelay;
+    private final long retryMaxDelay;
+    private final long retryMaxRetryAfter;
+    private final int circuitFailureThreshold;
+    private final long circuitOpenTime;
+    private final int uploadChunkSize;
+    private final int uploadThreads;
+    private final int pipelineAssembleThreads;
+    private final int pipelineQueueCapacity;
+    private final int journalSyncBatch;
+    private final int exportThreads;
+    private final int exportPageSize;
+    private final long metricsSummaryPeriod;
+    private final int logSampleRate;
+    private final String orderingStrategy;
+    private final int samplingTests;
+    private final int samplingTasks;
+    private final Long shuffleSeed;
+
+    private final File testsFile;
+    private final File tasksFile;
+    private final File frontFile;
+    private final File middleFile;
+    private final File endFile;
+    private final File listsFile;
+    private final File assignmentStore;
+    private final File journalFile;
+    private final File questionsSnapshot;
+    private final File submissionsFile;
+
+    /**
+     * Constructor
+     *
+     * @param config  the properties.
+     * @param baseDir directory against which the relative paths are resolved.
+     */
+    ConfigurationSnapshot(Configuration config, File baseDir) {
+        this.baseDir = baseDir;
+
+        this.apiKey = config.getString("api.key");
+        this.httpGetForm = config.getString("api.getform");
+        this.httpPostForm = config.getString("api.postform");
+
+        this.maxConnections = config.getInt("http.maxconnections", 20);
+        this.maxConnectionsPerRoute = config.getInt("http.maxconnectionsperroute", 10);
+        this.connectTimeout = config.getInt("http.connecttimeout", 10000);
+        this.socketTimeout = config.getInt("http.sockettimeout", 60000);
+        this.requestsPerSecond = config.getDouble("api.requestspersecond", 5);
+        this.serialisationThreads = config.getInt("serialisation.threads", 4);
+        this.retryMaxAttempts = config.getInt("retry.maxattempts", 8);
+        this.retryBaseDelay = config.getLong("retry.basedelay", 500);
+        this.retryMaxDelay = config.getLong("retry.maxdelay", 30000);
+        this.retryMaxRetryAfter = config.getLong("retry.maxretryafter", 300000);
+        this.circuitFailureThreshold = config.getInt("circuit.failurethreshold", 5);
+        this.circuitOpenTime = config.getLong("circuit.opentime", 10000);
+        this.uploadChunkSize = config.getInt("upload.chunksize", 0);
+        this.uploadThreads = config.getInt("upload.threads", 4);
+        this.pipelineAssembleThreads = config.getInt("pipeline.assemblethreads", 2);
+        this.pipelineQueueCapacity = config.getInt("pipeline.queuecapacity", 16);
+        this.journalSyncBatch = config.getInt("journal.syncbatch", 8);
+        this.exportThreads = config.getInt("export.threads", 4);
+        this.exportPageSize = config.getInt("export.pagesize", 100);
+        this.metricsSummaryPeriod = config.getLong("metrics.summaryperiod", 10000);
+        this.logSampleRate = config.getInt("log.samplerate", 100);
+        this.orderingStrategy = config.getString("ordering.strategy", "Random");
+        this.samplingTests = config.getInt("sampling.tests", 0);
+        this.samplingTasks = config.getInt("sampling.tasks", 0);
+        this.shuffleSeed = config.containsKey("shuffle.seed") ? config.getLong("shuffle.seed") : null;
+
+        this.testsFile = this.resolve(config.getString("data.tests", "data/testsFile.csv"));
+        this.tasksFile = this.resolve(config.getString("data.tasks", "data/tasksFile.csv"));
+        this.frontFile = this.resolve(config.getString("data.front", "data/front.csv"));
+        this.middleFile = this.resolve(config.getString("data.middle", "data/middle.csv"));
+        this.endFile = this.resolve(config.getString("data.end", "data/end.csv"));
+        this.listsFile = this.resolve(config.getString("output.lists", "output/listOfShuffledTestsAndTasks.csv"));
+        this.assignmentStore = this.resolve(config.getString("output.assignmentstore", ""));
+        this.journalFile = this.resolve(config.getString("journal.file", "output/serialisationJournal.log"));
+        this.questionsSnapshot = this.resolve(config.getString("questions.snapshot", ""));
+        this.submissionsFile = this.resolve(config.getString("output.submissions", "output/submissions.csv"));
+    }
+
+    /**
+     * Resolves a path of the configuration against the base directory, or gives null for an empty path.
+     */
+    private File resolve(String path) {
+        if (path == null || path.isEmpty()) {
+            return null;
+        }
+        File f = new File(path);
+        return f.isAbsolute() ? f : new File(this.baseDir, path);
+    }
+
+    public File getBaseDir(){return baseDir;}
+
+    public String getApiKey(){return apiKey;}
+    public String getHttpGetForm(){return httpGetForm;}
+    public String getHttpPostForm(){return httpPostForm;}
+
+    public int getMaxConnections(){return maxConnections;}
+    public int getMaxConnectionsPerRoute(){return maxConnectionsPerRoute;}
+    public int getConnectTimeout(){return connectTimeout;}
+    public int getSocketTimeout(){return socketTimeout;}
+    public double getRequestsPerSecond(){return requestsPerSecond;}
+    public int getSerialisationThreads(){return serialisationThreads;}
+    public int getRetryMaxAttempts(){return retryMaxAttempts;}
+    public long getRetryBaseDelay(){return retryBaseDelay;}
+    public long getRetryMaxDelay(){return retryMaxDelay;}
+    public long getRetryMaxRetryAfter(){return retryMaxRetryAfter;}
+    public int getCircuitFailureThreshold(){return circuitFailureThreshold;}
+    public long getCircuitOpenTime(){return circuitOpenTime;}
+    public int getUploadChunkSize(){return uploadChunkSize;}
+    public int getUploadThreads(){return uploadThreads;}
+    public int getPipelineAssembleThreads(){return pipelineAssembleThreads;}
+    public int getPipelineQueueCapacity(){return pipelineQueueCapacity;}
+    public int getJournalSyncBatch(){return journalSyncBatch;}
+    public int getExportThreads(){return exportThreads;}
+    public int getExportPageSize(){return exportPageSize;}
+    public long getMetricsSummaryPeriod(){return metricsSummaryPeriod;}
+    public int getLogSampleRate(){return logSampleRate;}
+    public String getOrderingStrategy(){return orderingStrategy;}
+    public int getSamplingTests(){return samplingTests;}
+    public int getSamplingTasks(){return samplingTasks;}
+    public Long getShuffleSeed(){return shuffleSeed;}
+
+    public File getTestsFile(){return testsFile;}
+    public File getTasksFile(){return tasksFile;}
+    public File getFrontFile(){return frontFile;}
+    public File getMiddleFile(){return middleFile;}
+    public File getEndFile(){return endFile;}
+    public File getListsFile(){return listsFile;}
+    public File getSubmissionsFile(){return submissionsFile;}
+    // The optional files are null when they are not configured.
+    public File getAssignmentStore(){return assignmentStore;}
+    public File getJournalFile(){return journalFile;}
+    public File getQuestionsSnapshot(){return questionsSnapshot;}
+}
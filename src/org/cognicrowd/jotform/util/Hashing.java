@@ -0,0 +1,23 @@
+package org.cognicrowd.jotform.util;
+
+/**
+ * @author csarasua
+ *         Hash functions shared by the generation of the lists (seeds, fingerprints, Feistel rounds).
+ */
+public final class Hashing {
+
+    private Hashing() {
+    }
+
+    /**
+     * Spreads the bits of the key (finalizer of MurmurHash3), so that sequential keys do not cluster.
+     */
+    public static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
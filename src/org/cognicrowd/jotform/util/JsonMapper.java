@@ -0,0 +1,22 @@
+package org.cognicrowd.jotform.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * @author csarasua
+ *         The ObjectMapper shared by the whole application. It is thread-safe once configured, so readers and writers
+ *         are derived from it instead of creating new mappers and factories for each request.
+ */
+public final class JsonMapper {
+
+    public static final ObjectMapper MAPPER = new ObjectMapper(new JsonFactory().configure(
+            JsonGenerator.Feature.AUTO_CLOSE_TARGET, false))
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private JsonMapper() {
+
+    }
+}
@@ -0,0 +1,104 @@
+package org.cognicrowd.jotform.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author csarasua
+ *         Histogram of latencies (in nanoseconds) with logarithmic buckets of 64 sub-buckets each, so that any value is
+ *         kept with a relative error below 2% in a fixed amount of memory, whatever the number of values.
+ *         Values can be recorded by several threads at the same time.
+ */
+public class LatencyHistogram {
+
+    // Sub-buckets per power of two (6 bits of precision).
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Enough buckets for any positive long.
+    private static final int NUMBER_OF_BUCKETS = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(NUMBER_OF_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency in nanoseconds (negative values are recorded as 0).
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        this.counts.incrementAndGet(bucketOf(value));
+        this.count.incrementAndGet();
+        this.sum.addAndGet(value);
+        long currentMax;
+        while (value > (currentMax = this.max.get()) && !this.max.compareAndSet(currentMax, value)) {
+            // Another thread changed the maximum, tries again.
+        }
+    }
+
+    public long getCount() {
+        return this.count.get();
+    }
+
+    public double getMeanMillis() {
+        long n = this.count.get();
+        return n == 0 ? 0 : this.sum.get() / 1e6 / n;
+    }
+
+    public double getMaxMillis() {
+        return this.max.get() / 1e6;
+    }
+
+    /**
+     * Gets a percentile of the recorded latencies.
+     *
+     * @param percentile the percentile, between 0 and 100.
+     * @return the latency in milliseconds, or 0 if no value has been recorded.
+     */
+    public double getPercentileMillis(double percentile) {
+        long n = this.count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int bucket = 0; bucket < NUMBER_OF_BUCKETS; bucket++) {
+            seen += this.counts.get(bucket);
+            if (seen >= rank) {
+                return Math.min(valueOf(bucket), this.max.get()) / 1e6;
+            }
+        }
+        return this.getMaxMillis();
+    }
+
+    /**
+     * Summary of the histogram, e.g. "count=10 mean=1.20ms p50=1.10ms p99=3.00ms max=3.05ms".
+     */
+    public String summary() {
+        return String.format("count=%d mean=%.2fms p50=%.2fms p99=%.2fms max=%.2fms", this.getCount(),
+                this.getMeanMillis(), this.getPercentileMillis(50), this.getPercentileMillis(99), this.getMaxMillis());
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        // Position of the highest bit above the sub-bucket bits: value >>> shift is in [SUB_BUCKETS, 2*SUB_BUCKETS).
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * Highest value of a bucket.
+     */
+    static long valueOf(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (bucket - shift * SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
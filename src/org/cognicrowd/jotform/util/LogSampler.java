@@ -0,0 +1,32 @@
+package org.cognicrowd.jotform.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author csarasua
+ *         Lets through one in every "rate" events, to log messages of very frequent events (e.g. each request or each
+ *         list) without the cost of logging all of them.
+ */
+public class LogSampler {
+
+    private final long rate;
+    private final AtomicLong events = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param rate one in every "rate" events is sampled (1 or less: all of them).
+     */
+    public LogSampler(long rate) {
+        this.rate = Math.max(1, rate);
+    }
+
+    /**
+     * Counts an event.
+     *
+     * @return true if the event is sampled.
+     */
+    public boolean sample() {
+        return this.events.getAndIncrement() % this.rate == 0;
+    }
+}
@@ -0,0 +1,62 @@
+package org.cognicrowd.jotform.client;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author csarasua
+ *         Tests of the states of the circuit breaker: closed, open after consecutive failures, and half-open with one
+ *         trial request once the open time has passed.
+ */
+public class CircuitBreakerTest {
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 60000);
+        breaker.recordFailure();
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        breaker.recordFailure();
+        assertFalse(breaker.isOpen());
+        assertEquals(0, breaker.millisUntilAllowed());
+
+        breaker.recordFailure();
+        assertTrue(breaker.isOpen());
+        long wait = breaker.millisUntilAllowed();
+        assertTrue(wait > 59000 && wait <= 60000);
+    }
+
+    @Test
+    public void letsOneTrialRequestThroughAndClosesIfItSucceeds() throws InterruptedException {
+        CircuitBreaker breaker = opened();
+        Thread.sleep(60);
+        assertEquals(0, breaker.millisUntilAllowed());
+        // The other requests wait for the trial request.
+        assertTrue(breaker.millisUntilAllowed() > 0);
+        breaker.recordSuccess();
+        assertFalse(breaker.isOpen());
+        assertEquals(0, breaker.millisUntilAllowed());
+    }
+
+    @Test
+    public void opensAgainIfTheTrialRequestFails() throws InterruptedException {
+        CircuitBreaker breaker = opened();
+        Thread.sleep(60);
+        assertEquals(0, breaker.millisUntilAllowed());
+        // One failure of the trial request is enough, whatever the threshold.
+        breaker.recordFailure();
+        assertTrue(breaker.isOpen());
+        assertTrue(breaker.millisUntilAllowed() > 0);
+    }
+
+    private static CircuitBreaker opened() {
+        CircuitBreaker breaker = new CircuitBreaker(2, 50);
+        breaker.recordFailure();
+        breaker.recordFailure();
+        assertTrue(breaker.isOpen());
+        assertTrue(breaker.millisUntilAllowed() > 0);
+        return breaker;
+    }
+}
@@ -0,0 +1,240 @@
+package org.cognicrowd.jotform.client;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.cognicrowd.jotform.util.ConfigurationManager;
+import org.cognicrowd.jotform.util.JsonMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author csarasua
+ *         Tests of the requests sent by the JotFormClient, against a local server that answers as the JotForm API.
+ */
+public class JotFormClientTest {
+
+    private final ConfigurationManager config = ConfigurationManager.getInstance();
+    // Requests received by the server: method, path and query, body and APIKEY header.
+    private final List<String[]> requests = Collections.synchronizedList(new ArrayList<String[]>());
+    // Status codes to answer before the successful responses.
+    private final Queue<Integer> failures = new LinkedList<Integer>();
+    // Retry-After header of the failures, if any.
+    private volatile String retryAfter;
+    // Time that the server takes to answer.
+    private volatile long answerMillis;
+
+    private HttpServer server;
+    private JotFormClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/form", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                answer(exchange);
+            }
+        });
+        this.server.setExecutor(Executors.newCachedThreadPool());
+        this.server.start();
+
+        String url = "http://localhost:" + this.server.getAddress().getPort() + "/form";
+        this.config.setProperty("api.getform", url);
+        this.config.setProperty("api.postform", url);
+        this.client = new JotFormClient(this.config);
+    }
+
+    @After
+    public void tearDown() {
+        this.client.shutdown();
+        this.server.stop(0);
+        for (String key : new String[]{"api.getform", "api.postform", "retry.maxattempts", "retry.maxretryafter", "http.sockettimeout"}) {
+            this.config.clearProperty(key);
+        }
+    }
+
+    @Test
+    public void createsAFormWithTheTitle() throws IOException {
+        assertEquals("901", this.client.createForm("Merged \"form\" 1 \\ ü"));
+        String[] request = this.requests.get(0);
+        assertEquals("POST", request[0]);
+        assertEquals("/form", request[1]);
+        assertEquals(this.config.getSnapshot().getApiKey(), request[3]);
+        assertEquals("Merged \"form\" 1 \\ ü", JsonMapper.MAPPER.readTree(request[2]).get("properties").get("title").asText());
+    }
+
+    @Test
+    public void getsTheQuestionsOfAForm() throws IOException {
+        Map<String, ?> questions = this.client.getQuestions("51000000000001");
+        assertEquals(new HashSet<String>(Arrays.asList("1", "2")), questions.keySet());
+        assertEquals("GET /form/51000000000001/questions", this.requests.get(0)[0] + " " + this.requests.get(0)[1]);
+    }
+
+    @Test
+    public void getsThePagesOfSubmissionsOldestFirst() throws IOException {
+        int responseCode = this.client.getSubmissions("901", 40, 20, new JotFormClient.ResponseReader<Integer>() {
+            @Override
+            public Integer read(InputStream in) throws IOException {
+                return JsonMapper.MAPPER.readTree(in).get("responseCode").asInt();
+            }
+        });
+        assertEquals(200, responseCode);
+        assertEquals("GET /form/901/submissions?offset=40&limit=20&orderby=created_at&direction=ASC",
+                this.requests.get(0)[0] + " " + this.requests.get(0)[1]);
+    }
+
+    @Test
+    public void putsTheQuestionsOfAForm() throws IOException {
+        String questions = "{\"questions\":[{\"type\":\"control_head\",\"text\":\"Test\"}]}";
+        this.client.putQuestions("901", new StringEntity(questions, ContentType.APPLICATION_JSON));
+        String[] request = this.requests.get(0);
+        assertEquals("PUT /form/901/questions", request[0] + " " + request[1]);
+        assertEquals(questions, request[2]);
+    }
+
+    @Test
+    public void sendsTheRequestAgainAfterAServerError() throws IOException {
+        synchronized (this.failures) {
+            this.failures.add(500);
+        }
+        Map<String, ?> questions = this.client.getQuestions("51000000000001");
+        assertEquals(2, questions.size());
+        assertEquals(2, this.requests.size());
+    }
+
+    @Test
+    public void doesNotSendAFormAgainAfterItReachedTheServer() {
+        synchronized (this.failures) {
+            this.failures.add(500);
+        }
+        try {
+            this.client.createForm("Merged form 1");
+            fail("The form was created");
+        } catch (IOException e) {
+            // A second POST could create a second form.
+            assertEquals(1, this.requests.size());
+        }
+    }
+
+    @Test
+    public void givesUpWhenTheServerAsksForTooLongAWait() {
+        this.config.setProperty("retry.maxretryafter", 1000);
+        this.retryAfter = "3600";
+        synchronized (this.failures) {
+            this.failures.add(503);
+        }
+        try {
+            this.client.getQuestions("51000000000001");
+            fail("The questions were read");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("asked to wait 3600000 ms"));
+            assertEquals(1, this.requests.size());
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void timesOutARequestThatIsNotAnswered() {
+        this.config.setProperty("http.sockettimeout", 200);
+        this.config.setProperty("retry.maxattempts", 1);
+        this.answerMillis = 5000;
+        JotFormClient client = new JotFormClient(this.config);
+        try {
+            client.getQuestions("51000000000001");
+            fail("The questions were read");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("SocketTimeoutException"));
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    @Test
+    public void sharesTheClientBetweenThreads() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<String>> ids = new ArrayList<Future<String>>();
+        for (int i = 0; i < 8; i++) {
+            final int count = i;
+            ids.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return client.createForm("Merged form " + count);
+                }
+            }));
+        }
+        for (Future<String> id : ids) {
+            assertEquals("901", id.get());
+        }
+        executor.shutdown();
+        assertEquals(8, this.requests.size());
+    }
+
+    private void answer(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+            body.write(buffer, 0, read);
+        }
+        String method = exchange.getRequestMethod();
+        this.requests.add(new String[]{method, exchange.getRequestURI().toString(), body.toString("UTF-8"),
+                exchange.getRequestHeaders().getFirst("APIKEY")});
+
+        if (this.answerMillis > 0) {
+            try {
+                Thread.sleep(this.answerMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Integer failure;
+        synchronized (this.failures) {
+            failure = this.failures.poll();
+        }
+        int status = 200;
+        String response;
+        if (failure != null) {
+            status = failure;
+            response = "{\"responseCode\":" + failure + ",\"message\":\"error\"}";
+            if (this.retryAfter != null) {
+                exchange.getResponseHeaders().set("Retry-After", this.retryAfter);
+            }
+        } else if (method.equals("POST")) {
+            response = "{\"responseCode\":200,\"content\":{\"id\":\"901\"}}";
+        } else if (method.equals("GET")) {
+            response = "{\"responseCode\":200,\"content\":{\"1\":{\"qid\":\"1\",\"order\":\"1\",\"type\":\"control_head\",\"text\":\"Test\"},"
+                    + "\"2\":{\"qid\":\"2\",\"order\":\"2\",\"type\":\"control_textarea\",\"text\":\"Comments\"}}}";
+        } else {
+            response = "{\"responseCode\":200,\"content\":{}}";
+        }
+        byte[] bytes = response.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+}
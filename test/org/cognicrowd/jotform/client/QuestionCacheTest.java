@@ -0,0 +1,110 @@
+package org.cognicrowd.jotform.client;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.cognicrowd.jotform.datamodel.Question;
+import org.cognicrowd.jotform.util.ConfigurationManager;
+import org.cognicrowd.jotform.util.JsonMapper;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author csarasua
+ *         Tests of the cache of the questions of the source forms: one request per form, and the snapshot on disk.
+ */
+public class QuestionCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void requestsTheQuestionsOfEachFormOnce() throws Exception {
+        final List<String> requested = Collections.synchronizedList(new ArrayList<String>());
+        JotFormClient client = new JotFormClient(ConfigurationManager.getInstance()) {
+            @Override
+            public Map<String, Question> getQuestions(String formId) throws IOException {
+                requested.add(formId);
+                return questions(formId + " first", formId + " second");
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            QuestionCache cache = new QuestionCache();
+            cache.put("3", questions("cached"));
+            cache.load(client, Arrays.asList("1", "2", "1", "3", "2"), executor);
+            cache.load(client, Arrays.asList("2", "1"), executor);
+
+            assertEquals(new HashSet<String>(Arrays.asList("1", "2")), new HashSet<String>(requested));
+            assertEquals(2, requested.size());
+            assertEquals(Arrays.asList("2 first", "2 second"), texts(cache.getQuestions("2")));
+            assertEquals(Arrays.asList("cached"), texts(cache.getQuestions("3")));
+        } finally {
+            executor.shutdown();
+            client.shutdown();
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void sharesQuestionsThatCannotBeModified() throws IOException {
+        QuestionCache cache = new QuestionCache();
+        cache.put("1", questions("first"));
+        cache.getQuestions("1").add(cache.getQuestions("1").get(0));
+    }
+
+    @Test
+    public void restoresTheQuestionsOfTheSnapshot() throws IOException {
+        QuestionCache cache = new QuestionCache();
+        cache.put("1", questions("first", "second"));
+        cache.put("2", questions("third"));
+        File f = new File(this.folder.getRoot(), "questions.json");
+        cache.writeSnapshot(f);
+        assertFalse(new File(f.getPath() + ".tmp").exists());
+
+        QuestionCache restored = new QuestionCache();
+        restored.readSnapshot(f);
+        assertTrue(restored.contains("1"));
+        assertEquals(Arrays.asList("first", "second"), texts(restored.getQuestions("1")));
+        assertEquals(Arrays.asList("third"), texts(restored.getQuestions("2")));
+        assertNull(restored.getQuestions("3"));
+    }
+
+    @Test
+    public void startsEmptyWithoutASnapshot() throws IOException {
+        QuestionCache cache = new QuestionCache();
+        cache.readSnapshot(new File(this.folder.getRoot(), "missing.json"));
+        assertFalse(cache.contains("1"));
+    }
+
+    /**
+     * Questions keyed by question id, in the order of the texts.
+     */
+    private static Map<String, Question> questions(String... texts) throws IOException {
+        Map<String, Object> questions = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < texts.length; i++) {
+            Map<String, Object> question = new LinkedHashMap<String, Object>();
+            question.put("qid", Integer.toString(i + 1));
+            question.put("order", Integer.toString(i + 1));
+            question.put("type", "control_textbox");
+            question.put("text", texts[i]);
+            questions.put(Integer.toString(i + 1), question);
+        }
+        return JsonMapper.MAPPER.convertValue(questions, new TypeReference<LinkedHashMap<String, Question>>() {
+        });
+    }
+
+    private static List<String> texts(List<Question> questions) {
+        List<String> texts = new ArrayList<String>();
+        for (Question question : questions) {
+            texts.add(question.getText());
+        }
+        return texts;
+    }
+}
@@ -0,0 +1,88 @@
+package org.cognicrowd.jotform.client;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.impl.cookie.DateUtils;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author csarasua
+ *         Tests of the waits between the attempts of a call and of the reading of the Retry-After header.
+ */
+public class RetryPolicyTest {
+
+    private final RetryPolicy policy = new RetryPolicy(8, 100, 1000, 10000);
+
+    @Test
+    public void retriesOnlyThrottlingAndServerErrors() {
+        assertTrue(RetryPolicy.isRetryable(429));
+        assertTrue(RetryPolicy.isRetryable(500));
+        assertTrue(RetryPolicy.isRetryable(503));
+        assertFalse(RetryPolicy.isRetryable(400));
+        assertFalse(RetryPolicy.isRetryable(401));
+        assertFalse(RetryPolicy.isRetryable(404));
+    }
+
+    @Test
+    public void doublesTheBackoffUpToTheMaximumDelay() {
+        long[] caps = {100, 200, 400, 800, 1000, 1000, 1000};
+        for (int attempt = 1; attempt <= caps.length; attempt++) {
+            long longest = 0;
+            for (int i = 0; i < 2000; i++) {
+                long delay = this.policy.delayFor(attempt, -1);
+                assertTrue(delay >= 0 && delay <= caps[attempt - 1]);
+                longest = Math.max(longest, delay);
+            }
+            // Full jitter: the waits are spread over the whole interval.
+            assertTrue(longest > caps[attempt - 1] * 3 / 4);
+        }
+        assertTrue(this.policy.delayFor(100, -1) <= 1000);
+    }
+
+    @Test
+    public void waitsAsLongAsTheServerAsks() {
+        assertEquals(0, this.policy.delayFor(3, 0));
+        assertEquals(700, this.policy.delayFor(1, 700));
+        // Also beyond the maximum delay, which only caps the backoff.
+        assertEquals(5000, this.policy.delayFor(1, 5000));
+        assertEquals(10000, this.policy.delayFor(1, 10000));
+    }
+
+    @Test
+    public void givesUpWhenTheServerAsksForALongerWaitThanTheMaximum() {
+        assertEquals(-1, this.policy.delayFor(1, 10001));
+        assertEquals(-1, this.policy.delayFor(5, 3600000));
+    }
+
+    @Test
+    public void readsRetryAfterInSeconds() {
+        assertEquals(3000, RetryPolicy.retryAfterMillis(response("3")));
+        assertEquals(0, RetryPolicy.retryAfterMillis(response("-2")));
+        assertEquals(120000, RetryPolicy.retryAfterMillis(response(" 120 ")));
+    }
+
+    @Test
+    public void readsRetryAfterAsADate() {
+        long millis = RetryPolicy.retryAfterMillis(response(DateUtils.formatDate(new Date(System.currentTimeMillis() + 60000))));
+        // HTTP dates are in seconds.
+        assertTrue(String.valueOf(millis), millis > 58000 && millis <= 60000);
+        assertEquals(0, RetryPolicy.retryAfterMillis(response(DateUtils.formatDate(new Date(System.currentTimeMillis() - 60000)))));
+    }
+
+    @Test
+    public void ignoresAMissingOrInvalidRetryAfter() {
+        assertEquals(-1, RetryPolicy.retryAfterMillis(new BasicHttpResponse(HttpVersion.HTTP_1_1, 429, "Too Many Requests")));
+        assertEquals(-1, RetryPolicy.retryAfterMillis(response("soon")));
+    }
+
+    private static HttpResponse response(String retryAfter) {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 429, "Too Many Requests");
+        response.setHeader("Retry-After", retryAfter);
+        return response;
+    }
+}
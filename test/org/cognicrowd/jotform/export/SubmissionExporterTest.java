@@ -0,0 +1,173 @@
+package org.cognicrowd.jotform.export;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.cognicrowd.jotform.client.JotFormClient;
+import org.cognicrowd.jotform.datamodel.Form;
+import org.cognicrowd.jotform.datamodel.TypeOfForm;
+import org.cognicrowd.jotform.formgeneration.SerialisationJournal;
+import org.cognicrowd.jotform.util.ConfigurationManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author csarasua
+ *         Tests of the rows exported from the pages of submissions of the merged forms, served by a client that does
+ *         not connect to the API.
+ */
+public class SubmissionExporterTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ConfigurationManager config = ConfigurationManager.getInstance();
+    // Submissions of each merged form, as JSON objects.
+    private final Map<String, List<String>> submissions = new HashMap<String, List<String>>();
+    // Pages requested: form id, offset and limit.
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+    // Merged form whose submissions cannot be read.
+    private String failingForm;
+
+    private SerialisationJournal journal;
+    private List<SerialisationJournal.Entry> entries;
+
+    @Before
+    public void setUp() throws IOException {
+        this.config.setProperty("export.pagesize", 2);
+        this.config.setProperty("export.threads", 1);
+        this.journal = new SerialisationJournal(new File(this.folder.getRoot(), "journal.log"), 1);
+        this.entries = Arrays.asList(
+                this.journal.recordCreated(Arrays.asList(form("11"), form("12"), form("13")), "901", 1),
+                this.journal.recordCreated(Arrays.asList(form("13"), form("12"), form("11")), "902", 2));
+        for (SerialisationJournal.Entry entry : this.entries) {
+            this.journal.recordQuestionsAdded(entry);
+        }
+
+        this.submissions.put("901", Arrays.asList(
+                submission("s1", "{\"11-1\":{\"order\":\"1\",\"answer\":\"yes\",\"text\":\"Agree?\"},"
+                        + "\"12-3\":{\"order\":\"2\",\"type\":\"control_head\"},"
+                        + "\"13-2\":{\"order\":\"3\",\"answer\":{\"first\":\"Ana\",\"last\":\"Ruiz\"}}}"),
+                submission("s2", "{\"11-1\":{\"order\":\"1\",\"answer\":\"no\"}}"),
+                submission("s3", "{\"13-2\":{\"order\":\"3\",\"answer\":\"\\\"quoted\\\", ü\"}}")));
+        this.submissions.put("902", Arrays.asList(
+                submission("s4", "{\"11-1\":{\"order\":\"3\",\"answer\":\"yes\"}}"),
+                submission("s5", "{\"old\":{\"order\":\"1\",\"answer\":\"7\"}}")));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.journal.close();
+        this.config.clearProperty("export.pagesize");
+        this.config.clearProperty("export.threads");
+    }
+
+    @Test
+    public void writesOneRowPerAnswerOfEachPage() throws IOException, InterruptedException {
+        File f = new File(this.folder.getRoot(), "submissions.csv");
+
+        assertEquals(0, this.exporter().export(this.entries, f));
+
+        assertEquals(Arrays.asList(
+                Arrays.asList("participant", "list", "mergedForm", "submission", "submittedAt", "sourceForm", "formPosition", "qid", "questionOrder", "answer"),
+                Arrays.asList("user1", "1", "901", "s1", "2015-09-01 10:00:00", "11", "1", "1", "1", "yes"),
+                Arrays.asList("user1", "1", "901", "s1", "2015-09-01 10:00:00", "13", "3", "2", "3", "{\"first\":\"Ana\",\"last\":\"Ruiz\"}"),
+                Arrays.asList("user1", "1", "901", "s2", "2015-09-01 10:00:00", "11", "1", "1", "1", "no"),
+                Arrays.asList("user1", "1", "901", "s3", "2015-09-01 10:00:00", "13", "3", "2", "3", "\"quoted\", ü"),
+                Arrays.asList("user2", "2", "902", "s4", "2015-09-01 10:00:00", "11", "3", "1", "3", "yes"),
+                Arrays.asList("user2", "2", "902", "s5", "2015-09-01 10:00:00", "", "", "old", "1", "7")), read(f));
+        // The pages follow each other until one is not full.
+        assertEquals(Arrays.asList("901 0 2", "901 2 2", "902 0 2", "902 2 2"), this.requests);
+        assertFalse(new File(f.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void countsTheFormsThatCannotBeExported() throws IOException, InterruptedException {
+        File f = new File(this.folder.getRoot(), "submissions.csv");
+        this.failingForm = "901";
+
+        assertEquals(1, this.exporter().export(this.entries, f));
+
+        List<List<String>> rows = read(f);
+        assertEquals(3, rows.size());
+        assertEquals("902", rows.get(1).get(2));
+        assertEquals("902", rows.get(2).get(2));
+    }
+
+    @Test
+    public void leavesOutTheFormsWhoseQuestionsWereNotAdded() throws IOException, InterruptedException {
+        File f = new File(this.folder.getRoot(), "submissions.csv");
+        List<SerialisationJournal.Entry> entries = new ArrayList<SerialisationJournal.Entry>(this.entries);
+        entries.add(this.journal.recordCreated(Arrays.asList(form("12"), form("11"), form("13")), "903", 3));
+
+        assertEquals(0, this.exporter().export(entries, f));
+
+        assertEquals(7, read(f).size());
+        assertEquals(Arrays.asList("901 0 2", "901 2 2", "902 0 2", "902 2 2"), this.requests);
+    }
+
+    private SubmissionExporter exporter() {
+        JotFormClient client = new JotFormClient(this.config) {
+            @Override
+            public <T> T getSubmissions(String formId, int offset, int limit, ResponseReader<T> reader) throws IOException {
+                requests.add(formId + " " + offset + " " + limit);
+                if (formId.equals(failingForm)) {
+                    throw new IOException("get submissions failed");
+                }
+                List<String> all = submissions.get(formId);
+                List<String> page = all.subList(Math.min(offset, all.size()), Math.min(offset + limit, all.size()));
+                String json = "{\"responseCode\":200,\"message\":\"success\",\"content\":[" + join(page) + "],"
+                        + "\"resultSet\":{\"offset\":" + offset + ",\"limit\":" + limit + ",\"count\":" + page.size() + "}}";
+                return reader.read(new ByteArrayInputStream(json.getBytes(UTF8)));
+            }
+        };
+        return new SubmissionExporter(client, this.config.getSnapshot());
+    }
+
+    private static String submission(String id, String answers) {
+        return "{\"id\":\"" + id + "\",\"form_id\":\"0\",\"ip\":\"127.0.0.1\",\"created_at\":\"2015-09-01 10:00:00\","
+                + "\"status\":\"ACTIVE\",\"answers\":" + answers + "}";
+    }
+
+    private static String join(List<String> values) {
+        StringBuilder joined = new StringBuilder();
+        for (String value : values) {
+            joined.append(joined.length() > 0 ? "," : "").append(value);
+        }
+        return joined.toString();
+    }
+
+    private static List<List<String>> read(File f) throws IOException {
+        List<List<String>> rows = new ArrayList<List<String>>();
+        CSVParser parser = CSVParser.parse(f, UTF8, CSVFormat.DEFAULT);
+        try {
+            for (CSVRecord record : parser) {
+                List<String> row = new ArrayList<String>();
+                for (String value : record) {
+                    row.add(value);
+                }
+                rows.add(row);
+            }
+        } finally {
+            parser.close();
+        }
+        return rows;
+    }
+
+    private static Form form(String id) {
+        return new Form(id, "form " + id, TypeOfForm.Test);
+    }
+}
@@ -0,0 +1,100 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author csarasua
+ *         Tests of the binary store of the forms of each participant, written by AssignmentStoreWriter.
+ */
+public class AssignmentStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsTheRowsThatWereWritten() throws IOException {
+        File f = new File(this.folder.getRoot(), "store.bin");
+        AssignmentStoreWriter writer = new AssignmentStoreWriter(f);
+        writer.writeRow(Arrays.asList("52504847884971", "52223988034962", "52324275593963"));
+        writer.writeRow(Collections.<String>emptyList());
+        writer.writeRow(Arrays.asList("52324275593963", "52504847884971"));
+        long size = writer.commit();
+        writer.close();
+        assertEquals(size, f.length());
+
+        AssignmentStore store = AssignmentStore.open(f);
+        assertEquals(3, store.getNumberOfParticipants());
+        assertEquals(3, store.getNumberOfForms(0));
+        assertEquals(0, store.getNumberOfForms(1));
+        assertEquals(2, store.getNumberOfForms(2));
+        assertEquals(52223988034962L, store.getFormId(0, 1));
+        assertEquals(52504847884971L, store.getFormId(2, 1));
+        assertEquals(Arrays.asList(52324275593963L, 52504847884971L), store.getFormIds(2));
+        assertEquals(Collections.<Long>emptyList(), store.getFormIds(1));
+        store.close();
+    }
+
+    @Test
+    public void leavesNoFileUnlessCommitted() throws IOException {
+        File f = new File(this.folder.getRoot(), "store.bin");
+        AssignmentStoreWriter writer = new AssignmentStoreWriter(f);
+        writer.writeRow(Arrays.asList("52504847884971"));
+        writer.close();
+        assertFalse(f.exists());
+        assertEquals(0, this.folder.getRoot().list().length);
+    }
+
+    @Test
+    public void rejectsATruncatedStore() throws IOException {
+        File f = new File(this.folder.getRoot(), "store.bin");
+        AssignmentStoreWriter writer = new AssignmentStoreWriter(f);
+        writer.writeRow(Arrays.asList("52504847884971", "52223988034962"));
+        writer.commit();
+        writer.close();
+        RandomAccessFile file = new RandomAccessFile(f, "rw");
+        file.setLength(f.length() - 2);
+        file.close();
+        try {
+            AssignmentStore.open(f).close();
+            fail("A truncated store was opened");
+        } catch (IOException e) {
+            assertEquals("The assignment store is truncated", e.getMessage());
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsPositionsBeyondTheRow() throws IOException {
+        File f = new File(this.folder.getRoot(), "store.bin");
+        AssignmentStoreWriter writer = new AssignmentStoreWriter(f);
+        writer.writeRow(Arrays.asList("52504847884971"));
+        writer.writeRow(Arrays.asList("52223988034962"));
+        writer.commit();
+        writer.close();
+        AssignmentStore store = AssignmentStore.open(f);
+        try {
+            store.getFormId(0, 1);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsIdsThatAreNotNumeric() throws IOException {
+        AssignmentStoreWriter writer = new AssignmentStoreWriter(new File(this.folder.getRoot(), "store.bin"));
+        try {
+            writer.writeRow(Arrays.asList("i52513648520957"));
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author csarasua
+ *         Tests of the balance of the samples: after every sample, the exposures of any two forms differ by at most
+ *         one.
+ */
+public class BalancedSamplerTest {
+
+    @Test
+    public void keepsTheExposuresWithinOne() {
+        assertBalanced(10, 3, 1, 200);
+        assertBalanced(7, 7, 2, 20);
+        assertBalanced(31, 1, 3, 100);
+        assertBalanced(50, 49, 4, 100);
+        assertBalanced(5, 0, 5, 10);
+    }
+
+    @Test
+    public void drawsTheSameSamplesFromTheSameSeed() {
+        BalancedSampler sampler = new BalancedSampler(20, 4, 9);
+        BalancedSampler again = new BalancedSampler(20, 4, 9);
+        for (int i = 0; i < 50; i++) {
+            assertArrayEquals(sampler.sample(), again.sample());
+        }
+    }
+
+    @Test
+    public void drawsFromACopyTheSamplesOfTheOriginal() {
+        BalancedSampler sampler = new BalancedSampler(20, 4, 9);
+        for (int i = 0; i < 13; i++) {
+            sampler.sample();
+        }
+        BalancedSampler copy = new BalancedSampler(sampler);
+        for (int i = 0; i < 50; i++) {
+            assertArrayEquals(sampler.sample(), copy.sample());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSamplesLargerThanThePool() {
+        new BalancedSampler(3, 4, 1);
+    }
+
+    private static void assertBalanced(int poolSize, int sampleSize, long seed, int samples) {
+        BalancedSampler sampler = new BalancedSampler(poolSize, sampleSize, seed);
+        for (int count = 1; count <= samples; count++) {
+            int[] sample = sampler.sample();
+            assertEquals(sampleSize, sample.length);
+            Set<Integer> distinct = new HashSet<Integer>();
+            for (int form : sample) {
+                assertTrue(form >= 0 && form < poolSize);
+                assertTrue(distinct.add(form));
+            }
+            int least = Integer.MAX_VALUE;
+            int most = 0;
+            long total = 0;
+            for (int form = 0; form < poolSize; form++) {
+                least = Math.min(least, sampler.getExposure(form));
+                most = Math.max(most, sampler.getExposure(form));
+                total += sampler.getExposure(form);
+            }
+            assertTrue("exposures from " + least + " to " + most + " after " + count + " samples", most - least <= 1);
+            assertEquals((long) count * sampleSize, total);
+        }
+    }
+}
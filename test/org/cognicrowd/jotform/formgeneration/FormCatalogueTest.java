@@ -0,0 +1,118 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import org.cognicrowd.jotform.datamodel.Form;
+import org.cognicrowd.jotform.datamodel.TypeOfForm;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author csarasua
+ *         Tests of the scanning of the CSV catalogues of forms ("id,title").
+ */
+public class FormCatalogueTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsTheIdsAndTitles() throws IOException {
+        FormCatalogue catalogue = this.load("52504847884971,wt1\n52223988034962,Test über\n");
+        assertEquals(2, catalogue.size());
+        assertEquals(TypeOfForm.Test, catalogue.getType());
+        assertEquals(52504847884971L, catalogue.getId(0));
+        assertEquals("wt1", catalogue.getTitle(0));
+        assertEquals("Test über", catalogue.getTitle(1));
+        Form form = catalogue.getForm(1);
+        assertEquals("52223988034962", form.getFormId());
+        assertEquals("Test über", form.getName());
+        assertEquals(TypeOfForm.Test, form.getType());
+    }
+
+    @Test
+    public void readsQuotedFields() throws IOException {
+        FormCatalogue catalogue = this.load("\"52504847884971\",\"Tests, part 1\"\n"
+                + "52223988034962,\"The \"\"second\"\" test\",ignored\n"
+                + "52324275593963,\"Two\nlines\"\n");
+        assertEquals(3, catalogue.size());
+        assertEquals(52504847884971L, catalogue.getId(0));
+        assertEquals("Tests, part 1", catalogue.getTitle(0));
+        assertEquals("The \"second\" test", catalogue.getTitle(1));
+        assertEquals("Two\nlines", catalogue.getTitle(2));
+    }
+
+    @Test
+    public void readsWindowsLineEndingsAndSkipsEmptyLines() throws IOException {
+        FormCatalogue catalogue = this.load("52504847884971,wt1\r\n\r\n52223988034962,\"wt2\"\r\n52324275593963,wt3");
+        assertEquals(3, catalogue.size());
+        assertEquals("wt1", catalogue.getTitle(0));
+        assertEquals("wt2", catalogue.getTitle(1));
+        assertEquals(52324275593963L, catalogue.getId(2));
+        assertEquals("wt3", catalogue.getTitle(2));
+    }
+
+    @Test
+    public void skipsTheByteOrderMark() throws IOException {
+        FormCatalogue catalogue = this.load("\uFEFF52504847884971,wt1\n");
+        assertEquals(1, catalogue.size());
+        assertEquals(52504847884971L, catalogue.getId(0));
+    }
+
+    @Test
+    public void readsAnEmptyFile() throws IOException {
+        assertEquals(0, this.load("").size());
+    }
+
+    @Test
+    public void rejectsALineWithoutANumericId() throws IOException {
+        try {
+            this.load("52504847884971,wt1\ni52223988034962,wt2\n");
+            fail("A line without a numeric id was read");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Line 2 of "));
+            assertTrue(e.getMessage(), e.getMessage().endsWith("does not start with a numeric form id"));
+        }
+    }
+
+    @Test
+    public void rejectsALineWithoutTitle() throws IOException {
+        try {
+            this.load("52504847884971\n");
+            fail("A line without title was read");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith("does not have the shape id,title"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsATitleWithoutClosingQuote() throws IOException {
+        this.load("52504847884971,\"wt1\n");
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void rejectsAMissingFile() throws IOException {
+        FormCatalogue.load(new File(this.folder.getRoot(), "missing.csv"), TypeOfForm.Task);
+    }
+
+    @Test
+    public void createsEachFormOnce() throws IOException {
+        List<Form> forms = this.load("52504847884971,wt1\n52223988034962,wt2\n").asList();
+        assertEquals(2, forms.size());
+        assertSame(forms.get(1), forms.get(1));
+        assertEquals("wt1", forms.get(0).getName());
+    }
+
+    private FormCatalogue load(String content) throws IOException {
+        File f = this.folder.newFile();
+        Files.write(f.toPath(), content.getBytes("UTF-8"));
+        return FormCatalogue.load(f, TypeOfForm.Test);
+    }
+}
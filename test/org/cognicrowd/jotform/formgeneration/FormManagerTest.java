@@ -0,0 +1,277 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.cognicrowd.jotform.util.ConfigurationManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author csarasua
+ *         Tests of the incremental update of the lists of a previous run (updateShuffledLists), on copies of the lists
+ *         file of the first experiment (output/listOfShuffledTestsAndTasks.csv, in the format of the first versions)
+ *         and of the forms in data/, in a temporary folder; and of the seed of a serialisation that is resumed.
+ */
+public class FormManagerTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    // Properties overridden for the tests, with the name of their file in the temporary folder.
+    private static final String[][] FILES = {{"data.front", "front.csv"}, {"data.middle", "middle.csv"},
+            {"data.end", "end.csv"}, {"output.lists", "lists.csv"}, {"output.assignmentstore", "lists.bin"},
+            {"journal.file", "journal.log"}};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File legacyLists;
+    private File tests;
+    private File tasks;
+    private File lists;
+    private File store;
+
+    @Before
+    public void setUp() throws IOException {
+        for (String name : new String[]{"testsFile.csv", "tasksFile.csv", "front.csv", "middle.csv", "end.csv"}) {
+            Files.copy(new File("data", name).toPath(), new File(this.folder.getRoot(), name).toPath());
+        }
+        this.legacyLists = new File(this.folder.getRoot(), "legacy.csv");
+        Files.copy(new File("output/listOfShuffledTestsAndTasks.csv").toPath(), this.legacyLists.toPath());
+        this.tests = new File(this.folder.getRoot(), "testsFile.csv");
+        this.tasks = new File(this.folder.getRoot(), "tasksFile.csv");
+        this.lists = new File(this.folder.getRoot(), "lists.csv");
+        this.store = new File(this.folder.getRoot(), "lists.bin");
+        Files.copy(this.legacyLists.toPath(), this.lists.toPath());
+        for (String[] file : FILES) {
+            ConfigurationManager.getInstance().setProperty(file[0], new File(this.folder.getRoot(), file[1]).getAbsolutePath());
+        }
+        ConfigurationManager.getInstance().setProperty("ordering.strategy", "Random");
+    }
+
+    @After
+    public void tearDown() {
+        for (String[] file : FILES) {
+            ConfigurationManager.getInstance().clearProperty(file[0]);
+        }
+        ConfigurationManager.getInstance().clearProperty("ordering.strategy");
+    }
+
+    @Test
+    public void keepsTheLegacyListsOfAnUnchangedCatalogue() throws IOException {
+        List<List<String>> previous = readLists(this.legacyLists);
+        assertEquals(80, previous.size());
+
+        new FormManager(this.tests, this.tasks).updateShuffledLists(80, 3);
+
+        assertEquals(previous, readLists(this.lists));
+        AssignmentStore assignments = AssignmentStore.open(this.store);
+        try {
+            assertEquals(80, assignments.getNumberOfParticipants());
+            for (int participant = 0; participant < 80; participant++) {
+                List<String> formIds = new ArrayList<String>();
+                for (long formId : assignments.getFormIds(participant)) {
+                    formIds.add(Long.toString(formId));
+                }
+                assertEquals(previous.get(participant), formIds);
+            }
+        } finally {
+            assignments.close();
+        }
+    }
+
+    @Test
+    public void givesNewParticipantsListsThatAreNotKept() throws IOException {
+        List<List<String>> previous = readLists(this.legacyLists);
+
+        new FormManager(this.tests, this.tasks).updateShuffledLists(120, 3);
+
+        List<List<String>> updated = readLists(this.lists);
+        assertEquals(120, updated.size());
+        assertEquals(previous, updated.subList(0, 80));
+        assertEquals(120, new HashSet<List<String>>(updated).size());
+        for (List<String> list : updated) {
+            assertEquals(previous.get(0).size(), list.size());
+            assertEquals(new HashSet<String>(previous.get(0)), new HashSet<String>(list));
+        }
+    }
+
+    @Test
+    public void dropsTheListsOfParticipantsThatLeft() throws IOException {
+        List<List<String>> previous = readLists(this.legacyLists);
+
+        new FormManager(this.tests, this.tasks).updateShuffledLists(50, 3);
+
+        assertEquals(previous.subList(0, 50), readLists(this.lists));
+    }
+
+    @Test
+    public void removesAndAddsFormsKeepingTheRestInOrder() throws IOException {
+        List<List<String>> previous = readLists(this.legacyLists);
+        List<String> tests = Files.readAllLines(this.tests.toPath(), UTF8);
+        String removed = tests.get(0).split(",")[0];
+        String added = "52999999999999";
+        List<String> newCatalogue = new ArrayList<String>(tests.subList(1, tests.size()));
+        newCatalogue.add(added + ",wt99");
+        File newTests = this.folder.newFile("tests.csv");
+        Files.write(newTests.toPath(), newCatalogue, UTF8);
+
+        new FormManager(newTests, this.tasks).updateShuffledLists(80, 3);
+
+        Set<String> decoration = this.readDecoration();
+        List<List<String>> updated = readLists(this.lists);
+        assertEquals(80, updated.size());
+        int[] timesAtPosition = new int[30];
+        for (int participant = 0; participant < 80; participant++) {
+            List<String> list = withoutDecoration(updated.get(participant), decoration);
+            List<String> kept = withoutDecoration(previous.get(participant), decoration);
+            kept.remove(removed);
+            int position = list.indexOf(added);
+            assertTrue(position >= 0);
+            timesAtPosition[position]++;
+            // The other forms stay in the same order.
+            list.remove(position);
+            assertEquals(kept, list);
+        }
+        // The new form is spread over the positions of the lists.
+        for (int times : timesAtPosition) {
+            assertTrue(times <= (80 + 29) / 30);
+        }
+    }
+
+    @Test
+    public void replacesTheRemovedFormsOfASampleByFormsOfTheirType() throws IOException {
+        FormManager manager = new FormManager(this.tests, this.tasks);
+        manager.setFormsPerParticipant(5, 3);
+        manager.setSeed(11);
+        manager.generateShuffledLists(40, 2);
+        List<List<String>> previous = readLists(this.lists);
+        List<String> tests = Files.readAllLines(this.tests.toPath(), UTF8);
+        List<String> tasks = Files.readAllLines(this.tasks.toPath(), UTF8);
+        String removedTest = tests.get(0).split(",")[0];
+        String removedTask = tasks.get(0).split(",")[0];
+        File newTests = this.folder.newFile("tests.csv");
+        Files.write(newTests.toPath(), tests.subList(1, tests.size()), UTF8);
+        File newTasks = this.folder.newFile("tasks.csv");
+        Files.write(newTasks.toPath(), tasks.subList(1, tasks.size()), UTF8);
+        Set<String> testIds = new HashSet<String>();
+        for (String line : tests) {
+            testIds.add(line.split(",")[0]);
+        }
+
+        manager = new FormManager(newTests, newTasks);
+        manager.setFormsPerParticipant(5, 3);
+        manager.setSeed(11);
+        manager.updateShuffledLists(40, 2);
+
+        Set<String> decoration = this.readDecoration();
+        List<List<String>> updated = readLists(this.lists);
+        for (int participant = 0; participant < 40; participant++) {
+            List<String> list = withoutDecoration(updated.get(participant), decoration);
+            List<String> kept = withoutDecoration(previous.get(participant), decoration);
+            assertEquals(kept.size(), list.size());
+            for (int i = 0; i < list.size(); i++) {
+                if (kept.get(i).equals(removedTest)) {
+                    assertTrue(testIds.contains(list.get(i)));
+                } else if (kept.get(i).equals(removedTask)) {
+                    assertFalse(testIds.contains(list.get(i)));
+                } else {
+                    assertEquals(kept.get(i), list.get(i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void leavesAFileOfAnotherFormatUntouched() throws IOException {
+        List<String> lines = Arrays.asList("Forms for users", "user1,http://form.jotformpro.com/form/52504847884971,not a form");
+        Files.write(this.lists.toPath(), lines, UTF8);
+        this.store.delete();
+
+        try {
+            new FormManager(this.tests, this.tasks).updateShuffledLists(80, 3);
+            fail("A file of another format was updated");
+        } catch (IOException e) {
+            assertEquals("Row 2, cell 3 is not the URL of a form: not a form", e.getMessage());
+        }
+
+        assertEquals(lines, Files.readAllLines(this.lists.toPath(), UTF8));
+        assertFalse(this.store.exists());
+    }
+
+    @Test
+    public void resumesTheSerialisationWithTheSeedOfTheJournal() throws IOException {
+        SerialisationJournal journal = new SerialisationJournal(new File(this.folder.getRoot(), "journal.log"), 1);
+        journal.recordSeed(20151008L);
+        journal.close();
+
+        assertEquals(20151008L, new FormManager(this.tests, this.tasks).getSeed());
+    }
+
+    @Test
+    public void refusesToResumeTheSerialisationOfAnotherSeed() throws IOException {
+        SerialisationJournal journal = new SerialisationJournal(new File(this.folder.getRoot(), "journal.log"), 1);
+        journal.recordSeed(20151008L);
+        journal.close();
+        FormManager manager = new FormManager(this.tests, this.tasks);
+        manager.setSeed(7L);
+        manager.createSetOfShuffledLists(2);
+        try {
+            manager.serialiseSetOfShuffledLists(1);
+            fail("The lists of another seed were serialised");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("seed 20151008, not 7"));
+        }
+    }
+
+    /**
+     * Reads the form ids of each row of a lists file, decoration included.
+     */
+    private static List<List<String>> readLists(File f) throws IOException {
+        List<List<String>> lists = new ArrayList<List<String>>();
+        CSVParser parser = CSVParser.parse(f, UTF8, CSVFormat.DEFAULT);
+        try {
+            for (CSVRecord row : parser) {
+                if (parser.getRecordNumber() > 1) {
+                    lists.add(ShuffledResultWriter.formIdsOf(row));
+                }
+            }
+        } finally {
+            parser.close();
+        }
+        return lists;
+    }
+
+    /**
+     * Reads the ids of the instructions, breaks and ends of session.
+     */
+    private Set<String> readDecoration() throws IOException {
+        Set<String> decoration = new HashSet<String>();
+        for (String file : new String[]{"front.csv", "middle.csv", "end.csv"}) {
+            for (String line : Files.readAllLines(new File(this.folder.getRoot(), file).toPath(), UTF8)) {
+                decoration.add(line.split(",")[0]);
+            }
+        }
+        return decoration;
+    }
+
+    private static List<String> withoutDecoration(List<String> list, Set<String> decoration) {
+        List<String> shuffled = new ArrayList<String>();
+        for (String formId : list) {
+            if (!decoration.contains(formId)) {
+                shuffled.add(formId);
+            }
+        }
+        return shuffled;
+    }
+}
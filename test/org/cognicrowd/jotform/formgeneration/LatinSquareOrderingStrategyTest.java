@@ -0,0 +1,62 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author csarasua
+ *         Tests of the balance of the Williams design: over each block of rows, every form appears equally often in
+ *         every position and immediately after every other form.
+ */
+public class LatinSquareOrderingStrategyTest {
+
+    @Test
+    public void balancesAnEvenNumberOfForms() {
+        assertBalanced(6, 1);
+    }
+
+    @Test
+    public void balancesAnOddNumberOfForms() {
+        assertBalanced(5, 1);
+        assertBalanced(7, 9);
+    }
+
+    @Test
+    public void repeatsTheRowsAfterEachBlock() {
+        LatinSquareOrderingStrategy strategy = new LatinSquareOrderingStrategy(5, 3);
+        assertEquals(10, strategy.getNumberOfRows());
+        for (int participant = 0; participant < 10; participant++) {
+            assertArrayEquals(strategy.orderFor(participant), strategy.orderFor(participant + 10));
+        }
+    }
+
+    @Test
+    public void ordersNoForms() {
+        assertEquals(0, new LatinSquareOrderingStrategy(0, 1).orderFor(3).length);
+    }
+
+    private static void assertBalanced(int numberOfForms, long seed) {
+        LatinSquareOrderingStrategy strategy = new LatinSquareOrderingStrategy(numberOfForms, seed);
+        int rows = strategy.getNumberOfRows();
+        assertEquals(numberOfForms % 2 == 0 ? numberOfForms : 2 * numberOfForms, rows);
+        int[][] timesAtPosition = new int[numberOfForms][numberOfForms];
+        int[][] timesAfter = new int[numberOfForms][numberOfForms];
+        for (int participant = 0; participant < rows; participant++) {
+            int[] order = strategy.orderFor(participant);
+            for (int position = 0; position < numberOfForms; position++) {
+                timesAtPosition[order[position]][position]++;
+                if (position > 0) {
+                    timesAfter[order[position - 1]][order[position]]++;
+                }
+            }
+        }
+        int expected = rows / numberOfForms;
+        for (int form = 0; form < numberOfForms; form++) {
+            for (int other = 0; other < numberOfForms; other++) {
+                assertEquals(expected, timesAtPosition[form][other]);
+                assertEquals(form == other ? 0 : expected, timesAfter[form][other]);
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.cognicrowd.jotform.client.QuestionCache;
+import org.cognicrowd.jotform.datamodel.Form;
+import org.cognicrowd.jotform.datamodel.Question;
+import org.cognicrowd.jotform.datamodel.TypeOfForm;
+import org.cognicrowd.jotform.util.JsonMapper;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author csarasua
+ *         Tests of the payloads spliced from the encoded questions, against the payload built question by question.
+ */
+public class MergedFormTemplateTest {
+
+    private final Form first = new Form("51000000000001", "first", TypeOfForm.Test);
+    private final Form second = new Form("51000000000002", "second", TypeOfForm.Test);
+    private final Form third = new Form("52000000000003", "third", TypeOfForm.Task);
+
+    private QuestionCache questionCache;
+    private MergedFormTemplate template;
+
+    @Before
+    public void setUp() throws IOException {
+        this.questionCache = new QuestionCache();
+        this.questionCache.put(this.first.getFormId(), questions("{\"1\":{\"qid\":\"1\",\"order\":\"1\",\"type\":\"control_head\",\"text\":\"Test \\\"one\\\"\"},"
+                + "\"2\":{\"qid\":\"2\",\"order\":\"2\",\"type\":\"control_radio\",\"text\":\"Choose\",\"required\":\"Yes\",\"options\":\"a|b|c\"}}"));
+        this.questionCache.put(this.second.getFormId(), questions("{\"5\":{\"qid\":\"5\",\"order\":\"1\",\"type\":\"control_fullname\",\"name\":\"name\","
+                + "\"sublabels\":{\"first\":\"First\",\"last\":\"Last\"}},"
+                + "\"7\":{\"qid\":\"7\",\"order\":\"2\",\"type\":\"control_textarea\",\"text\":\"Comments ü\"},"
+                + "\"9\":{\"qid\":\"9\",\"order\":\"3\",\"type\":\"control_button\",\"text\":\"Submit\"}}"));
+        this.questionCache.put(this.third.getFormId(), questions("{\"3\":{\"qid\":\"3\",\"order\":\"1\",\"type\":\"control_number\",\"text\":\"How many?\"}}"));
+        this.template = new MergedFormTemplate(Arrays.asList(this.first, this.second, this.third), this.questionCache);
+    }
+
+    @Test
+    public void writesTheQuestionsOfTheListInOrder() throws IOException {
+        for (List<Form> list : Arrays.asList(Arrays.asList(this.first, this.second, this.third),
+                Arrays.asList(this.third, this.second, this.first), Arrays.asList(this.second, this.third))) {
+            byte[] payload = this.write(list, 0, Integer.MAX_VALUE);
+            assertEquals(this.expected(list), JsonMapper.MAPPER.readTree(payload));
+            assertEquals(payload.length, this.template.lengthOf(list));
+        }
+        assertEquals(6, this.template.numberOfQuestions(Arrays.asList(this.third, this.second, this.first)));
+    }
+
+    @Test
+    public void writesChunksOfTheQuestions() throws IOException {
+        List<Form> list = Arrays.asList(this.second, this.first, this.third);
+        JsonNode questions = this.expected(list).get("questions");
+        for (int from = 0; from <= 6; from++) {
+            for (int to = from; to <= 6; to++) {
+                byte[] payload = this.write(list, from, to);
+                ArrayNode chunk = (ArrayNode) JsonMapper.MAPPER.readTree(payload).get("questions");
+                assertEquals(to - from, chunk.size());
+                for (int i = from; i < to; i++) {
+                    assertEquals(questions.get(i), chunk.get(i - from));
+                }
+                assertEquals(payload.length, this.template.lengthOf(list, from, to));
+            }
+        }
+    }
+
+    private byte[] write(List<Form> list, int fromQuestion, int toQuestion) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        this.template.writeTo(list, fromQuestion, toQuestion, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * The payload of a list built question by question: the qid prefixed with the id of the form, and the order
+     * shifted by the questions of the forms before.
+     */
+    private JsonNode expected(List<Form> list) {
+        ObjectNode payload = JsonMapper.MAPPER.createObjectNode();
+        ArrayNode questions = payload.putArray("questions");
+        int countCurrentOrder = 0;
+        for (Form form : list) {
+            List<Question> questionsOfForm = this.questionCache.getQuestions(form.getFormId());
+            for (Question question : questionsOfForm) {
+                ObjectNode node = JsonMapper.MAPPER.valueToTree(question);
+                node.put("qid", form.getFormId() + "-" + question.getQid());
+                node.put("order", Integer.toString(question.getOrder() + countCurrentOrder));
+                questions.add(node);
+            }
+            countCurrentOrder += questionsOfForm.size();
+        }
+        return payload;
+    }
+
+    private static Map<String, Question> questions(String json) throws IOException {
+        return JsonMapper.MAPPER.readValue(json, new TypeReference<LinkedHashMap<String, Question>>() {
+        });
+    }
+}
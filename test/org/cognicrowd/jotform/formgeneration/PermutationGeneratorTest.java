@@ -0,0 +1,121 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author csarasua
+ *         Tests of the Lehmer decoding of the ranks and of the Feistel bijection from participants to ranks.
+ */
+public class PermutationGeneratorTest {
+
+    @Test
+    public void decodesEveryRankToADistinctPermutation() {
+        Set<List<Integer>> permutations = new HashSet<List<Integer>>();
+        for (long rank = 0; rank < 120; rank++) {
+            int[] permutation = PermutationGenerator.decode(rank, 5);
+            assertValidPermutation(permutation, 5);
+            assertTrue(permutations.add(asList(permutation)));
+            assertArrayEquals(permutation, PermutationGenerator.decode(BigInteger.valueOf(rank), 5));
+        }
+    }
+
+    @Test
+    public void decodesTheFirstAndLastRanksInLexicographicOrder() {
+        assertArrayEquals(new int[]{0, 1, 2, 3}, PermutationGenerator.decode(0, 4));
+        assertArrayEquals(new int[]{0, 1, 3, 2}, PermutationGenerator.decode(1, 4));
+        assertArrayEquals(new int[]{3, 2, 1, 0}, PermutationGenerator.decode(23, 4));
+    }
+
+    @Test
+    public void decodesALehmerCode() {
+        // Index among the positions that are still left: 2 of [0,1,2,3], 0 of [0,1,3], 1 of [1,3], 0 of [1].
+        assertArrayEquals(new int[]{2, 0, 3, 1}, PermutationGenerator.decodeLehmerCode(new int[]{2, 0, 1, 0}));
+    }
+
+    @Test
+    public void decodesLongLehmerCodesLikeTheListOfPositionsLeft() {
+        for (int length : new int[]{0, 1, 7, 16, 33, 100}) {
+            int[] lehmerCode = new int[length];
+            for (int i = 0; i < length; i++) {
+                lehmerCode[i] = (i * 7 + length) % (length - i);
+            }
+            List<Integer> left = new ArrayList<Integer>();
+            for (int i = 0; i < length; i++) {
+                left.add(i);
+            }
+            int[] expected = new int[length];
+            for (int i = 0; i < length; i++) {
+                expected[i] = left.remove(lehmerCode[i]);
+            }
+            assertArrayEquals(expected, PermutationGenerator.decodeLehmerCode(lehmerCode));
+        }
+    }
+
+    @Test
+    public void mapsTheParticipantsToAllThePermutations() {
+        PermutationGenerator generator = new PermutationGenerator(5, 42);
+        assertEquals(BigInteger.valueOf(120), generator.getNumberOfPermutations());
+        Set<List<Integer>> permutations = new HashSet<List<Integer>>();
+        for (long participant = 0; participant < 120; participant++) {
+            int[] permutation = generator.permutationFor(participant);
+            assertValidPermutation(permutation, 5);
+            assertTrue(permutations.add(asList(permutation)));
+        }
+    }
+
+    @Test
+    public void givesDistinctPermutationsWithBigIntegerRanks() {
+        // 25! does not fit in the long ranks.
+        PermutationGenerator generator = new PermutationGenerator(25, 7);
+        Set<List<Integer>> permutations = new HashSet<List<Integer>>();
+        for (long participant = 0; participant < 2000; participant++) {
+            int[] permutation = generator.permutationFor(participant);
+            assertValidPermutation(permutation, 25);
+            assertTrue(permutations.add(asList(permutation)));
+        }
+    }
+
+    @Test
+    public void recomputesThePermutationsFromTheSeed() {
+        PermutationGenerator generator = new PermutationGenerator(12, 3);
+        PermutationGenerator again = new PermutationGenerator(12, 3);
+        PermutationGenerator other = new PermutationGenerator(12, 4);
+        boolean differs = false;
+        for (long participant = 999; participant >= 0; participant--) {
+            assertArrayEquals(generator.permutationFor(participant), again.permutationFor(participant));
+            differs |= !Arrays.equals(generator.permutationFor(participant), other.permutationFor(participant));
+        }
+        assertTrue(differs);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsParticipantsBeyondTheNumberOfPermutations() {
+        new PermutationGenerator(3, 1).permutationFor(6);
+    }
+
+    private static void assertValidPermutation(int[] permutation, int length) {
+        assertEquals(length, permutation.length);
+        int[] sorted = permutation.clone();
+        Arrays.sort(sorted);
+        for (int i = 0; i < length; i++) {
+            assertEquals(i, sorted[i]);
+        }
+    }
+
+    private static List<Integer> asList(int[] permutation) {
+        Integer[] boxed = new Integer[permutation.length];
+        for (int i = 0; i < permutation.length; i++) {
+            boxed[i] = permutation[i];
+        }
+        return Arrays.asList(boxed);
+    }
+}
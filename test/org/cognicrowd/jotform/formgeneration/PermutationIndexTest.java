@@ -0,0 +1,41 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author csarasua
+ *         Tests of the detection of repeated permutations by the fingerprint index.
+ */
+public class PermutationIndexTest {
+
+    @Test
+    public void findsAnEqualPermutationInAnotherArray() {
+        PermutationIndex index = new PermutationIndex();
+        assertTrue(index.add(new int[]{2, 0, 1}));
+        assertTrue(index.contains(new int[]{2, 0, 1}));
+        assertFalse(index.contains(new int[]{2, 1, 0}));
+        assertFalse(index.add(new int[]{2, 0, 1}));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void keepsThePermutationsWhenItGrows() {
+        PermutationIndex index = new PermutationIndex(2);
+        for (long rank = 0; rank < 720; rank++) {
+            assertTrue(index.add(PermutationGenerator.decode(rank, 6)));
+        }
+        assertEquals(720, index.size());
+        for (long rank = 0; rank < 720; rank++) {
+            assertTrue(index.contains(PermutationGenerator.decode(rank, 6)));
+            assertFalse(index.add(PermutationGenerator.decode(rank, 6)));
+        }
+    }
+
+    @Test
+    public void givesEqualPermutationsTheSameFingerprint() {
+        assertEquals(PermutationIndex.fingerprint(new int[]{3, 1, 2, 0}), PermutationIndex.fingerprint(new int[]{3, 1, 2, 0}));
+        assertNotEquals(PermutationIndex.fingerprint(new int[]{3, 1, 2, 0}), PermutationIndex.fingerprint(new int[]{3, 1, 0, 2}));
+    }
+}
@@ -0,0 +1,117 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import org.cognicrowd.jotform.datamodel.Form;
+import org.cognicrowd.jotform.datamodel.TypeOfForm;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author csarasua
+ *         Tests of resuming a serialisation from the records of the journal.
+ */
+public class SerialisationJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<Form> list = Arrays.asList(form("11"), form("12"), form("13"));
+    private final List<Form> otherList = Arrays.asList(form("13"), form("12"), form("11"));
+
+    @Test
+    public void resumesTheProgressOfEachParticipant() throws IOException {
+        File f = this.folder.newFile("journal.log");
+        SerialisationJournal journal = new SerialisationJournal(f, 1);
+        // Two participants with the same list get a form each.
+        SerialisationJournal.Entry first = journal.recordCreated(this.list, "901", 1);
+        SerialisationJournal.Entry second = journal.recordCreated(this.list, "902", 2);
+        journal.recordChunkUploaded(first, 0, 10);
+        journal.recordChunkUploaded(first, 20, 25);
+        journal.recordQuestionsAdded(second);
+        journal.close();
+
+        SerialisationJournal resumed = new SerialisationJournal(f, 1);
+        SerialisationJournal.Entry entry = resumed.get(1, this.list);
+        assertEquals("901", entry.getFormId());
+        assertEquals(Arrays.asList("11", "12", "13"), entry.getFormIds());
+        assertFalse(entry.isQuestionsAdded());
+        assertTrue(entry.hasUploadedChunks());
+        List<int[]> pending = entry.pendingChunks(30, 6);
+        assertEquals(3, pending.size());
+        assertArrayEquals(new int[]{10, 16}, pending.get(0));
+        assertArrayEquals(new int[]{16, 20}, pending.get(1));
+        assertArrayEquals(new int[]{25, 30}, pending.get(2));
+
+        assertEquals("902", resumed.get(2, this.list).getFormId());
+        assertTrue(resumed.get(2, this.list).isQuestionsAdded());
+        assertNull(resumed.get(3, this.list));
+        assertEquals(2, resumed.getEntries().size());
+        resumed.close();
+    }
+
+    @Test
+    public void forgetsTheFormOfAListThatChanged() throws IOException {
+        File f = this.folder.newFile("journal.log");
+        SerialisationJournal journal = new SerialisationJournal(f, 8);
+        journal.recordCreated(this.list, "901", 1);
+        journal.close();
+
+        SerialisationJournal resumed = new SerialisationJournal(f, 8);
+        assertNull(resumed.get(1, this.otherList));
+        resumed.recordCreated(this.otherList, "903", 1);
+        resumed.close();
+
+        SerialisationJournal again = new SerialisationJournal(f, 8);
+        assertNull(again.get(1, this.list));
+        assertEquals("903", again.get(1, this.otherList).getFormId());
+        assertEquals(1, again.getEntries().size());
+        again.close();
+    }
+
+    @Test
+    public void keepsTheSeedOfTheFirstRun() throws IOException {
+        File f = this.folder.newFile("journal.log");
+        assertNull(SerialisationJournal.readSeed(new File(this.folder.getRoot(), "missing.log")));
+        SerialisationJournal journal = new SerialisationJournal(f, 1);
+        assertNull(journal.getSeed());
+        journal.recordSeed(-42L);
+        journal.recordCreated(this.list, "901", 1);
+        journal.close();
+        assertEquals(Long.valueOf(-42L), SerialisationJournal.readSeed(f));
+
+        SerialisationJournal resumed = new SerialisationJournal(f, 1);
+        assertEquals(Long.valueOf(-42L), resumed.getSeed());
+        resumed.recordSeed(7L);
+        assertEquals(Long.valueOf(-42L), resumed.getSeed());
+        resumed.close();
+        assertEquals(Long.valueOf(-42L), SerialisationJournal.readSeed(f));
+    }
+
+    @Test
+    public void ignoresARecordCutByACrash() throws IOException {
+        File f = this.folder.newFile("journal.log");
+        SerialisationJournal journal = new SerialisationJournal(f, 1);
+        SerialisationJournal.Entry entry = journal.recordCreated(this.list, "901", 1);
+        journal.close();
+        OutputStream out = new FileOutputStream(f, true);
+        out.write(("QUESTIONS\t" + Long.toHexString(entry.getFingerprint())).getBytes("UTF-8"));
+        out.close();
+
+        SerialisationJournal resumed = new SerialisationJournal(f, 1);
+        assertFalse(resumed.get(1, this.list).isQuestionsAdded());
+        resumed.close();
+    }
+
+    private static Form form(String id) {
+        return new Form(id, "form " + id, TypeOfForm.Test);
+    }
+}
@@ -0,0 +1,199 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.apache.http.HttpEntity;
+import org.apache.http.util.EntityUtils;
+import org.cognicrowd.jotform.client.JotFormClient;
+import org.cognicrowd.jotform.client.QuestionCache;
+import org.cognicrowd.jotform.datamodel.Form;
+import org.cognicrowd.jotform.datamodel.Question;
+import org.cognicrowd.jotform.datamodel.TypeOfForm;
+import org.cognicrowd.jotform.util.ConfigurationManager;
+import org.cognicrowd.jotform.util.JsonMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author csarasua
+ *         Tests of the serialisation of lists through the stages of the pipeline, with a client that creates the forms
+ *         in memory.
+ */
+public class SerialisationPipelineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ConfigurationManager config = ConfigurationManager.getInstance();
+    private final Form first = new Form("51000000000001", "first", TypeOfForm.Test);
+    private final Form second = new Form("51000000000002", "second", TypeOfForm.Test);
+    private final Form third = new Form("52000000000003", "third", TypeOfForm.Task);
+
+    private MergedFormTemplate template;
+    private SerialisationJournal journal;
+    private InMemoryClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        QuestionCache questionCache = new QuestionCache();
+        questionCache.put(this.first.getFormId(), questions(3));
+        questionCache.put(this.second.getFormId(), questions(1));
+        questionCache.put(this.third.getFormId(), questions(2));
+        this.template = new MergedFormTemplate(Arrays.asList(this.first, this.second, this.third), questionCache);
+        this.journal = new SerialisationJournal(this.folder.newFile("journal.log"), 8);
+        this.client = new InMemoryClient(this.config);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.journal.close();
+        this.client.shutdown();
+    }
+
+    @Test
+    public void serialisesEveryList() throws Exception {
+        Map<Integer, List<Form>> lists = this.lists();
+        new SerialisationPipeline(this.client, this.template, this.journal, this.config.getSnapshot()).run(lists);
+
+        assertEquals(lists.size(), this.client.questionsOfForm.size());
+        for (Map.Entry<Integer, List<Form>> list : lists.entrySet()) {
+            SerialisationJournal.Entry entry = this.journal.get(list.getKey(), list.getValue());
+            assertTrue(entry.isQuestionsAdded());
+            assertEquals(list.getKey().intValue(), entry.getListNumber());
+            assertEquals(" Form" + list.getKey(), this.client.titleOfForm.get(entry.getFormId()));
+            assertEquals(6, this.client.questionsOfForm.get(entry.getFormId()).get());
+        }
+    }
+
+    @Test
+    public void givesEachParticipantAFormOfTheirOwn() throws Exception {
+        Map<Integer, List<Form>> lists = new LinkedHashMap<Integer, List<Form>>();
+        lists.put(1, Arrays.asList(this.first, this.second, this.third));
+        lists.put(2, Arrays.asList(this.first, this.second, this.third));
+        new SerialisationPipeline(this.client, this.template, this.journal, this.config.getSnapshot()).run(lists);
+
+        assertEquals(2, this.client.questionsOfForm.size());
+        assertFalse(this.journal.get(1, lists.get(1)).getFormId().equals(this.journal.get(2, lists.get(2)).getFormId()));
+        assertEquals(" Form2", this.client.titleOfForm.get(this.journal.get(2, lists.get(2)).getFormId()));
+    }
+
+    @Test
+    public void leavesTheListsThatFailPendingInTheJournal() throws Exception {
+        Map<Integer, List<Form>> lists = this.lists();
+        this.client.failingForm = "902";
+        new SerialisationPipeline(this.client, this.template, this.journal, this.config.getSnapshot()).run(lists);
+
+        int pending = 0;
+        for (Map.Entry<Integer, List<Form>> list : lists.entrySet()) {
+            SerialisationJournal.Entry entry = this.journal.get(list.getKey(), list.getValue());
+            assertEquals(!entry.getFormId().equals("902"), entry.isQuestionsAdded());
+            pending += entry.isQuestionsAdded() ? 0 : 1;
+        }
+        assertEquals(1, pending);
+    }
+
+    @Test(timeout = 60000)
+    public void keepsTheStagesAliveWhenAListFailsWithAnyException() throws Exception {
+        Map<Integer, List<Form>> lists = this.lists();
+        this.client.failingForm = "902";
+        this.client.uncheckedFailure = true;
+        this.client.listWithoutId = 4;
+        new SerialisationPipeline(this.client, this.template, this.journal, this.config.getSnapshot()).run(lists);
+
+        int added = 0;
+        for (Map.Entry<Integer, List<Form>> list : lists.entrySet()) {
+            SerialisationJournal.Entry entry = this.journal.get(list.getKey(), list.getValue());
+            if (list.getKey() == 4) {
+                // A form without id is not recorded.
+                assertNull(entry);
+            } else {
+                assertEquals(!entry.getFormId().equals("902"), entry.isQuestionsAdded());
+                added += entry.isQuestionsAdded() ? 1 : 0;
+            }
+        }
+        assertEquals(4, added);
+    }
+
+    /**
+     * The six orders of the three forms, numbered from 1.
+     */
+    private Map<Integer, List<Form>> lists() {
+        Map<Integer, List<Form>> lists = new LinkedHashMap<Integer, List<Form>>();
+        for (long rank = 0; rank < 6; rank++) {
+            List<Form> forms = Arrays.asList(this.first, this.second, this.third);
+            List<Form> list = new ArrayList<Form>();
+            for (int position : PermutationGenerator.decode(rank, 3)) {
+                list.add(forms.get(position));
+            }
+            lists.put(lists.size() + 1, list);
+        }
+        return lists;
+    }
+
+    private static Map<String, Question> questions(int size) throws IOException {
+        StringBuilder json = new StringBuilder("{");
+        for (int qid = 1; qid <= size; qid++) {
+            json.append(qid > 1 ? "," : "").append("\"").append(qid).append("\":{\"qid\":\"").append(qid)
+                    .append("\",\"order\":\"").append(qid).append("\",\"type\":\"control_textbox\",\"text\":\"Question ")
+                    .append(qid).append("\"}");
+        }
+        return JsonMapper.MAPPER.readValue(json.append("}").toString(), new TypeReference<LinkedHashMap<String, Question>>() {
+        });
+    }
+
+    /**
+     * Client that keeps the forms in memory: the title of each form and the number of questions added to it.
+     */
+    private static class InMemoryClient extends JotFormClient {
+        final ConcurrentMap<String, String> titleOfForm = new ConcurrentHashMap<String, String>();
+        final ConcurrentMap<String, AtomicInteger> questionsOfForm = new ConcurrentHashMap<String, AtomicInteger>();
+        private final AtomicInteger lastId = new AtomicInteger(900);
+        // Form whose questions cannot be added, and whether it fails with an unchecked exception.
+        volatile String failingForm;
+        volatile boolean uncheckedFailure;
+        // Number of the list whose form is created without id.
+        volatile int listWithoutId;
+
+        InMemoryClient(ConfigurationManager config) {
+            super(config);
+        }
+
+        @Override
+        public String createForm(String title) {
+            if (title.equals(" Form" + this.listWithoutId)) {
+                return null;
+            }
+            String formId = Integer.toString(this.lastId.incrementAndGet());
+            this.titleOfForm.put(formId, title);
+            this.questionsOfForm.put(formId, new AtomicInteger());
+            return formId;
+        }
+
+        @Override
+        public Map<String, Question> getQuestions(String formId) {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public void putQuestions(String formId, HttpEntity questions) throws IOException {
+            if (formId.equals(this.failingForm)) {
+                if (this.uncheckedFailure) {
+                    throw new IllegalStateException("put form " + formId + " failed");
+                }
+                throw new IOException("put form " + formId + " failed");
+            }
+            int added = JsonMapper.MAPPER.readTree(EntityUtils.toByteArray(questions)).get("questions").size();
+            this.questionsOfForm.get(formId).addAndGet(added);
+        }
+    }
+}
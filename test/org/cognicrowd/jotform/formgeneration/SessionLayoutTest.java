@@ -0,0 +1,91 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import org.cognicrowd.jotform.datamodel.Form;
+import org.cognicrowd.jotform.datamodel.TypeOfForm;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author csarasua
+ *         Tests of where the instructions, breaks and ends of session go in the decorated lists.
+ */
+public class SessionLayoutTest {
+
+    private final List<Form> front = Arrays.asList(form("f"));
+    private final List<Form> middle = Arrays.asList(form("m1"), form("m2"));
+    private final List<Form> end = Arrays.asList(form("e"));
+
+    @Test
+    public void splitsTheFormsInSessionsWithABreakInTheMiddle() {
+        SessionLayout layout = new SessionLayout(10, 3, this.front, this.middle, this.end);
+        assertEquals(1 + 10 + 3 * 2 + 3, layout.getSize());
+        // The first session gets the extra form; each break goes after the first half of its session.
+        assertEquals(Arrays.asList("f", "0", "1", "m1", "m2", "2", "3", "e",
+                "4", "m1", "m2", "5", "6", "e",
+                "7", "m1", "m2", "8", "9", "e"), ids(layout.apply(forms(10))));
+    }
+
+    @Test
+    public void leavesOutTheBreakOfSessionsWithOneForm() {
+        SessionLayout layout = new SessionLayout(3, 2, this.front, this.middle, this.end);
+        assertEquals(Arrays.asList("f", "0", "m1", "m2", "1", "e", "2", "e"), ids(layout.apply(forms(3))));
+        assertEquals(layout.getSize(), layout.apply(forms(3)).size());
+    }
+
+    @Test
+    public void leavesOutSessionsWithoutForms() {
+        SessionLayout layout = new SessionLayout(2, 5, this.front, this.middle, this.end);
+        assertEquals(Arrays.asList("f", "0", "e", "1", "e"), ids(layout.apply(forms(2))));
+    }
+
+    @Test
+    public void decoratesAListOfAnotherSizeWithItsOwnLayout() {
+        SessionLayout layout = new SessionLayout(10, 2, this.front, this.middle, this.end);
+        assertEquals(Arrays.asList("f", "0", "m1", "m2", "1", "e", "2", "e"), ids(layout.apply(forms(3))));
+    }
+
+    @Test
+    public void decoratesWithoutDecorationForms() {
+        List<Form> none = Collections.emptyList();
+        SessionLayout layout = new SessionLayout(4, 2, none, none, none);
+        assertEquals(Arrays.asList("0", "1", "2", "3"), ids(layout.apply(forms(4))));
+        assertTrue(layout.getDecorationForms().isEmpty());
+    }
+
+    @Test
+    public void listsTheDecorationForms() {
+        SessionLayout layout = new SessionLayout(4, 2, this.front, this.middle, this.end);
+        assertEquals(Arrays.asList("f", "m1", "m2", "e"), ids(layout.getDecorationForms()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNoSessions() {
+        new SessionLayout(4, 0, this.front, this.middle, this.end);
+    }
+
+    private static List<Form> forms(int size) {
+        List<Form> forms = new ArrayList<Form>(size);
+        for (int i = 0; i < size; i++) {
+            forms.add(new Form(Integer.toString(i), "form " + i, TypeOfForm.Test));
+        }
+        return forms;
+    }
+
+    private static Form form(String id) {
+        return new Form(id, id, TypeOfForm.Other);
+    }
+
+    private static List<String> ids(List<Form> forms) {
+        List<String> ids = new ArrayList<String>(forms.size());
+        for (Form form : forms) {
+            ids.add(form.getFormId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,115 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.cognicrowd.jotform.datamodel.Form;
+import org.cognicrowd.jotform.datamodel.TypeOfForm;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author csarasua
+ *         Tests of the CSV file of the lists of the users, which only replaces the previous file once committed.
+ */
+public class ShuffledResultWriterTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesOneRowPerUser() throws IOException {
+        File f = new File(this.folder.getRoot(), "lists.csv");
+        ShuffledResultWriter writer = new ShuffledResultWriter(f);
+        writer.writeRow(Arrays.asList(form("52504847884971"), form("52223988034962")));
+        writer.writeRow(Arrays.asList(form("52223988034962"), form("52504847884971")));
+        writer.commit();
+        writer.close();
+
+        List<List<String>> rows = read(f);
+        assertEquals(Arrays.asList("Forms for users"), rows.get(0));
+        assertEquals(Arrays.asList("user1", "http://form.jotformpro.com/form/52504847884971",
+                "http://form.jotformpro.com/form/52223988034962"), rows.get(1));
+        assertEquals(Arrays.asList("user2", "http://form.jotformpro.com/form/52223988034962",
+                "http://form.jotformpro.com/form/52504847884971"), rows.get(2));
+        assertEquals(3, rows.size());
+        assertFalse(new File(f.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void keepsThePreviousFileUnlessCommitted() throws IOException {
+        File f = new File(this.folder.getRoot(), "lists.csv");
+        List<String> previous = Arrays.asList("Forms for users", "user1,http://form.jotformpro.com/form/52504847884971");
+        Files.write(f.toPath(), previous, UTF8);
+
+        ShuffledResultWriter writer = new ShuffledResultWriter(f);
+        writer.writeRow(Arrays.asList(form("52223988034962")));
+        writer.close();
+
+        assertEquals(previous, Files.readAllLines(f.toPath(), UTF8));
+        assertFalse(new File(f.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void keepsThePreviousStoreIfTheFileCannotBeReplaced() throws IOException {
+        File store = new File(this.folder.getRoot(), "lists.bin");
+        AssignmentStoreWriter previous = new AssignmentStoreWriter(store);
+        previous.writeRow(Arrays.asList("52504847884971"));
+        previous.commit();
+        previous.close();
+        byte[] previousStore = Files.readAllBytes(store.toPath());
+        // A directory that is not empty cannot be replaced by the file.
+        File f = this.folder.newFolder("lists.csv");
+        new File(f, "other.csv").createNewFile();
+
+        ShuffledResultWriter writer = new ShuffledResultWriter(f, store);
+        writer.writeRow(Arrays.asList(form("52223988034962"), form("52504847884971")));
+        try {
+            writer.commit();
+            fail("The file was replaced");
+        } catch (IOException e) {
+            assertTrue(f.isDirectory());
+        } finally {
+            writer.close();
+        }
+
+        assertArrayEquals(previousStore, Files.readAllBytes(store.toPath()));
+        assertFalse(new File(f.getPath() + ".tmp").exists());
+        assertFalse(new File(store.getPath() + ".tmp").exists());
+        assertFalse(new File(store.getPath() + ".rows.tmp").exists());
+    }
+
+    private static Form form(String id) {
+        return new Form(id, "form " + id, TypeOfForm.Test);
+    }
+
+    private static List<List<String>> read(File f) throws IOException {
+        List<List<String>> rows = new ArrayList<List<String>>();
+        CSVParser parser = CSVParser.parse(f, UTF8, CSVFormat.DEFAULT);
+        try {
+            for (CSVRecord record : parser) {
+                List<String> row = new ArrayList<String>();
+                for (String cell : record) {
+                    row.add(cell);
+                }
+                rows.add(row);
+            }
+        } finally {
+            parser.close();
+        }
+        return rows;
+    }
+}
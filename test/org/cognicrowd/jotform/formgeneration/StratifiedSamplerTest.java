@@ -0,0 +1,61 @@
+package org.cognicrowd.jotform.formgeneration;
+
+import org.cognicrowd.jotform.datamodel.Form;
+import org.cognicrowd.jotform.datamodel.TypeOfForm;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author csarasua
+ *         Tests of the tests and tasks drawn for each participant.
+ */
+public class StratifiedSamplerTest {
+
+    @Test
+    public void drawsTheTestsAndThenTheTasks() {
+        StratifiedSampler sampler = new StratifiedSampler(6, 4, 2, 3, 11);
+        assertEquals(5, sampler.getSampleSize());
+        for (long participant = 0; participant < 30; participant++) {
+            int[] positions = sampler.positionsFor(participant);
+            assertEquals(5, positions.length);
+            for (int i = 0; i < 2; i++) {
+                assertTrue(positions[i] >= 0 && positions[i] < 6);
+            }
+            for (int i = 2; i < 5; i++) {
+                assertTrue(positions[i] >= 6 && positions[i] < 10);
+            }
+        }
+    }
+
+    @Test
+    public void givesTheSameFormsToAParticipantAskedAgain() {
+        StratifiedSampler sampler = new StratifiedSampler(6, 4, 2, 3, 11);
+        StratifiedSampler inOrder = new StratifiedSampler(6, 4, 2, 3, 11);
+        int[][] expected = new int[9000][];
+        for (int participant = 0; participant < expected.length; participant++) {
+            expected[participant] = inOrder.positionsFor(participant);
+        }
+        assertArrayEquals(expected[8999], sampler.positionsFor(8999));
+        // Participants of the blocks drawn again, and of the last one.
+        for (int participant : new int[]{7, 0, 4098, 4095, 7, 8192, 8500}) {
+            assertArrayEquals(expected[participant], sampler.positionsFor(participant));
+        }
+    }
+
+    @Test
+    public void typesTheSlotsOfTheForms() {
+        List<Form> slots = new StratifiedSampler(6, 4, 2, 1, 11).getSlots();
+        assertEquals(3, slots.size());
+        assertEquals(TypeOfForm.Test, slots.get(0).getType());
+        assertEquals(TypeOfForm.Test, slots.get(1).getType());
+        assertEquals(TypeOfForm.Task, slots.get(2).getType());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMoreFormsThanThePoolHas() {
+        new StratifiedSampler(6, 4, 2, 5, 11);
+    }
+}
@@ -0,0 +1,92 @@
+package org.cognicrowd.jotform.util;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author csarasua
+ *         Tests of the snapshots published by the ConfigurationManager, on a config.properties of a temporary folder.
+ */
+public class ConfigurationManagerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File f;
+
+    @Before
+    public void setUp() throws IOException {
+        this.f = new File(this.folder.getRoot(), "config.properties");
+        this.write("api.requestspersecond = 5", "upload.chunksize = 100", "output.lists = out/lists.csv");
+    }
+
+    @Test
+    public void readsTheValuesAndResolvesThePaths() {
+        ConfigurationSnapshot snapshot = new ConfigurationManager(this.f).getSnapshot();
+        assertEquals(5.0, snapshot.getRequestsPerSecond(), 0.0);
+        assertEquals(100, snapshot.getUploadChunkSize());
+        // Defaults of the values that are not in the file.
+        assertEquals(8, snapshot.getRetryMaxAttempts());
+        assertNull(snapshot.getShuffleSeed());
+        assertNull(snapshot.getAssignmentStore());
+        assertEquals(new File(this.folder.getRoot(), "out/lists.csv"), snapshot.getListsFile());
+        assertEquals(new File(this.folder.getRoot(), "data/testsFile.csv"), snapshot.getTestsFile());
+    }
+
+    @Test
+    public void publishesANewSnapshotOnReload() throws IOException {
+        ConfigurationManager manager = new ConfigurationManager(this.f);
+        ConfigurationSnapshot before = manager.getSnapshot();
+        this.write("api.requestspersecond = 2.5", "upload.chunksize = 100", "shuffle.seed = 42");
+
+        manager.reload();
+
+        ConfigurationSnapshot after = manager.getSnapshot();
+        assertNotSame(before, after);
+        assertEquals(2.5, after.getRequestsPerSecond(), 0.0);
+        assertEquals(Long.valueOf(42), after.getShuffleSeed());
+        // A snapshot never changes.
+        assertEquals(5.0, before.getRequestsPerSecond(), 0.0);
+        assertNull(before.getShuffleSeed());
+    }
+
+    @Test
+    public void keepsTheOverridesAcrossReloadsUntilTheyAreCleared() throws IOException {
+        ConfigurationManager manager = new ConfigurationManager(this.f);
+        manager.setProperty("upload.chunksize", 7);
+        assertEquals(7, manager.getSnapshot().getUploadChunkSize());
+
+        this.write("api.requestspersecond = 5", "upload.chunksize = 50");
+        manager.reload();
+        assertEquals(7, manager.getSnapshot().getUploadChunkSize());
+
+        manager.clearProperty("upload.chunksize");
+        assertEquals(50, manager.getSnapshot().getUploadChunkSize());
+    }
+
+    @Test
+    public void keepsTheSnapshotWhenTheFileCannotBeRead() {
+        ConfigurationManager manager = new ConfigurationManager(this.f);
+        ConfigurationSnapshot before = manager.getSnapshot();
+        // A directory in place of the file.
+        assertTrue(this.f.delete() && this.f.mkdir());
+
+        manager.reload();
+
+        assertSame(before, manager.getSnapshot());
+    }
+
+    private void write(String... lines) throws IOException {
+        Files.write(this.f.toPath(), Arrays.asList(lines), Charset.forName("UTF-8"));
+    }
+}